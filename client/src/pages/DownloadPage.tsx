@@ -22,12 +22,10 @@ import axios from 'axios';
 const API_URL = import.meta.env.VITE_API_URL || 'http://localhost:8080';
 
 interface DownloadResponse {
-  videoId: number;
   originalFileName: string;
   originalFileSizeInByte: number;
   originalFileType: string;
-  youtubeVideoUrl: string;
-  fileContent: string; // Base64 encoded
+  content: Blob; // Raw file bytes streamed by the server
 }
 
 type DownloadStatus = 'idle' | 'fetching' | 'ready' | 'downloading' | 'success' | 'error';
@@ -65,27 +63,44 @@ const DownloadPage: React.FC = () => {
       setError(null);
       setProgress(0);
       
-      // Simulate progress for better UX
-      const progressInterval = setInterval(() => {
-        setProgress(prev => Math.min(prev + 5, 90));
-      }, 200);
-      
       const params: { secretKey?: string } = {};
       if (isEncrypted && secretKey) {
         params.secretKey = secretKey;
       }
       
-      const response = await axios.get<DownloadResponse>(`${API_URL}/download/${fileId}`, {
-        params
+      const expectedSize = fileSize ? Number(fileSize) : 0;
+      const response = await axios.get<Blob>(`${API_URL}/download/${fileId}`, {
+        params,
+        responseType: 'blob',
+        onDownloadProgress: (event) => {
+          // Server streams raw bytes with a Content-Length, so progress is real
+          const total = event.total || expectedSize;
+          if (total > 0) {
+            setProgress(Math.min(Math.round((event.loaded / total) * 100), 99));
+          }
+        }
       });
       
-      clearInterval(progressInterval);
       setProgress(100);
-      setDownloadData(response.data);
+      setDownloadData({
+        originalFileName: fileName || `file_${fileId}`,
+        originalFileSizeInByte: response.data.size,
+        originalFileType: response.headers['content-type'] || fileType || 'application/octet-stream',
+        content: response.data
+      });
       setStatus('ready');
     } catch (err: any) {
       setStatus('error');
-      const errorMessage = err.response?.data?.error || err.response?.data?.message || 'Failed to fetch file';
+      // Errors come back as a blob too because of responseType
+      let data = err.response?.data;
+      if (data instanceof Blob) {
+        try {
+          data = JSON.parse(await data.text());
+        } catch {
+          data = undefined;
+        }
+      }
+      const errorMessage = data?.error || data?.message || 'Failed to fetch file';
       setError(errorMessage);
     }
   };
@@ -96,14 +111,7 @@ const DownloadPage: React.FC = () => {
     setStatus('downloading');
     
     try {
-      // Decode base64 content
-      const byteCharacters = atob(downloadData.fileContent);
-      const byteNumbers = new Array(byteCharacters.length);
-      for (let i = 0; i < byteCharacters.length; i++) {
-        byteNumbers[i] = byteCharacters.charCodeAt(i);
-      }
-      const byteArray = new Uint8Array(byteNumbers);
-      const blob = new Blob([byteArray], { type: downloadData.originalFileType });
+      const blob = downloadData.content;
       
       // Create download link
       const url = window.URL.createObjectURL(blob);
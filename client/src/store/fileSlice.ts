@@ -11,6 +11,17 @@ interface UploadResponse {
   youtubeVideoUrl: string;
 }
 
+// Upload stage of a file while its background job runs
+interface FileStatus {
+  id: number;
+  status: string;
+  statusMessage: string | null;
+  youtubeVideoId: string | null;
+  youtubeVideoUrl: string | null;
+}
+
+const STATUS_POLL_INTERVAL_MS = 3000;
+
 // User-friendly file info (from search results)
 interface FileInfo {
   id: number;
@@ -94,7 +105,24 @@ export const uploadFile = createAsyncThunk(
           'Content-Type': 'multipart/form-data',
         },
       });
-      return response.data as UploadResponse;
+      const fileId: number = response.data.fileId;
+
+      // The server accepts the file right away and encodes/uploads it in the background
+      for (;;) {
+        await new Promise(resolve => setTimeout(resolve, STATUS_POLL_INTERVAL_MS));
+        const { data } = await axios.get<FileStatus>(`${API_URL}/files/${fileId}/status`);
+        if (data.status === 'UPLOADED') {
+          return {
+            message: 'File uploaded successfully',
+            fileId,
+            youtubeVideoId: data.youtubeVideoId,
+            youtubeVideoUrl: data.youtubeVideoUrl,
+          } as UploadResponse;
+        }
+        if (data.status === 'FAILED') {
+          return rejectWithValue(data.statusMessage || 'Upload failed');
+        }
+      }
     } catch (err: any) {
       return rejectWithValue(err.response?.data?.error || err.response?.data?.message || 'Upload failed');
     }
@@ -0,0 +1,62 @@
+package com.jaimin.justStore.utils;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BitKernels} on {@code jdk.incubator.vector}. Only compiled by the {@code vector}
+ * profile, {@link BitKernels#get()} loads it by name so the rest of the code never links
+ * against the incubator module.
+ */
+public class VectorBitKernels implements BitKernels {
+
+    private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final int PACKED_PER_STEP = LANES / 8;
+
+    // Lane j reads packed byte j / 8 and tests bit 7 - j % 8
+    private static final VectorShuffle<Byte> SPREAD = VectorShuffle.fromOp(SPECIES, lane -> lane / 8);
+    private static final ByteVector BIT_MASKS = ByteVector.fromArray(SPECIES, buildBitMasks(), 0);
+
+    @Override
+    public void unpackToLuma(byte[] packed, int packedLength, byte[] luma) {
+        int i = 0;
+        // fromArray loads a full vector, so stop while a whole vector still fits in packed
+        for (; i + LANES <= packedLength; i += PACKED_PER_STEP) {
+            ByteVector bits = ByteVector.fromArray(SPECIES, packed, i)
+                    .rearrange(SPREAD)
+                    .and(BIT_MASKS);
+            VectorMask<Byte> white = bits.compare(VectorOperators.NE, (byte) 0);
+            ByteVector.zero(SPECIES).blend((byte) -1, white).intoArray(luma, i * 8);
+        }
+        ScalarBitKernels.unpackToLuma(packed, i, packedLength, luma);
+    }
+
+    @Override
+    public int packLuma(byte[] luma, int lumaOffset, int byteCount, int threshold, byte[] out, int outIndex) {
+        final int pixelCount = byteCount * 8;
+        int pixel = 0;
+        for (; pixel + LANES <= pixelCount; pixel += LANES) {
+            long lanes = ByteVector.fromArray(SPECIES, luma, lumaOffset + pixel)
+                    .compare(VectorOperators.UNSIGNED_GT, (byte) threshold)
+                    .toLong();
+            // toLong puts lane 0 in bit 0, the packed layout wants it in bit 7 of each byte
+            long packed = Long.reverseBytes(Long.reverse(lanes));
+            for (int b = 0; b < PACKED_PER_STEP; b++) {
+                out[outIndex++] = (byte) (packed >>> (b * 8));
+            }
+        }
+        return ScalarBitKernels.packLumaRange(luma, lumaOffset + pixel, (pixelCount - pixel) / 8, threshold, out, outIndex);
+    }
+
+    private static byte[] buildBitMasks() {
+        byte[] masks = new byte[LANES];
+        for (int lane = 0; lane < LANES; lane++) {
+            masks[lane] = (byte) (0x80 >>> (lane % 8));
+        }
+        return masks;
+    }
+}
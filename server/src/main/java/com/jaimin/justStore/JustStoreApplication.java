@@ -9,6 +9,10 @@ import org.springframework.data.jpa.repository.config.EnableJpaAuditing;
 public class JustStoreApplication {
 
 	public static void main(String[] args) {
+		// Load the GPL FFmpeg build (ships libx264) unless told otherwise, must run before any bytedeco class loads
+		if (System.getProperty("org.bytedeco.javacpp.platform.extension") == null) {
+			System.setProperty("org.bytedeco.javacpp.platform.extension", "-gpl");
+		}
 		SpringApplication.run(JustStoreApplication.class, args);
 	}
 
@@ -0,0 +1,32 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.ChunkingSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ChunkingConfig {
+
+    @Value("${chunking.enabled:true}")
+    private boolean enabled;
+
+    @Value("${chunking.min-file-size-mb:64}")
+    private long minFileSizeMb;
+
+    @Value("${chunking.avg-chunk-size-kb:1024}")
+    private int avgChunkSizeKb;
+
+    @Value("${chunking.download-parallelism:2}")
+    private int downloadParallelism;
+
+    @Bean
+    public ChunkingSettings chunkingSettings() {
+        return new ChunkingSettings(
+                enabled,
+                Math.max(0, minFileSizeMb) * 1024 * 1024,
+                Math.max(1, avgChunkSizeKb) * 1024,
+                Math.max(1, downloadParallelism)
+        );
+    }
+}
@@ -0,0 +1,46 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.CompressionSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.Arrays;
+
+@Configuration
+public class CompressionConfig {
+
+    @Value("${compression.enabled:true}")
+    private boolean enabled;
+
+    @Value("${compression.level:6}")
+    private int level;
+
+    @Value("${compression.sample-kb:1024}")
+    private int sampleKb;
+
+    @Value("${compression.max-ratio:0.9}")
+    private double maxRatio;
+
+    // Content type prefixes, comma separated
+    @Value("${compression.skip-types:image/jpeg,image/png,image/gif,image/webp,image/avif,image/heic,"
+            + "video/,audio/,application/zip,application/gzip,application/x-gzip,"
+            + "application/x-7z-compressed,application/x-rar-compressed,application/vnd.rar,application/x-bzip2,"
+            + "application/x-xz,application/zstd,application/java-archive,"
+            + "application/vnd.openxmlformats-officedocument,application/epub+zip}")
+    private String skipTypes;
+
+    @Bean
+    public CompressionSettings compressionSettings() {
+        return new CompressionSettings(
+                enabled,
+                Math.clamp(level, 1, 9),
+                Math.max(1, sampleKb) * 1024,
+                maxRatio,
+                Arrays.stream(skipTypes.split(","))
+                        .map(type -> type.trim().toLowerCase())
+                        .filter(type -> !type.isEmpty())
+                        .toList()
+        );
+    }
+}
@@ -0,0 +1,24 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.DownloadCacheSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+
+@Configuration
+public class DownloadCacheConfig {
+
+    @Value("${download.cache.dir:${java.io.tmpdir}/juststore-cache}")
+    private String directory;
+
+    // 0 turns the cache off
+    @Value("${download.cache.max-size-mb:2048}")
+    private long maxSizeMb;
+
+    @Bean
+    public DownloadCacheSettings downloadCacheSettings() {
+        return new DownloadCacheSettings(Path.of(directory), Math.max(0, maxSizeMb) * 1024 * 1024);
+    }
+}
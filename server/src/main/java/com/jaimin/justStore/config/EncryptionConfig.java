@@ -0,0 +1,29 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.EncryptionSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class EncryptionConfig {
+
+    @Value("${encryption.chunk-size-kb:256}")
+    private int chunkSizeKb;
+
+    @Value("${encryption.pbkdf2-iterations:600000}")
+    private int iterations;
+
+    // 0 uses one per CPU core
+    @Value("${encryption.parallelism:0}")
+    private int parallelism;
+
+    @Bean
+    public EncryptionSettings encryptionSettings() {
+        return new EncryptionSettings(
+                Math.max(1, chunkSizeKb) * 1024,
+                Math.max(1, iterations),
+                parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors()
+        );
+    }
+}
@@ -0,0 +1,35 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.PackingSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class PackingConfig {
+
+    @Value("${packing.enabled:true}")
+    private boolean enabled;
+
+    // YouTube may drop videos of files under about 10 MB, they are too short
+    @Value("${packing.max-file-size-mb:10}")
+    private long maxFileSizeMb;
+
+    @Value("${packing.window-seconds:300}")
+    private long windowSeconds;
+
+    @Value("${packing.container-size-mb:64}")
+    private long containerSizeMb;
+
+    @Bean
+    public PackingSettings packingSettings() {
+        return new PackingSettings(
+                enabled,
+                Math.max(0, maxFileSizeMb) * 1024 * 1024,
+                Duration.ofSeconds(Math.max(1, windowSeconds)),
+                Math.max(1, containerSizeMb) * 1024 * 1024
+        );
+    }
+}
@@ -0,0 +1,29 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.ShardSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ShardConfig {
+
+    // 0 keeps every file in a single video
+    @Value("${video.shard.size-mb:0}")
+    private long shardSizeMb;
+
+    @Value("${video.shard.upload-parallelism:2}")
+    private int uploadParallelism;
+
+    @Value("${video.shard.download-parallelism:2}")
+    private int downloadParallelism;
+
+    @Bean
+    public ShardSettings shardSettings() {
+        return new ShardSettings(
+                shardSizeMb * 1024 * 1024,
+                Math.max(1, uploadParallelism),
+                Math.max(1, downloadParallelism)
+        );
+    }
+}
@@ -0,0 +1,65 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.CreateVideoUtil;
+import com.jaimin.justStore.utils.UploadJobSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+@Configuration
+public class UploadJobConfig {
+
+    @Value("${upload.staging-dir:${java.io.tmpdir}/juststore-staging}")
+    private String stagingDir;
+
+    @Value("${upload.encode-concurrency:1}")
+    private int encodeConcurrency;
+
+    // 0 means one render thread per core
+    @Value("${video.encode.render-threads:0}")
+    private int renderThreads;
+
+    @Value("${upload.upload-concurrency:2}")
+    private int uploadConcurrency;
+
+    @Value("${upload.processing.poll-interval-seconds:15}")
+    private long processingPollIntervalSeconds;
+
+    @Value("${upload.processing.timeout-minutes:30}")
+    private long processingTimeoutMinutes;
+
+    @Value("${youtube.upload.chunk-size-mb:16}")
+    private int uploadChunkSizeMb;
+
+    @Value("${youtube.upload.max-retries:8}")
+    private int uploadMaxRetries;
+
+    @Value("${upload.stream.enabled:true}")
+    private boolean streamUploads;
+
+    @Value("${upload.stream.buffer-mb:64}")
+    private long streamBufferMb;
+
+    @Value("${upload.stream.spill-mb:1024}")
+    private long streamSpillMb;
+
+    @Bean
+    public UploadJobSettings uploadJobSettings() {
+        return new UploadJobSettings(
+                Path.of(stagingDir),
+                Math.max(1, encodeConcurrency),
+                renderThreads > 0 ? renderThreads : CreateVideoUtil.DEFAULT_RENDER_THREADS,
+                Math.max(1, uploadConcurrency),
+                Duration.ofSeconds(Math.max(1, processingPollIntervalSeconds)),
+                Duration.ofMinutes(Math.max(0, processingTimeoutMinutes)),
+                Math.max(1, uploadChunkSizeMb) * 1024 * 1024,
+                Math.max(0, uploadMaxRetries),
+                streamUploads,
+                Math.max(1, streamBufferMb) * 1024 * 1024,
+                Math.max(0, streamSpillMb) * 1024 * 1024
+        );
+    }
+}
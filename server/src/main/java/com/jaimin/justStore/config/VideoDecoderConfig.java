@@ -0,0 +1,40 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.enums.BlockSampling;
+import com.jaimin.justStore.enums.VideoDecodeMode;
+import com.jaimin.justStore.utils.VideoDecoderSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class VideoDecoderConfig {
+
+    @Value("${video.decode.mode:luma}")
+    private String mode;
+
+    @Value("${video.decode.adaptive-threshold:false}")
+    private boolean adaptiveThreshold;
+
+    // 0 means one worker per core
+    @Value("${video.decode.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${video.decode.block-sampling:majority}")
+    private String blockSampling;
+
+    // 0 always downloads the full resolution
+    @Value("${video.decode.min-block-pixels:2}")
+    private double minBlockPixels;
+
+    @Bean
+    public VideoDecoderSettings videoDecoderSettings() {
+        return new VideoDecoderSettings(
+                VideoDecodeMode.valueOf(mode.trim().toUpperCase()),
+                adaptiveThreshold,
+                workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors(),
+                BlockSampling.valueOf(blockSampling.trim().toUpperCase()),
+                Math.max(0, minBlockPixels)
+        );
+    }
+}
@@ -0,0 +1,59 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+import com.jaimin.justStore.utils.VideoEncoderSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class VideoEncoderConfig {
+
+    @Value("${video.encode.backend:ffmpeg}")
+    private String backend;
+
+    @Value("${video.encode.codec:libx264}")
+    private String codec;
+
+    @Value("${video.encode.preset:veryfast}")
+    private String preset;
+
+    @Value("${video.encode.crf:18}")
+    private int crf;
+
+    @Value("${video.encode.bitrate-kbps:0}")
+    private int bitrateKbps;
+
+    @Value("${video.encode.gop-size:48}")
+    private int gopSize;
+
+    // 1 draws every bit as one pixel, larger blocks carry less per frame but survive downscaling
+    @Value("${video.encode.block-size:1}")
+    private int blockSize;
+
+    // Bits per block when an upload does not ask for a mode: bw1, gray4 or rgb3
+    @Value("${video.encode.symbol-mode:bw1}")
+    private String symbolMode;
+
+    @Bean
+    public VideoEncoderSettings videoEncoderSettings() {
+        SymbolMode defaultSymbolMode = SymbolMode.valueOf(symbolMode.trim().toUpperCase());
+        if (blockSize < defaultSymbolMode.minBlockSize()) {
+            throw new IllegalStateException("video.encode.symbol-mode " + defaultSymbolMode
+                    + " needs video.encode.block-size of at least " + defaultSymbolMode.minBlockSize());
+        }
+        return new VideoEncoderSettings(
+                VideoEncoderType.valueOf(backend.trim().toUpperCase()),
+                codec,
+                preset,
+                crf,
+                bitrateKbps,
+                gopSize,
+                Math.max(1, blockSize),
+                defaultSymbolMode,
+                Compression.NONE
+        );
+    }
+}
@@ -16,6 +16,7 @@ public class WebConfig implements WebMvcConfigurer {
         corsRegistry.addMapping("/**")
                 .allowedOrigins(allowedOrigins.split(","))
                 .allowedMethods("GET", "POST", "PUT", "DELETE")
+                .exposedHeaders("Content-Disposition", "Content-Length", "Content-Range", "Accept-Ranges")
                 .allowCredentials(true)
                 .maxAge(3600);
     }
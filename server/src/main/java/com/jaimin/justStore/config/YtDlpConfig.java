@@ -0,0 +1,65 @@
+package com.jaimin.justStore.config;
+
+import com.jaimin.justStore.utils.SegmentedFetchSettings;
+import com.jaimin.justStore.utils.YtDlpSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+
+@Configuration
+public class YtDlpConfig {
+
+    @Value("${yt_dlp.path:/home/linuxbrew/.linuxbrew/bin/yt-dlp}")
+    private String path;
+
+    @Value("${yt_dlp.max-concurrent:4}")
+    private int maxConcurrent;
+
+    @Value("${yt_dlp.max-per-host:4}")
+    private int maxPerHost;
+
+    @Value("${yt_dlp.queue-timeout-seconds:300}")
+    private long queueTimeoutSeconds;
+
+    // 0 = no limit
+    @Value("${yt_dlp.timeout-minutes:120}")
+    private long timeoutMinutes;
+
+    // 0 = no limit
+    @Value("${yt_dlp.idle-timeout-seconds:300}")
+    private long idleTimeoutSeconds;
+
+    @Value("${yt_dlp.segmented.enabled:true}")
+    private boolean segmentedEnabled;
+
+    @Value("${yt_dlp.segmented.segment-size-mb:8}")
+    private int segmentSizeMb;
+
+    @Value("${yt_dlp.segmented.parallelism:4}")
+    private int segmentParallelism;
+
+    @Value("${yt_dlp.segmented.max-retries:5}")
+    private int segmentMaxRetries;
+
+    @Bean
+    public YtDlpSettings ytDlpSettings() {
+        return new YtDlpSettings(
+                path,
+                Math.max(1, maxConcurrent),
+                Math.max(1, maxPerHost),
+                Duration.ofSeconds(Math.max(0, queueTimeoutSeconds)),
+                Duration.ofMinutes(Math.max(0, timeoutMinutes)),
+                Duration.ofSeconds(Math.max(0, idleTimeoutSeconds)));
+    }
+
+    @Bean
+    public SegmentedFetchSettings segmentedFetchSettings() {
+        return new SegmentedFetchSettings(
+                segmentedEnabled,
+                Math.max(1, segmentSizeMb) * 1024 * 1024,
+                Math.max(1, segmentParallelism),
+                Math.max(0, segmentMaxRetries));
+    }
+}
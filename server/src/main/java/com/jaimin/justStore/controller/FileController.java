@@ -1,16 +1,26 @@
 package com.jaimin.justStore.controller;
 
-import com.jaimin.justStore.dto.DownloadFileResponseDto;
+import com.jaimin.justStore.dto.CacheStatsResponseDto;
+import com.jaimin.justStore.dto.DownloadStatsResponseDto;
 import com.jaimin.justStore.dto.FileDetailResponseDto;
 import com.jaimin.justStore.dto.FileSearchResponseDto;
+import com.jaimin.justStore.dto.FileStatusResponseDto;
 import com.jaimin.justStore.dto.UploadFileRequestDto;
+import com.jaimin.justStore.model.File;
 import com.jaimin.justStore.service.FileService;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.InvalidMediaTypeException;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.util.List;
 import java.util.Map;
@@ -61,6 +71,14 @@ public class FileController {
         return ResponseEntity.ok(file);
     }
 
+    /**
+     * Get the upload stage of a file, poll this after an upload is accepted.
+     */
+    @GetMapping("/files/{id}/status")
+    public ResponseEntity<FileStatusResponseDto> getFileStatus(@PathVariable Long id) {
+        return ResponseEntity.ok(fileService.getFileStatus(id));
+    }
+
     /**
      * Get full file details by YouTube Video ID (includes YouTube info).
      */
@@ -70,6 +88,22 @@ public class FileController {
         return ResponseEntity.ok(file);
     }
 
+    /**
+     * Hit, miss and size counters of the decoded file cache.
+     */
+    @GetMapping("/cache/stats")
+    public ResponseEntity<CacheStatsResponseDto> getCacheStats() {
+        return ResponseEntity.ok(fileService.getCacheStats());
+    }
+
+    /**
+     * Active, queued and failed yt-dlp downloads.
+     */
+    @GetMapping("/downloads/stats")
+    public ResponseEntity<DownloadStatsResponseDto> getDownloadStats() {
+        return ResponseEntity.ok(fileService.getDownloadStats());
+    }
+
     @PostMapping("/upload")
     public ResponseEntity<?> uploadFile(
             @ModelAttribute UploadFileRequestDto uploadRequest
@@ -85,18 +119,76 @@ public class FileController {
     }
 
 
+    /**
+     * Stream the original file as raw bytes while its video is being decoded.
+     * A single byte range is honoured with a 206, only the frames covering it are decoded.
+     */
     @GetMapping("/download/{videoId}")
-    public ResponseEntity<?> downloadFile(
+    public ResponseEntity<StreamingResponseBody> downloadFile(
             @PathVariable Long videoId,
-            @RequestParam(required = false) String secretKey
+            @RequestParam(required = false) String secretKey,
+            @RequestHeader HttpHeaders requestHeaders
     ) {
 
-        DownloadFileResponseDto responseDto = fileService.downloadFile(videoId, secretKey);
-        return ResponseEntity
-                .status(HttpStatus.OK)
-                .body(responseDto);
+        File file = fileService.getDownloadableFile(videoId, secretKey);
+        long fileSize = file.getOriginalFileSizeInByte();
+
+        HttpRange range = parseSingleRange(requestHeaders);
+        long start = 0;
+        long end = fileSize - 1;
+        if (range != null) {
+            try {
+                start = range.getRangeStart(fileSize);
+                end = range.getRangeEnd(fileSize);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity
+                        .status(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize)
+                        .build();
+            }
+        }
+
+        final long offset = start;
+        final long length = end - start + 1;
+        String fileName = file.getOriginalFileName() != null ? file.getOriginalFileName() : "file_" + file.getId();
+        ResponseEntity.BodyBuilder response = ResponseEntity
+                .status(range != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                .contentType(parseMediaType(file.getOriginalFileType()))
+                .contentLength(length)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename(fileName, StandardCharsets.UTF_8)
+                        .build()
+                        .toString());
+        if (range != null) {
+            response.header(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + fileSize);
+        }
+        return response.body(outputStream -> fileService.streamFile(file, secretKey, outputStream, offset, length));
     }
 
+    /**
+     * The one range asked for, or {@code null} to send the whole file.
+     * Malformed and multi-range headers are ignored, as RFC 9110 allows.
+     */
+    private static HttpRange parseSingleRange(HttpHeaders requestHeaders) {
+        try {
+            List<HttpRange> ranges = requestHeaders.getRange();
+            return ranges.size() == 1 ? ranges.getFirst() : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static MediaType parseMediaType(String fileType) {
+        if (fileType == null || fileType.isBlank()) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+        try {
+            return MediaType.parseMediaType(fileType);
+        } catch (InvalidMediaTypeException e) {
+            return MediaType.APPLICATION_OCTET_STREAM;
+        }
+    }
 
 }
 
@@ -0,0 +1,17 @@
+package com.jaimin.justStore.dto;
+
+/**
+ * DTO for the decoded file cache counters, all counted since startup.
+ */
+public record CacheStatsResponseDto(
+        long hits,
+        long misses,
+        double hitRate,
+        long admissions,
+        long rejectedAdmissions,
+        long evictions,
+        long bytesServed,
+        int entries,
+        long sizeBytes,
+        long maxSizeBytes
+) {}
@@ -0,0 +1,14 @@
+package com.jaimin.justStore.dto;
+
+/**
+ * DTO for the yt-dlp download counters. Active and queued are current, the rest are counted
+ * since startup.
+ */
+public record DownloadStatsResponseDto(
+        int active,
+        int queued,
+        long started,
+        long succeeded,
+        long failed,
+        long timedOut
+) {}
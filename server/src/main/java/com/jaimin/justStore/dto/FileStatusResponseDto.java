@@ -0,0 +1,15 @@
+package com.jaimin.justStore.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * DTO for the upload stage of a file - polled while an upload job runs.
+ */
+public record FileStatusResponseDto(
+        Long id,
+        String status,
+        String statusMessage,
+        String youtubeVideoId,
+        String youtubeVideoUrl,
+        LocalDateTime updatedAt
+) {}
@@ -1,5 +1,6 @@
 package com.jaimin.justStore.dto;
 
+import com.jaimin.justStore.enums.SymbolMode;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.Set;
@@ -7,7 +8,8 @@ import java.util.Set;
 public record UploadFileRequestDto(
         MultipartFile file,
         String secretKey, // Optional - nullable by default
-        Set<String> tags
+        Set<String> tags,
+        SymbolMode symbolMode // Optional - the configured mode when null
 
 ) {
 }
@@ -0,0 +1,8 @@
+package com.jaimin.justStore.enums;
+
+public enum BlockSampling {
+    /** The pixel at the centre of the block, the cheapest. */
+    CENTER,
+    /** Majority of the pixels in the middle half of the block, tolerates ringing and small shifts. */
+    MAJORITY
+}
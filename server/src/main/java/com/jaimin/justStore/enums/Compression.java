@@ -0,0 +1,9 @@
+package com.jaimin.justStore.enums;
+
+// Written to the frame header by ordinal, only ever append
+public enum Compression {
+    /** Payload is the file as uploaded. */
+    NONE,
+    /** Payload is one zlib stream of the whole file, shards hold consecutive slices of it. */
+    DEFLATE
+}
@@ -1,7 +1,20 @@
 package com.jaimin.justStore.enums;
 
+/**
+ * Lifecycle of a stored file. Uploads move through the stages in declaration order
+ * until UPLOADED, or stop at FAILED.
+ */
 public enum Status {
+    /** Legacy initial state, files created before staged uploads. */
     PENDING,
+    /** Upload accepted and staged on disk, waiting for an encoder. */
+    RECEIVED,
+    /** Payload is being rendered into video. */
+    ENCODING,
+    /** Video is being sent to YouTube. */
+    UPLOADING,
+    /** YouTube accepted the video and is still processing it. */
+    PROCESSING,
     UPLOADED,
     FAILED,
     DELETED
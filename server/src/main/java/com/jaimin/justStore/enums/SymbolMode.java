@@ -0,0 +1,27 @@
+package com.jaimin.justStore.enums;
+
+// Written to the frame header by ordinal, only ever append
+public enum SymbolMode {
+    /** One bit per block, black or white. The most robust and the only mode before modes existed. */
+    BW1(1, 1),
+    /** Two bits per block as four grey levels, Gray coded so a level off by one costs one bit. */
+    GRAY4(2, 1),
+    /** Three bits per block, one per colour channel. Chroma is stored at half resolution, so blocks need 2 pixels. */
+    RGB3(3, 2);
+
+    private final int bitsPerSymbol;
+    private final int minBlockSize;
+
+    SymbolMode(int bitsPerSymbol, int minBlockSize) {
+        this.bitsPerSymbol = bitsPerSymbol;
+        this.minBlockSize = minBlockSize;
+    }
+
+    public int bitsPerSymbol() {
+        return bitsPerSymbol;
+    }
+
+    public int minBlockSize() {
+        return minBlockSize;
+    }
+}
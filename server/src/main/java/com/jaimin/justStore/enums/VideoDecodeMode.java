@@ -0,0 +1,8 @@
+package com.jaimin.justStore.enums;
+
+public enum VideoDecodeMode {
+    /** FFmpeg converts frames to BGR24, a pixel is white when all three channels are. */
+    BGR,
+    /** FFmpeg hands over the GRAY8 luma plane only, one byte per pixel. */
+    LUMA
+}
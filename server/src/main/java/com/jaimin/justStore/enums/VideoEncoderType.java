@@ -0,0 +1,6 @@
+package com.jaimin.justStore.enums;
+
+public enum VideoEncoderType {
+    JCODEC,
+    FFMPEG
+}
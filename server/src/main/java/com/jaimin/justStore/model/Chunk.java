@@ -0,0 +1,89 @@
+package com.jaimin.justStore.model;
+
+import com.jaimin.justStore.enums.Compression;
+import jakarta.persistence.*;
+
+/**
+ * A content-defined chunk, stored once however many files contain it.
+ * <p>
+ * Its bytes sit at {@code packOffset} in the payload of its pack, the file whose upload first
+ * brought it. A chunk whose pack failed is moved to the next upload that brings it again.
+ */
+@Entity
+@Table(name = "chunks", indexes = @Index(name = "idx_chunk_pack_file_id", columnList = "pack_file_id"))
+public class Chunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(unique = true, nullable = false, length = 64)
+    private String hash; // SHA-256 of the chunk's bytes
+
+    @Column(nullable = false)
+    private int length;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "pack_file_id", nullable = false)
+    private File packFile;
+
+    @Column(nullable = false)
+    private long packOffset;
+
+    @Column(nullable = false)
+    private int storedLength; // Bytes in the pack, less than length when compressed
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false)
+    private Compression compression;
+
+    protected Chunk() {
+    }
+
+    public Chunk(String hash, int length, File packFile, long packOffset, int storedLength, Compression compression) {
+        this.hash = hash;
+        this.length = length;
+        this.packFile = packFile;
+        this.packOffset = packOffset;
+        this.storedLength = storedLength;
+        this.compression = compression;
+    }
+
+    /**
+     * Point the chunk at a new copy of its bytes.
+     */
+    public void store(File packFile, long packOffset, int storedLength, Compression compression) {
+        this.packFile = packFile;
+        this.packOffset = packOffset;
+        this.storedLength = storedLength;
+        this.compression = compression;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public File getPackFile() {
+        return packFile;
+    }
+
+    public long getPackOffset() {
+        return packOffset;
+    }
+
+    public int getStoredLength() {
+        return storedLength;
+    }
+
+    public Compression getCompression() {
+        return compression;
+    }
+}
@@ -1,6 +1,9 @@
 package com.jaimin.justStore.model;
 
+import com.jaimin.justStore.enums.Compression;
 import com.jaimin.justStore.enums.Status;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.utils.ChunkCipher;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
@@ -50,6 +53,14 @@ public class File {
 
     @Column(nullable = false, updatable = false)
     private String fileChecksum; // SHA-256 hash for integrity verification
+    @Column(unique = true, length = 64)
+    private String contentChecksum; // fileChecksum of plain files with videos of their own, so each content is stored once
+    @ManyToOne
+    @JoinColumn(name = "content_file_id")
+    private File contentFile; // File whose videos hold the same bytes, null when this one has its own
+    @ManyToOne
+    @JoinColumn(name = "carrier_file_id")
+    private File carrierFile; // File whose upload carries this small file packed with others, null when it has its own
 
 
     /*    YouTube      */
@@ -58,7 +69,20 @@ public class File {
     private  String youtubeVideoUrl;
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
-    private Status status = Status.PENDING;
+    private Status status = Status.RECEIVED;
+    @Column(length = 1024)
+    private String statusMessage; // Why the upload failed, or what the current stage is doing
+    private Integer blockSize; // Pixels per bit side the videos were drawn with, null before blocks existed
+    @Enumerated(EnumType.STRING)
+    private SymbolMode symbolMode; // Bits per block the videos were drawn with, null before modes existed
+    @Enumerated(EnumType.STRING)
+    private Compression compression; // How the file was compressed before encoding, null before compression existed
+    private Long compressedSizeInByte; // Size after compression, before encryption
+    private Long packSizeInByte; // Bytes of new chunks in the videos of a chunked file, null when stored whole
+    @Column(length = 32)
+    private String encryptionSalt; // Hex PBKDF2 salt of the AES key, null when the videos hold plaintext
+    private Integer encryptionChunkSize; // Plaintext bytes per sealed chunk
+    private Integer encryptionIterations; // PBKDF2 iterations the key was derived with
 
 
     @CreatedDate
@@ -96,6 +120,52 @@ public class File {
         this.fileChecksum = fileChecksum;
     }
 
+    /**
+     * The file whose videos hold this file's bytes, itself unless it was a duplicate upload.
+     * Everything about how the bytes are stored comes from there.
+     */
+    public File getContent() {
+        return contentFile != null ? contentFile : this;
+    }
+
+    public boolean isDuplicate() {
+        return contentFile != null;
+    }
+
+    /**
+     * Share the videos of a file with the same checksum instead of storing the bytes again.
+     */
+    public void linkTo(File content) {
+        this.contentFile = content.getContent();
+        this.contentChecksum = null;
+        this.status = contentFile.getStatus();
+    }
+
+    /**
+     * The file whose upload job carries this file's videos, itself unless it was packed into the
+     * container of another small file. Upload stage and video ids come from there.
+     */
+    public File getCarrier() {
+        return carrierFile != null ? carrierFile : this;
+    }
+
+    /**
+     * Leave the videos to the container upload of {@code carrier}, reading this file's bytes
+     * through its chunk manifest.
+     */
+    public void packInto(File carrier) {
+        this.carrierFile = carrier;
+        this.packSizeInByte = 0L;
+    }
+
+    public String getContentChecksum() {
+        return contentChecksum;
+    }
+
+    public void setContentChecksum(String contentChecksum) {
+        this.contentChecksum = contentChecksum;
+    }
+
     public Status getStatus() {
         return status;
     }
@@ -104,6 +174,121 @@ public class File {
         this.status = status;
     }
 
+    public String getStatusMessage() {
+        return statusMessage;
+    }
+
+    public void setStatusMessage(String statusMessage) {
+        this.statusMessage = statusMessage;
+    }
+
+    /**
+     * Side of the pixel block every bit of the file's videos is drawn as.
+     */
+    public int getBlockSize() {
+        return blockSize != null ? blockSize : 1;
+    }
+
+    public boolean hasBlockSize() {
+        return blockSize != null;
+    }
+
+    public void setBlockSize(int blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * How many bits every block of the file's videos carries.
+     */
+    public SymbolMode getSymbolMode() {
+        return symbolMode != null ? symbolMode : SymbolMode.BW1;
+    }
+
+    public boolean hasSymbolMode() {
+        return symbolMode != null;
+    }
+
+    public void setSymbolMode(SymbolMode symbolMode) {
+        this.symbolMode = symbolMode;
+    }
+
+    public Compression getCompression() {
+        return compression != null ? compression : Compression.NONE;
+    }
+
+    public boolean isCompressed() {
+        return getCompression() != Compression.NONE;
+    }
+
+    /**
+     * Whether compressing the file was decided, plain uploads leave it to their upload job.
+     */
+    public boolean hasCompression() {
+        return compression != null;
+    }
+
+    /**
+     * Size of the file once compressed, the original size when it was not.
+     */
+    public long getCompressedSizeInByte() {
+        return isCompressed() ? compressedSizeInByte : originalFileSizeInByte;
+    }
+
+    public void setCompression(Compression compression, long compressedSizeInByte) {
+        this.compression = compression;
+        this.compressedSizeInByte = compressedSizeInByte;
+    }
+
+    /**
+     * Whether the file is stored as a manifest of shared chunks, see {@code FileChunk}. Its own
+     * videos then only hold the chunks no file had stored before, possibly none.
+     */
+    public boolean isChunked() {
+        return packSizeInByte != null;
+    }
+
+    public void setPackSizeInByte(long packSizeInByte) {
+        this.packSizeInByte = packSizeInByte;
+    }
+
+    /**
+     * Whether the videos hold the file encrypted with a {@link ChunkCipher}.
+     * Files with a secret key from before encryption existed only have the key hash.
+     */
+    public boolean isEncrypted() {
+        return encryptionSalt != null;
+    }
+
+    public String getEncryptionSalt() {
+        return encryptionSalt;
+    }
+
+    public Integer getEncryptionChunkSize() {
+        return encryptionChunkSize;
+    }
+
+    public Integer getEncryptionIterations() {
+        return encryptionIterations;
+    }
+
+    public void setEncryption(String encryptionSalt, int encryptionChunkSize, int encryptionIterations) {
+        this.encryptionSalt = encryptionSalt;
+        this.encryptionChunkSize = encryptionChunkSize;
+        this.encryptionIterations = encryptionIterations;
+    }
+
+    /**
+     * Bytes stored in the videos, the compressed size plus a tag per chunk when encrypted.
+     */
+    public long getPayloadSizeInByte() {
+        if (isChunked()) {
+            return packSizeInByte;
+        }
+        return isEncrypted()
+                ? ChunkCipher.encryptedLength(getCompressedSizeInByte(), encryptionChunkSize)
+                : getCompressedSizeInByte();
+    }
+
     public String getYoutubeVideoUrl() {
         return youtubeVideoUrl;
     }
@@ -0,0 +1,61 @@
+package com.jaimin.justStore.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Entry of a chunked file's manifest: the file's bytes {@code [fileOffset, fileOffset + length)}
+ * are those of {@link #getChunk()}.
+ */
+@Entity
+@Table(name = "file_chunks",
+        uniqueConstraints = @UniqueConstraint(name = "uk_file_chunk_index", columnNames = {"file_id", "chunkIndex"}),
+        indexes = {
+                @Index(name = "idx_file_chunk_file_id", columnList = "file_id"),
+                @Index(name = "idx_file_chunk_chunk_id", columnList = "chunk_id")
+        })
+public class FileChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "file_id", nullable = false)
+    private File file;
+
+    @Column(nullable = false)
+    private int chunkIndex;
+
+    @Column(nullable = false)
+    private long fileOffset;
+
+    @ManyToOne(optional = false)
+    @JoinColumn(name = "chunk_id", nullable = false)
+    private Chunk chunk;
+
+    protected FileChunk() {
+    }
+
+    public FileChunk(File file, int chunkIndex, long fileOffset, Chunk chunk) {
+        this.file = file;
+        this.chunkIndex = chunkIndex;
+        this.fileOffset = fileOffset;
+        this.chunk = chunk;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getChunkIndex() {
+        return chunkIndex;
+    }
+
+    public long getFileOffset() {
+        return fileOffset;
+    }
+
+    public Chunk getChunk() {
+        return chunk;
+    }
+}
@@ -0,0 +1,90 @@
+package com.jaimin.justStore.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * One video holding the bytes {@code [byteOffset, byteOffset + byteLength)} of a sharded file.
+ */
+@Entity
+@Table(name = "file_shards",
+        uniqueConstraints = @UniqueConstraint(name = "uk_file_shard_index", columnNames = {"file_id", "shardIndex"}),
+        indexes = @Index(name = "idx_shard_file_id", columnList = "file_id"))
+@EntityListeners(AuditingEntityListener.class)
+public class FileShard {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "file_id", nullable = false)
+    private File file;
+
+    @Column(nullable = false)
+    private int shardIndex;
+
+    @Column(nullable = false)
+    private long byteOffset;
+
+    @Column(nullable = false)
+    private long byteLength;
+
+    @Column(unique = true, nullable = false)
+    private String youtubeVideoId;
+
+    @Column(nullable = false)
+    private String youtubeVideoUrl;
+
+    @CreatedDate
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    protected FileShard() {
+    }
+
+    public FileShard(File file, int shardIndex, long byteOffset, long byteLength,
+                     String youtubeVideoId, String youtubeVideoUrl) {
+        this.file = file;
+        this.shardIndex = shardIndex;
+        this.byteOffset = byteOffset;
+        this.byteLength = byteLength;
+        this.youtubeVideoId = youtubeVideoId;
+        this.youtubeVideoUrl = youtubeVideoUrl;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getShardIndex() {
+        return shardIndex;
+    }
+
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    public long getByteLength() {
+        return byteLength;
+    }
+
+    public String getYoutubeVideoId() {
+        return youtubeVideoId;
+    }
+
+    public String getYoutubeVideoUrl() {
+        return youtubeVideoUrl;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,108 @@
+package com.jaimin.justStore.model;
+
+import jakarta.persistence.*;
+import org.springframework.data.annotation.CreatedDate;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.jpa.domain.support.AuditingEntityListener;
+
+import java.time.LocalDateTime;
+
+/**
+ * An open YouTube resumable upload of one encoded video of a file.
+ * <p>
+ * Kept from the moment YouTube hands out the session until the video is uploaded, so a
+ * restarted job sends only the bytes after {@code committedBytes}. {@code partIndex} is the
+ * shard index, 0 for files stored as a single video.
+ */
+@Entity
+@Table(name = "upload_sessions",
+        uniqueConstraints = @UniqueConstraint(name = "uk_upload_session_part", columnNames = {"file_id", "partIndex"}))
+@EntityListeners(AuditingEntityListener.class)
+public class UploadSession {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @ManyToOne(fetch = FetchType.LAZY, optional = false)
+    @JoinColumn(name = "file_id", nullable = false)
+    private File file;
+
+    @Column(nullable = false)
+    private int partIndex;
+
+    @Column(nullable = false, length = 2048)
+    private String sessionUri;
+
+    // Encoded video the session uploads, it must not change while the session is open
+    @Column(nullable = false, length = 1024)
+    private String videoPath;
+
+    @Column(nullable = false)
+    private long totalBytes;
+
+    @Column(nullable = false)
+    private long committedBytes;
+
+    @CreatedDate
+    @Column(nullable = false, updatable = false)
+    private LocalDateTime createdAt;
+
+    @LastModifiedDate
+    private LocalDateTime updatedAt;
+
+    protected UploadSession() {
+    }
+
+    public UploadSession(File file, int partIndex, String sessionUri, String videoPath, long totalBytes) {
+        this.file = file;
+        this.partIndex = partIndex;
+        this.sessionUri = sessionUri;
+        this.videoPath = videoPath;
+        this.totalBytes = totalBytes;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public int getPartIndex() {
+        return partIndex;
+    }
+
+    public String getSessionUri() {
+        return sessionUri;
+    }
+
+    public void setSessionUri(String sessionUri) {
+        this.sessionUri = sessionUri;
+    }
+
+    public String getVideoPath() {
+        return videoPath;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public long getCommittedBytes() {
+        return committedBytes;
+    }
+
+    public void setCommittedBytes(long committedBytes) {
+        this.committedBytes = committedBytes;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getUpdatedAt() {
+        return updatedAt;
+    }
+}
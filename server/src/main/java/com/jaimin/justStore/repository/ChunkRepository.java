@@ -0,0 +1,20 @@
+package com.jaimin.justStore.repository;
+
+import com.jaimin.justStore.model.Chunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+public interface ChunkRepository extends JpaRepository<Chunk, Long> {
+
+    // The chunk with these bytes, stored once across all files
+    Optional<Chunk> findByHash(String hash);
+
+    // The stored chunks among these hashes, with their packs fetched in the same query
+    @Query("SELECT c FROM Chunk c JOIN FETCH c.packFile WHERE c.hash IN :hashes")
+    List<Chunk> findByHashIn(@Param("hashes") Collection<String> hashes);
+}
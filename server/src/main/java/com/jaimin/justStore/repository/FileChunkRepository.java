@@ -0,0 +1,26 @@
+package com.jaimin.justStore.repository;
+
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface FileChunkRepository extends JpaRepository<FileChunk, Long> {
+
+    // Manifest of a chunked file in file order, empty when the file is stored whole
+    List<FileChunk> findByFileIdOrderByChunkIndexAsc(Long fileId);
+
+    boolean existsByFileId(Long fileId);
+
+    // Files whose videos hold the chunks of a file
+    @Query("SELECT DISTINCT c.packFile FROM FileChunk fc JOIN fc.chunk c WHERE fc.file.id = :fileId")
+    List<File> findPacksOfFile(@Param("fileId") Long fileId);
+
+    // Files whose videos hold the chunks of a file or of the small files it carries
+    @Query("SELECT DISTINCT c.packFile FROM FileChunk fc JOIN fc.chunk c JOIN fc.file f LEFT JOIN f.carrierFile cf "
+            + "WHERE f.id = :fileId OR cf.id = :fileId")
+    List<File> findPacksOfFileAndCarried(@Param("fileId") Long fileId);
+}
@@ -1,11 +1,14 @@
 package com.jaimin.justStore.repository;
 
+import com.jaimin.justStore.enums.Status;
 import com.jaimin.justStore.model.File;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -15,6 +18,16 @@ public interface FileRepository extends JpaRepository<File, Long> {
     // Find all files ordered by creation date (newest first)
     List<File> findAllByOrderByCreatedAtDesc();
     
+    // Files with tags loaded, for work running outside a request
+    @EntityGraph(attributePaths = "tags")
+    Optional<File> findWithTagsById(Long id);
+
+    // Files with videos of their own in any of the given stages, e.g. uploads interrupted by a restart
+    List<File> findByStatusInAndContentFileIsNullAndCarrierFileIsNull(Collection<Status> statuses);
+
+    // The file storing the videos of a plain file's bytes, unique per checksum
+    Optional<File> findByContentChecksum(String contentChecksum);
+
     // Find by YouTube Video ID
     Optional<File> findByYoutubeVideoId(String youtubeVideoId);
     
@@ -0,0 +1,12 @@
+package com.jaimin.justStore.repository;
+
+import com.jaimin.justStore.model.FileShard;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface FileShardRepository extends JpaRepository<FileShard, Long> {
+
+    // Shards of a file in payload order, empty when the file is a single video
+    List<FileShard> findByFileIdOrderByShardIndexAsc(Long fileId);
+}
@@ -0,0 +1,12 @@
+package com.jaimin.justStore.repository;
+
+import com.jaimin.justStore.model.UploadSession;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.Optional;
+
+public interface UploadSessionRepository extends JpaRepository<UploadSession, Long> {
+
+    // The open session of one video of a file, partIndex is 0 for unsharded files
+    Optional<UploadSession> findByFileIdAndPartIndex(Long fileId, int partIndex);
+}
@@ -0,0 +1,564 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.Status;
+import com.jaimin.justStore.model.Chunk;
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileChunk;
+import com.jaimin.justStore.repository.ChunkRepository;
+import com.jaimin.justStore.repository.FileChunkRepository;
+import com.jaimin.justStore.utils.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.jaimin.justStore.utils.BytesToHex.bytesToHex;
+
+/**
+ * Stores large plain files as content-defined chunks, each kept once whatever files contain it.
+ * <p>
+ * At upload the file is cut by a {@link ContentChunker} and every chunk is looked up by its
+ * SHA-256. Only chunks no file stored before are written to the upload's pack, which becomes the
+ * file's payload and goes through the usual encode and upload job, so uploading an edited copy
+ * of a file costs about the bytes that changed. The file keeps a manifest of {@link FileChunk}s,
+ * and a download decodes only the parts of the packs its range needs, several packs at once. A
+ * file referencing chunks of packs still being uploaded is only marked uploaded once they are,
+ * and fails when one of them does.
+ */
+@Service
+public class ChunkService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkService.class);
+
+    // Longest pack range decoded at once, so the first bytes of a download never wait for a whole pack to decode
+    private static final long MAX_RUN_BYTES = 4L * 1024 * 1024;
+
+    // Chunks whose hashes are looked up in one query, and the most bytes held for them meanwhile
+    private static final int LOOKUP_BATCH_CHUNKS = 512;
+    private static final long LOOKUP_BATCH_BYTES = 16L * 1024 * 1024;
+
+    private final ChunkRepository chunkRepository;
+    private final FileChunkRepository fileChunkRepository;
+    private final ChunkingSettings chunkingSettings;
+    private final CompressionSettings compressionSettings;
+    private final UploadJobSettings uploadJobSettings;
+
+    public ChunkService(ChunkRepository chunkRepository, FileChunkRepository fileChunkRepository,
+                        ChunkingSettings chunkingSettings, CompressionSettings compressionSettings,
+                        UploadJobSettings uploadJobSettings) {
+        this.chunkRepository = chunkRepository;
+        this.fileChunkRepository = fileChunkRepository;
+        this.chunkingSettings = chunkingSettings;
+        this.compressionSettings = compressionSettings;
+        this.uploadJobSettings = uploadJobSettings;
+    }
+
+    /**
+     * Reads the payload of packs, decoded from their videos like any other file.
+     */
+    @FunctionalInterface
+    public interface PackDecoder {
+        /**
+         * Start reading a pack. Every range decoded from the returned source shares one fetch of
+         * the pack's videos.
+         */
+        PackSource open(File pack) throws IOException;
+    }
+
+    /**
+     * A pack being read. Ranges may be decoded from several threads at once, closing it drops
+     * what was fetched.
+     */
+    public interface PackSource extends Closeable {
+        void decode(OutputStream outputStream, long offset, long length) throws IOException;
+    }
+
+    /**
+     * A staged file cut into chunks, with those not stored before written to {@code pack}.
+     */
+    public record Plan(Path pack, long packSize, List<PlannedChunk> chunks) {
+    }
+
+    /**
+     * One chunk of the file, in file order. {@code stored} is the chunk when a file already holds
+     * it, otherwise its bytes are at {@code packOffset} of the pack. {@code failed} is the chunk
+     * when its pack failed to upload, it is pointed at this pack once recorded.
+     */
+    public record PlannedChunk(String hash, int length, Chunk stored, Chunk failed, long packOffset,
+                               int storedLength, Compression compression) {
+    }
+
+    public boolean shouldChunk(long fileSize) {
+        return chunkingSettings.shouldChunk(fileSize);
+    }
+
+    /**
+     * Cut a staged upload into chunks and write the ones no file stored yet to a pack in the
+     * staging directory. A chunk whose pack failed to upload is stored again. Chunks are Deflate
+     * compressed one by one when the file looks compressible and they shrink enough.
+     *
+     * @return The plan, the staged upload is kept.
+     */
+    public Plan pack(Path staged, String fileType) throws IOException {
+        return packAll(List.of(staged), Collections.singletonList(fileType)).get(0);
+    }
+
+    /**
+     * Cut several staged uploads into chunks sharing one pack, in the order given. Every plan
+     * has the pack and its total size, the staged uploads are kept.
+     */
+    public List<Plan> packAll(List<Path> staged, List<String> fileTypes) throws IOException {
+        long startNanos = System.nanoTime();
+        Path pack = Files.createTempFile(uploadJobSettings.stagingDir(), "pack_", ".bin");
+        List<List<PlannedChunk>> manifests = new ArrayList<>(staged.size());
+        PackWriter writer;
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(pack), 64 * 1024)) {
+            writer = new PackWriter(out);
+            for (int i = 0; i < staged.size(); i++) {
+                writer.startFile(
+                        CompressionUtil.choose(compressionSettings, fileTypes.get(i), staged.get(i)) == Compression.DEFLATE);
+                try (InputStream in = Files.newInputStream(staged.get(i))) {
+                    chunkingSettings.chunker().split(in, writer);
+                }
+                writer.flush();
+                manifests.add(writer.chunks);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(pack);
+            throw e;
+        }
+        logger.info("Cut {} staged bytes of {} files into {} chunks, {} of them new in a pack of {} bytes, in {} ms",
+                writer.fileSize, staged.size(), manifests.stream().mapToInt(List::size).sum(), writer.newChunks,
+                writer.position, (System.nanoTime() - startNanos) / 1_000_000);
+        return manifests.stream().map(chunks -> new Plan(pack, writer.position, chunks)).toList();
+    }
+
+    /**
+     * Index the new chunks of a saved file and write its manifest, before its job uploads the pack.
+     * A chunk another upload indexed meanwhile is referenced there, its copy in this pack goes unused.
+     */
+    public void record(File file, Plan plan) {
+        recordAll(List.of(file), file, List.of(plan));
+    }
+
+    /**
+     * Index the new chunks of files sharing the pack uploaded by {@code packFile}, and write their
+     * manifests.
+     * <p>
+     * One pack is recorded at a time. A pack's files then only reference packs recorded before it,
+     * so jobs waiting for the packs their files reference never wait on each other.
+     */
+    public synchronized void recordAll(List<File> files, File packFile, List<Plan> plans) {
+        for (int i = 0; i < files.size(); i++) {
+            record(files.get(i), packFile, plans.get(i));
+        }
+    }
+
+    private void record(File file, File packFile, Plan plan) {
+        Map<String, Chunk> indexed = new HashMap<>();
+        List<FileChunk> manifest = new ArrayList<>(plan.chunks().size());
+        long fileOffset = 0;
+        for (PlannedChunk planned : plan.chunks()) {
+            Chunk chunk = planned.stored();
+            if (chunk == null) {
+                chunk = indexed.get(planned.hash());
+                if (chunk == null) {
+                    chunk = index(packFile, planned);
+                    indexed.put(planned.hash(), chunk);
+                }
+            }
+            manifest.add(new FileChunk(file, manifest.size(), fileOffset, chunk));
+            fileOffset += planned.length();
+        }
+        fileChunkRepository.saveAll(manifest);
+    }
+
+    private Chunk index(File packFile, PlannedChunk planned) {
+        Chunk failed = planned.failed();
+        if (failed != null) {
+            // Its pack never made it to YouTube, every file with this chunk reads it from here now
+            failed.store(packFile, planned.packOffset(), planned.storedLength(), planned.compression());
+            return chunkRepository.save(failed);
+        }
+        // Another upload indexing the chunk since it was looked up makes the insert fail, that one is used
+        try {
+            return chunkRepository.save(new Chunk(planned.hash(), planned.length(), packFile, planned.packOffset(),
+                    planned.storedLength(), planned.compression()));
+        } catch (DataIntegrityViolationException e) {
+            return chunkRepository.findByHash(planned.hash()).orElseThrow(() -> e);
+        }
+    }
+
+    /**
+     * The other files holding chunks of this file, or of the small files it carries, that are not
+     * uploaded yet.
+     */
+    public List<File> findPendingPacks(File file) {
+        return fileChunkRepository.findPacksOfFileAndCarried(file.getId()).stream()
+                .filter(pack -> !pack.getId().equals(file.getId()) && pack.getStatus() != Status.UPLOADED)
+                .toList();
+    }
+
+    /**
+     * Whether a manifest was written for the file, also when cutting it was cut off before it was
+     * marked chunked.
+     */
+    public boolean hasManifest(File file) {
+        return fileChunkRepository.existsByFileId(file.getId());
+    }
+
+    /**
+     * The first file holding chunks of a chunked file that is not uploaded, if any.
+     */
+    public Optional<File> findUnfinishedPack(File file) {
+        return fileChunkRepository.findPacksOfFile(file.getId()).stream()
+                .filter(pack -> pack.getStatus() != Status.UPLOADED)
+                .findFirst();
+    }
+
+    /**
+     * Write {@code length} bytes starting at {@code offset} of a chunked file to {@code outputStream}.
+     * <p>
+     * The chunks overlapping the range are grouped into runs lying back to back in one pack, of at
+     * most {@link #MAX_RUN_BYTES} each. Every pack is opened once and all of its runs are decoded
+     * from it, so its videos are fetched once however many runs it holds. The first run is decoded
+     * straight to {@code outputStream} while up to the configured number of later runs are decoded
+     * in parallel into temporary files, which are copied out in file order. Compressed chunks are
+     * inflated on the way, and a pack is closed once its last run is written.
+     */
+    public void streamChunks(File file, OutputStream outputStream, long offset, long length, PackDecoder decoder)
+            throws IOException {
+        if (length <= 0) {
+            return;
+        }
+        final long end = offset + length;
+        List<Run> runs = new ArrayList<>();
+        for (FileChunk entry : fileChunkRepository.findByFileIdOrderByChunkIndexAsc(file.getId())) {
+            Chunk chunk = entry.getChunk();
+            if (entry.getFileOffset() >= end || entry.getFileOffset() + chunk.getLength() <= offset) {
+                continue;
+            }
+            Piece piece = new Piece(chunk, Math.max(offset, entry.getFileOffset()) - entry.getFileOffset(),
+                    Math.min(end, entry.getFileOffset() + chunk.getLength()) - entry.getFileOffset());
+            Run last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+            if (last != null && last.pack().getId().equals(chunk.getPackFile().getId())
+                    && last.packEnd() == piece.packStart()
+                    && piece.packEnd() - last.packStart() <= MAX_RUN_BYTES) {
+                last.pieces().add(piece);
+            } else {
+                List<Piece> pieces = new ArrayList<>();
+                pieces.add(piece);
+                runs.add(new Run(chunk.getPackFile(), pieces));
+            }
+        }
+        if (runs.isEmpty()) {
+            return;
+        }
+
+        // Opened before any decode starts, read by the decode threads
+        Map<Long, PackSource> sources = new ConcurrentHashMap<>();
+        Map<Long, Integer> runsLeft = new HashMap<>();
+        Queue<Path> tempFiles = new ConcurrentLinkedQueue<>();
+        ExecutorService pool = null;
+        try {
+            for (Run run : runs) {
+                if (runsLeft.merge(run.pack().getId(), 1, Integer::sum) == 1) {
+                    sources.put(run.pack().getId(), decoder.open(run.pack()));
+                }
+            }
+            if (runs.size() == 1) {
+                decodeRun(runs.get(0), sources, outputStream);
+                outputStream.flush();
+                return;
+            }
+
+            final int parallelism = Math.min(chunkingSettings.downloadParallelism(), runs.size());
+            pool = Executors.newFixedThreadPool(parallelism,
+                    Thread.ofPlatform().name("pack-decode-", 0).daemon().factory());
+            OrderedPipeline.<DecodedRun>run(pool, parallelism, "pack-fetcher",
+                    submitter -> {
+                        // The head run is decoded by the consumer, so its first bytes go out right away
+                        submitter.submit(() -> new DecodedRun(runs.get(0), null));
+                        for (Run run : runs.subList(1, runs.size())) {
+                            submitter.submit(() -> prefetchRun(run, sources, tempFiles));
+                        }
+                    },
+                    decoded -> {
+                        if (decoded.path() == null) {
+                            decodeRun(decoded.run(), sources, outputStream);
+                        } else {
+                            RunWriter writer = new RunWriter(decoded.run(), outputStream);
+                            Files.copy(decoded.path(), writer);
+                            writer.finish();
+                            tempFiles.remove(decoded.path());
+                            Files.deleteIfExists(decoded.path());
+                        }
+                        Long packId = decoded.run().pack().getId();
+                        if (runsLeft.merge(packId, -1, Integer::sum) == 0) {
+                            sources.remove(packId).close();
+                        }
+                    });
+            outputStream.flush();
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+            for (PackSource source : sources.values()) {
+                closeQuietly(source);
+            }
+            for (Path tempFile : tempFiles) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    private static void decodeRun(Run run, Map<Long, PackSource> sources, OutputStream outputStream)
+            throws IOException {
+        RunWriter writer = new RunWriter(run, outputStream);
+        sources.get(run.pack().getId()).decode(writer, run.packStart(), run.packEnd() - run.packStart());
+        writer.finish();
+    }
+
+    private static DecodedRun prefetchRun(Run run, Map<Long, PackSource> sources, Queue<Path> tempFiles)
+            throws IOException {
+        Path decoded = Files.createTempFile("juststore-pack-" + run.pack().getId() + "-", ".bin");
+        tempFiles.add(decoded);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(decoded), 64 * 1024)) {
+            sources.get(run.pack().getId()).decode(out, run.packStart(), run.packEnd() - run.packStart());
+        }
+        return new DecodedRun(run, decoded);
+    }
+
+    private static void closeQuietly(PackSource source) {
+        try {
+            source.close();
+        } catch (IOException e) {
+            logger.warn("Could not close a pack: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Bytes {@code [from, to)} of a chunk. Uncompressed chunks are decoded for just those bytes,
+     * compressed ones whole since they inflate from their start.
+     */
+    private record Piece(Chunk chunk, long from, long to) {
+        long packStart() {
+            return chunk.getPackOffset() + (chunk.getCompression() == Compression.NONE ? from : 0);
+        }
+
+        long packEnd() {
+            return chunk.getPackOffset() + (chunk.getCompression() == Compression.NONE ? to : chunk.getStoredLength());
+        }
+    }
+
+    /**
+     * Pieces lying back to back in one pack, decoded with a single range.
+     */
+    private record Run(File pack, List<Piece> pieces) {
+        long packStart() {
+            return pieces.get(0).packStart();
+        }
+
+        long packEnd() {
+            return pieces.get(pieces.size() - 1).packEnd();
+        }
+    }
+
+    /**
+     * A run decoded to {@code path}, or to be decoded straight to the output when it is null.
+     */
+    private record DecodedRun(Run run, Path path) {
+    }
+
+    /**
+     * Takes the pack bytes of a run and writes the file bytes of its pieces, inflating compressed
+     * chunks whole and passing on only the part of each chunk the range needs.
+     */
+    private static final class RunWriter extends OutputStream {
+        private final Iterator<Piece> pieces;
+        private final OutputStream out;
+        private OutputStream inflating;
+        private long remaining;
+
+        RunWriter(Run run, OutputStream out) {
+            this.pieces = run.pieces().iterator();
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (remaining == 0) {
+                    nextPiece();
+                }
+                int count = (int) Math.min(length, remaining);
+                (inflating != null ? inflating : out).write(buffer, offset, count);
+                offset += count;
+                length -= count;
+                remaining -= count;
+                if (remaining == 0 && inflating != null) {
+                    inflating.close();
+                    inflating = null;
+                }
+            }
+        }
+
+        private void nextPiece() throws IOException {
+            if (!pieces.hasNext()) {
+                throw new IOException("Pack range decoded to more bytes than its chunks hold");
+            }
+            Piece piece = pieces.next();
+            Chunk chunk = piece.chunk();
+            remaining = piece.packEnd() - piece.packStart();
+            if (chunk.getCompression() != Compression.NONE) {
+                inflating = CompressionUtil.decompress(chunk.getCompression(), out, chunk.getLength(), piece.from(),
+                        piece.to() - piece.from());
+            }
+        }
+
+        /**
+         * Check the whole run was written.
+         */
+        void finish() throws IOException {
+            if (remaining > 0 || pieces.hasNext()) {
+                throw new EOFException("Pack range ended before all of its chunks");
+            }
+        }
+    }
+
+    /**
+     * A chunk cut from a staged file, waiting for the lookup of its hash.
+     */
+    private record PendingChunk(String hash, byte[] bytes) {
+    }
+
+    /**
+     * Plans every chunk the chunker hands over and appends the new ones to the pack. Chunks are
+     * held until a batch of them is looked up in one query, {@link #flush()} plans the rest.
+     */
+    private final class PackWriter implements ContentChunker.ChunkSink {
+        private final OutputStream out;
+        private final MessageDigest digest;
+        private final ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        // Chunks repeated within the pack are planned once
+        private final Map<String, PlannedChunk> planned = new HashMap<>();
+        private final List<PendingChunk> pending = new ArrayList<>();
+        private long pendingBytes;
+        private boolean compress;
+        private List<PlannedChunk> chunks;
+        private long fileSize;
+        private long position;
+        private int newChunks;
+
+        PackWriter(OutputStream out) {
+            this.out = out;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 algorithm not found", e);
+            }
+        }
+
+        void startFile(boolean compress) {
+            this.compress = compress;
+            this.chunks = new ArrayList<>();
+        }
+
+        @Override
+        public void accept(byte[] buffer, int offset, int length) throws IOException {
+            fileSize += length;
+            digest.update(buffer, offset, length);
+            // The chunker reuses its buffer
+            pending.add(new PendingChunk(bytesToHex(digest.digest()), Arrays.copyOfRange(buffer, offset, offset + length)));
+            pendingBytes += length;
+            if (pending.size() >= LOOKUP_BATCH_CHUNKS || pendingBytes >= LOOKUP_BATCH_BYTES) {
+                flush();
+            }
+        }
+
+        /**
+         * Plan the held chunks, looking up the hashes not planned before in one query.
+         */
+        void flush() throws IOException {
+            Set<String> unplanned = new HashSet<>();
+            for (PendingChunk chunk : pending) {
+                if (!planned.containsKey(chunk.hash())) {
+                    unplanned.add(chunk.hash());
+                }
+            }
+            Map<String, Chunk> found = new HashMap<>();
+            if (!unplanned.isEmpty()) {
+                for (Chunk chunk : chunkRepository.findByHashIn(unplanned)) {
+                    found.put(chunk.getHash(), chunk);
+                }
+            }
+            for (PendingChunk pendingChunk : pending) {
+                String hash = pendingChunk.hash();
+                byte[] bytes = pendingChunk.bytes();
+                PlannedChunk chunk = planned.get(hash);
+                if (chunk == null) {
+                    Chunk existing = found.get(hash);
+                    boolean usable = existing != null && existing.getPackFile().getStatus() != Status.FAILED;
+                    chunk = usable
+                            ? new PlannedChunk(hash, bytes.length, existing, null, -1, 0, Compression.NONE)
+                            : write(hash, bytes, existing);
+                    planned.put(hash, chunk);
+                }
+                chunks.add(chunk);
+            }
+            pending.clear();
+            pendingBytes = 0;
+        }
+
+        private PlannedChunk write(String hash, byte[] bytes, Chunk failed) throws IOException {
+            PlannedChunk chunk;
+            int length = bytes.length;
+            deflated.reset();
+            if (compress && CompressionUtil.compress(new ByteArrayInputStream(bytes), deflated,
+                    compressionSettings.level()) <= length * compressionSettings.maxRatio()) {
+                chunk = new PlannedChunk(hash, length, null, failed, position, deflated.size(), Compression.DEFLATE);
+                deflated.writeTo(out);
+            } else {
+                chunk = new PlannedChunk(hash, length, null, failed, position, length, Compression.NONE);
+                out.write(bytes);
+            }
+            position += chunk.storedLength();
+            newChunks++;
+            return chunk;
+        }
+    }
+
+}
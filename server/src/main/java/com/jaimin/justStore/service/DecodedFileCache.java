@@ -0,0 +1,229 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.dto.CacheStatsResponseDto;
+import com.jaimin.justStore.utils.DownloadCacheSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache of decoded files, so downloading a file again skips yt-dlp and the decode.
+ * <p>
+ * Entries are content addressed: a file is stored as {@code <fileChecksum>.bin}, so records
+ * with the same content share one entry, and a decoded file is only admitted once its SHA-256
+ * matches the checksum taken at upload. Beyond the size limit the least recently used entries
+ * are evicted. The index is rebuilt from the directory at startup, oldest modification first.
+ * <p>
+ * Entries are filled by {@link DownloadCoalescer}, whose whole-file downloads decode
+ * everything anyway. Range requests are served from a cached file but never start one.
+ */
+@Service
+public class DecodedFileCache {
+    private static final Logger logger = LoggerFactory.getLogger(DecodedFileCache.class);
+
+    private static final String ENTRY_SUFFIX = ".bin";
+    private static final String FILL_SUFFIX = ".part";
+
+    private final DownloadCacheSettings settings;
+
+    // Access ordered, the first entry is the least recently used. Guarded by this.
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long sizeBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong admissions = new AtomicLong();
+    private final AtomicLong rejectedAdmissions = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+
+    public DecodedFileCache(DownloadCacheSettings settings) {
+        this.settings = settings;
+        // Also when disabled, spool files of cut off downloads are cleaned up
+        load();
+    }
+
+    private synchronized void load() {
+        try {
+            Files.createDirectories(settings.directory());
+            List<Path> files;
+            try (Stream<Path> listing = Files.list(settings.directory())) {
+                files = listing.sorted(Comparator.comparing(DecodedFileCache::lastModified)).toList();
+            }
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(FILL_SUFFIX)) {
+                    // Left by a download a restart cut off
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(ENTRY_SUFFIX)) {
+                    long size = Files.size(file);
+                    entries.put(name.substring(0, name.length() - ENTRY_SUFFIX.length()), size);
+                    sizeBytes += size;
+                }
+            }
+            evict();
+            logger.info("Download cache in {} holds {} files, {} of {} bytes", settings.directory(), entries.size(),
+                    sizeBytes, settings.maxSizeBytes());
+        } catch (IOException e) {
+            logger.warn("Could not load the download cache in {}: {}", settings.directory(), e.getMessage());
+        }
+    }
+
+    /**
+     * Write {@code length} bytes from {@code offset} of a cached file to {@code outputStream}.
+     * The response is a plain stream, so the bytes are copied through a heap buffer on the way.
+     *
+     * @return {@code false} on a miss, nothing was written then.
+     */
+    public boolean serve(String checksum, OutputStream outputStream, long offset, long length) throws IOException {
+        if (!settings.enabled() || checksum == null) {
+            return false;
+        }
+        FileChannel channel;
+        synchronized (this) {
+            if (entries.get(checksum) == null) {
+                misses.incrementAndGet();
+                return false;
+            }
+            try {
+                channel = FileChannel.open(entryPath(checksum), StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // Deleted behind our back
+                sizeBytes -= entries.remove(checksum);
+                misses.incrementAndGet();
+                return false;
+            }
+        }
+        hits.incrementAndGet();
+
+        // An eviction may delete the file meanwhile, the open channel still reads it
+        try (channel) {
+            // Not a sendfile: transferTo into a wrapped stream reads into a buffer and writes that
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            final long end = offset + length;
+            while (position < end) {
+                long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    throw new EOFException("Cached file " + checksum + " ends at byte " + position);
+                }
+                position += sent;
+            }
+        }
+        outputStream.flush();
+        bytesServed.addAndGet(length);
+        return true;
+    }
+
+    /**
+     * New empty file in the cache directory to decode a file into, offered back with {@link #admit}.
+     */
+    public Path createSpoolFile(String checksum) throws IOException {
+        Files.createDirectories(settings.directory());
+        return Files.createTempFile(settings.directory(), checksum + "-", FILL_SUFFIX);
+    }
+
+    public CacheStatsResponseDto getStats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        synchronized (this) {
+            return new CacheStatsResponseDto(
+                    hitCount,
+                    missCount,
+                    hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount),
+                    admissions.get(),
+                    rejectedAdmissions.get(),
+                    evictions.get(),
+                    bytesServed.get(),
+                    entries.size(),
+                    sizeBytes,
+                    settings.maxSizeBytes()
+            );
+        }
+    }
+
+    /**
+     * Take over a completely decoded file, if it matches its checksum and fits. Otherwise the
+     * file is deleted. Readers that still have it open are not affected either way.
+     *
+     * @param checksum        Checksum recorded at upload.
+     * @param decoded         The decoded file, from {@link #createSpoolFile}.
+     * @param decodedChecksum SHA-256 of what was actually decoded.
+     */
+    public void admit(String checksum, Path decoded, long size, String decodedChecksum) {
+        try {
+            if (!settings.enabled() || size > settings.maxSizeBytes()) {
+                Files.deleteIfExists(decoded);
+            } else if (!checksum.equalsIgnoreCase(decodedChecksum)) {
+                rejectedAdmissions.incrementAndGet();
+                logger.warn("Not caching {}: the decoded file has checksum {}", checksum, decodedChecksum);
+                Files.deleteIfExists(decoded);
+            } else {
+                insert(checksum, decoded, size);
+            }
+        } catch (IOException e) {
+            logger.warn("Could not add {} to the download cache: {}", checksum, e.getMessage());
+            deleteQuietly(decoded);
+        }
+    }
+
+    private synchronized void insert(String checksum, Path decoded, long size) throws IOException {
+        if (entries.get(checksum) != null) {
+            // Another download of the same content got here first
+            Files.deleteIfExists(decoded);
+            return;
+        }
+        Files.move(decoded, entryPath(checksum), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        entries.put(checksum, size);
+        sizeBytes += size;
+        admissions.incrementAndGet();
+        evict();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Long>> leastRecentFirst = entries.entrySet().iterator();
+        while (sizeBytes > settings.maxSizeBytes() && leastRecentFirst.hasNext()) {
+            Map.Entry<String, Long> entry = leastRecentFirst.next();
+            leastRecentFirst.remove();
+            sizeBytes -= entry.getValue();
+            evictions.incrementAndGet();
+            deleteQuietly(entryPath(entry.getKey()));
+        }
+    }
+
+    private Path entryPath(String checksum) {
+        return settings.directory().resolve(checksum + ENTRY_SUFFIX);
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+}
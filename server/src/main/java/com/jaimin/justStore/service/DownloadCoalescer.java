@@ -0,0 +1,276 @@
+package com.jaimin.justStore.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.jaimin.justStore.utils.BytesToHex.bytesToHex;
+
+/**
+ * Lets concurrent downloads of the same content share one yt-dlp run and decode.
+ * <p>
+ * A whole-file download starts a flight: the decode runs on its own thread and spools into a
+ * file in the cache directory, and every download of that content, the first one included,
+ * reads the spool as it grows. A range download joins a flight that has already decoded up to
+ * its start and otherwise decodes on its own, seeking straight to its frames.
+ * <p>
+ * The decode does not belong to any one request. It keeps running while anyone still reads it,
+ * stops once the last reader is gone, and a failure reaches every reader. A completed spool is
+ * offered to the {@link DecodedFileCache}, which only keeps it if its checksum matches.
+ */
+@Service
+public class DownloadCoalescer {
+    private static final Logger logger = LoggerFactory.getLogger(DownloadCoalescer.class);
+
+    /**
+     * Decodes a whole file into the given stream.
+     */
+    @FunctionalInterface
+    public interface Decoder {
+        void decode(OutputStream outputStream) throws IOException;
+    }
+
+    private final DecodedFileCache decodedFileCache;
+    private final ExecutorService decoders;
+
+    // Flights by content checksum, guarded by this
+    private final Map<String, Flight> flights = new HashMap<>();
+
+    public DownloadCoalescer(DecodedFileCache decodedFileCache) {
+        this.decodedFileCache = decodedFileCache;
+        this.decoders = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("download-flight-", 0).factory());
+    }
+
+    /**
+     * Write {@code length} bytes from {@code offset} of the file with {@code checksum} and
+     * {@code size} to {@code outputStream}, through a shared flight.
+     *
+     * @return {@code false} when the range can be served faster on its own, nothing was written then.
+     */
+    public boolean stream(String checksum, long size, Decoder decoder, OutputStream outputStream,
+                          long offset, long length) throws IOException {
+        if (checksum == null) {
+            return false;
+        }
+        Flight flight;
+        FileChannel spool;
+        synchronized (this) {
+            flight = flights.get(checksum);
+            if (flight == null) {
+                if (offset != 0 || length != size) {
+                    return false;
+                }
+                flight = new Flight(checksum, size, decodedFileCache.createSpoolFile(checksum));
+                flights.put(checksum, flight);
+                Flight started = flight;
+                flight.task = decoders.submit(() -> run(started, decoder));
+                logger.info("Started shared download of {}", checksum);
+            } else if (offset > flight.written()) {
+                return false;
+            } else {
+                logger.info("Joined shared download of {} at byte {} of {}", checksum, flight.written(), size);
+            }
+            // Opened before anyone can remove the spool, a later delete leaves it readable
+            spool = FileChannel.open(flight.path, StandardOpenOption.READ);
+            flight.readers++;
+        }
+
+        try (spool) {
+            WritableByteChannel target = Channels.newChannel(outputStream);
+            long position = offset;
+            final long end = offset + length;
+            while (position < end) {
+                long available = Math.min(end, flight.awaitBeyond(position));
+                while (position < available) {
+                    position += spool.transferTo(position, available - position, target);
+                }
+                outputStream.flush();
+            }
+        } finally {
+            leave(flight);
+        }
+        return true;
+    }
+
+    private void run(Flight flight, Decoder decoder) {
+        String decodedChecksum = null;
+        try (FlightOutput output = new FlightOutput(flight)) {
+            decoder.decode(output);
+            if (flight.written() != flight.size) {
+                throw new EOFException("Decoded " + flight.written() + " of " + flight.size + " bytes");
+            }
+            decodedChecksum = bytesToHex(output.digest.digest());
+            flight.complete(null);
+        } catch (Throwable e) {
+            if (!flight.cancelled) {
+                logger.error("Shared download of {} failed", flight.checksum, e);
+            }
+            flight.complete(e);
+        }
+
+        synchronized (this) {
+            flights.remove(flight.checksum, flight);
+        }
+        if (decodedChecksum != null) {
+            decodedFileCache.admit(flight.checksum, flight.path, flight.size, decodedChecksum);
+        } else {
+            deleteQuietly(flight.path);
+        }
+    }
+
+    private void leave(Flight flight) {
+        synchronized (this) {
+            // Readers can finish before the decode thread wraps up, that is not a reason to stop it
+            if (--flight.readers > 0 || flight.isComplete() || flight.written() == flight.size) {
+                return;
+            }
+            // Nobody reads anymore, stop decoding
+            flights.remove(flight.checksum, flight);
+            flight.cancelled = true;
+        }
+        logger.info("Shared download of {} cancelled, all readers left", flight.checksum);
+        flight.task.cancel(true);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        decoders.shutdownNow();
+    }
+
+    /**
+     * One decode and the progress readers wait on.
+     */
+    private static final class Flight {
+        final String checksum;
+        final long size;
+        final Path path;
+
+        // Guarded by the coalescer
+        Future<?> task;
+        int readers;
+        volatile boolean cancelled;
+
+        // Guarded by this flight
+        private long written;
+        private boolean complete;
+        private Throwable failure;
+
+        Flight(String checksum, long size, Path path) {
+            this.checksum = checksum;
+            this.size = size;
+            this.path = path;
+        }
+
+        synchronized long written() {
+            return written;
+        }
+
+        synchronized boolean isComplete() {
+            return complete;
+        }
+
+        synchronized void advance(long bytes) {
+            written += bytes;
+            notifyAll();
+        }
+
+        synchronized void complete(Throwable failure) {
+            this.complete = true;
+            this.failure = failure;
+            notifyAll();
+        }
+
+        /**
+         * Wait until bytes past {@code position} are written.
+         *
+         * @return How far the spool is written.
+         */
+        synchronized long awaitBeyond(long position) throws IOException {
+            try {
+                while (written <= position && !complete) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the shared download");
+            }
+            if (written > position) {
+                return written;
+            }
+            if (failure != null) {
+                throw new IOException("Shared download failed: " + failure.getMessage(), failure);
+            }
+            throw new EOFException("Shared download ended at byte " + written);
+        }
+    }
+
+    /**
+     * Appends to the spool and hashes what passes through.
+     */
+    private static final class FlightOutput extends OutputStream {
+        private final Flight flight;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+
+        FlightOutput(Flight flight) throws IOException {
+            this.flight = flight;
+            this.channel = FileChannel.open(flight.path, StandardOpenOption.WRITE);
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException("SHA-256 algorithm not found", e);
+            }
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (flight.cancelled) {
+                throw new InterruptedIOException("Shared download cancelled");
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            digest.update(b, off, len);
+            flight.advance(len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
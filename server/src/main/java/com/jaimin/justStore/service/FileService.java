@@ -1,15 +1,19 @@
 package com.jaimin.justStore.service;
 
-import com.jaimin.justStore.dto.DownloadFileResponseDto;
+import com.jaimin.justStore.dto.CacheStatsResponseDto;
+import com.jaimin.justStore.dto.DownloadStatsResponseDto;
 import com.jaimin.justStore.dto.FileDetailResponseDto;
 import com.jaimin.justStore.dto.FileSearchResponseDto;
+import com.jaimin.justStore.dto.FileStatusResponseDto;
 import com.jaimin.justStore.dto.UploadFileRequestDto;
 import com.jaimin.justStore.enums.Status;
 import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileShard;
 import com.jaimin.justStore.repository.FileRepository;
 import com.jaimin.justStore.utils.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
@@ -17,12 +21,20 @@ import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.security.GeneralSecurityException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Service
@@ -31,10 +43,38 @@ public class FileService {
 
     private final FileRepository fileRepository;
     private final YouTubeAuthService youTubeAuthService;
-
-    public FileService(FileRepository fileRepository, YouTubeAuthService youTubeAuthService) {
+    private final VideoEncoderSettings videoEncoderSettings;
+    private final VideoDecoderSettings videoDecoderSettings;
+    private final EncryptionSettings encryptionSettings;
+    private final ShardService shardService;
+    private final ChunkService chunkService;
+    private final PackingService packingService;
+    private final UploadJobService uploadJobService;
+    private final DecodedFileCache decodedFileCache;
+    private final DownloadCoalescer downloadCoalescer;
+    private final YouTubeVideoDownload youTubeVideoDownload;
+
+    // Plain uploads being staged by checksum, so identical uploads arriving together are stored once
+    private final ConcurrentHashMap<String, CompletableFuture<File>> contentInFlight = new ConcurrentHashMap<>();
+
+    public FileService(FileRepository fileRepository, YouTubeAuthService youTubeAuthService,
+                       VideoEncoderSettings videoEncoderSettings, VideoDecoderSettings videoDecoderSettings,
+                       EncryptionSettings encryptionSettings, ShardService shardService,
+                       ChunkService chunkService, PackingService packingService,
+                       UploadJobService uploadJobService, DecodedFileCache decodedFileCache,
+                       DownloadCoalescer downloadCoalescer, YouTubeVideoDownload youTubeVideoDownload) {
         this.fileRepository = fileRepository;
         this.youTubeAuthService = youTubeAuthService;
+        this.videoEncoderSettings = videoEncoderSettings;
+        this.videoDecoderSettings = videoDecoderSettings;
+        this.encryptionSettings = encryptionSettings;
+        this.shardService = shardService;
+        this.chunkService = chunkService;
+        this.packingService = packingService;
+        this.uploadJobService = uploadJobService;
+        this.decodedFileCache = decodedFileCache;
+        this.downloadCoalescer = downloadCoalescer;
+        this.youTubeVideoDownload = youTubeVideoDownload;
     }
 
     /**
@@ -81,6 +121,25 @@ public class FileService {
         return toDetailResponseDto(file);
     }
 
+    /**
+     * Upload stage of a file, polled by clients after {@code POST /upload} returns.
+     */
+    public FileStatusResponseDto getFileStatus(Long id) {
+        File file = fileRepository.findById(id)
+                .orElseThrow(() -> new ResponseStatusException(
+                        HttpStatus.NOT_FOUND, "File not found with id: " + id));
+        // Duplicates follow the upload of the file holding their bytes, packed small files that of their container
+        File upload = file.getContent().getCarrier();
+        return new FileStatusResponseDto(
+                file.getId(),
+                upload.getStatus().name(),
+                upload.getStatusMessage(),
+                upload.getYoutubeVideoId(),
+                upload.getYoutubeVideoUrl(),
+                upload.getUpdatedAt()
+        );
+    }
+
     /**
      * Convert File entity to FileSearchResponseDto (user-friendly).
      */
@@ -92,7 +151,7 @@ public class FileService {
                 file.getOriginalFileSizeInByte(),
                 file.getOriginalFileType(),
                 file.getTags(),
-                file.getStatus().name(),
+                file.getContent().getCarrier().getStatus().name(),
                 file.getCreatedAt()
         );
     }
@@ -108,16 +167,20 @@ public class FileService {
                 file.getOriginalFileSizeInByte(),
                 file.getOriginalFileType(),
                 file.getTags(),
-                file.getYoutubeVideoId(),
-                file.getYoutubeVideoUrl(),
-                file.getStatus().name(),
+                file.getContent().getCarrier().getYoutubeVideoId(),
+                file.getContent().getCarrier().getYoutubeVideoUrl(),
+                file.getContent().getCarrier().getStatus().name(),
                 file.getSecretKeyHash() != null,
                 file.getCreatedAt(),
                 file.getUpdatedAt()
         );
     }
 
-    public DownloadFileResponseDto downloadFile(Long videoId, String secretKey) {
+    /**
+     * Find a file that can be downloaded with the given secret key.
+     * Done before the response starts so a wrong key still gets a proper status code.
+     */
+    public File getDownloadableFile(Long videoId, String secretKey) {
         File file = fileRepository.findById(videoId)
                 .orElseThrow(() -> new ResponseStatusException(
                         HttpStatus.NOT_FOUND, "File not found with id: " + videoId));
@@ -140,26 +203,150 @@ public class FileService {
             }
         }
 
-        try {
-            logger.debug("Came in try catch");
-            InputStream videoStream = YouTubeVideoDownload.downloadVideo(file.getYoutubeVideoUrl());
+        File content = file.getContent();
+        if (content.isChunked()) {
+            // Its own videos may hold no chunk at all, but every file holding one has to be uploaded
+            Optional<File> unfinished = content.getCarrier().getStatus() == Status.UPLOADED
+                    ? chunkService.findUnfinishedPack(content)
+                    : Optional.of(content.getCarrier());
+            if (unfinished.isPresent()) {
+                throw new ResponseStatusException(
+                        HttpStatus.CONFLICT,
+                        "File is not uploaded yet, status of file " + unfinished.get().getId() + " holding its chunks: "
+                                + unfinished.get().getStatus()
+                );
+            }
+            return file;
+        }
+        // Legacy PENDING rows are uploaded as soon as they have a video
+        if (content.getYoutubeVideoUrl() == null
+                || (content.getStatus() != Status.UPLOADED && content.getStatus() != Status.PENDING)) {
+            throw new ResponseStatusException(
+                    HttpStatus.CONFLICT,
+                    "File is not uploaded yet, status: " + content.getStatus()
+            );
+        }
+        return file;
+    }
 
-            //decode
-            byte[] fileContent = RetrieveVideo.decodeVideo(videoStream);
+    /**
+     * Decode {@code length} bytes of the file starting at {@code offset} straight into
+     * {@code outputStream}, one frame at a time. The heap holds a few frames whatever the file
+     * size. A range past the start spools the video to a temporary file so it can seek there,
+     * and frames before the range are skipped rather than decoded.
+     * Files in the {@link DecodedFileCache} are sent from disk without touching YouTube, and
+     * concurrent downloads of one file share a single decode through the {@link DownloadCoalescer}.
+     * Encrypted files skip both so their plaintext never reaches the disk, and only the chunks
+     * covering the range are decoded and decrypted. Compressed files are decoded from their start,
+     * chunked files only from the chunks covering the range.
+     */
+    public void streamFile(File file, String secretKey, OutputStream outputStream, long offset, long length)
+            throws IOException {
+        long startNanos = System.nanoTime();
+        // Duplicates are decoded from the videos of the file that stored their bytes
+        File content = file.getContent();
+        if (file.isEncrypted()) {
+            try {
+                decodeOriginal(content, secretKey, outputStream, offset, length);
+            } catch (IOException e) {
+                logger.error("Error streaming encrypted file {}", file.getId(), e);
+                throw e;
+            }
+            logger.info("Streamed and decrypted {} bytes at offset {} of file {} in {} ms", length, offset,
+                    file.getId(), (System.nanoTime() - startNanos) / 1_000_000);
+            return;
+        }
+        if (decodedFileCache.serve(file.getFileChecksum(), outputStream, offset, length)) {
+            logger.info("Served {} bytes at offset {} of file {} from the download cache in {} ms", length, offset,
+                    file.getId(), (System.nanoTime() - startNanos) / 1_000_000);
+            return;
+        }
 
-            if (file.getSecretKeyHash() != null) {
-                //TODO: decryption
+        try {
+            if (downloadCoalescer.stream(file.getFileChecksum(), file.getOriginalFileSizeInByte(),
+                    out -> decodeOriginal(content, null, out, 0, file.getOriginalFileSizeInByte()),
+                    outputStream, offset, length)) {
+                logger.info("Streamed {} bytes at offset {} of file {} from a shared download in {} ms", length,
+                        offset, file.getId(), (System.nanoTime() - startNanos) / 1_000_000);
+                return;
             }
+            decodeOriginal(content, null, outputStream, offset, length);
+            logger.info("Streamed {} bytes at offset {} of file {} in {} ms", length, offset, file.getId(),
+                    (System.nanoTime() - startNanos) / 1_000_000);
+        } catch (IOException e) {
+            // Headers are already sent, all we can do is abort the response
+            logger.error("Error streaming file {}", file.getId(), e);
+            throw e;
+        }
+    }
 
-            return DownloadFileResponseDto.from(file, fileContent);
-        } catch (Exception e) {
-            logger.error("Error downloading file", e);
-            throw new ResponseStatusException(
-                    HttpStatus.INTERNAL_SERVER_ERROR,
-                    e.getMessage()
-            );
+    /**
+     * Write a range of the file as uploaded, inflating it when it was compressed.
+     */
+    private void decodeOriginal(File file, String secretKey, OutputStream outputStream, long offset, long length)
+            throws IOException {
+        if (file.isChunked()) {
+            chunkService.streamChunks(file, outputStream, offset, length, this::openPack);
+            return;
+        }
+        if (!file.isCompressed()) {
+            decodeStored(file, secretKey, outputStream, offset, length);
+            return;
+        }
+        try (OutputStream inflating = CompressionUtil.decompress(file.getCompression(), outputStream,
+                file.getOriginalFileSizeInByte(), offset, length)) {
+            decodeStored(file, secretKey, inflating, 0, file.getCompressedSizeInByte());
+        }
+    }
+
+    /**
+     * Write a range of the file as it was before encryption, decrypting only the chunks it touches.
+     */
+    private void decodeStored(File file, String secretKey, OutputStream outputStream, long offset, long length)
+            throws IOException {
+        if (!file.isEncrypted()) {
+            decodeFile(file, outputStream, offset, length);
+            return;
+        }
+        ChunkCipher cipher = encryptionSettings.cipher(secretKey, HexFormat.of().parseHex(file.getEncryptionSalt()),
+                file.getEncryptionIterations(), file.getEncryptionChunkSize());
+        long plainLength = file.getCompressedSizeInByte();
+        ChunkCipher.Range encrypted = cipher.encryptedRange(plainLength, offset, length);
+        try (OutputStream plaintext = cipher.decrypt(outputStream, plainLength, offset, length)) {
+            decodeFile(file, plaintext, encrypted.offset(), encrypted.length());
+        }
+    }
+
+    /**
+     * Open the videos of a pack, so all the ranges a download needs share one fetch of each video.
+     */
+    private ChunkService.PackSource openPack(File pack) {
+        int minVideoHeight = videoDecoderSettings.minVideoHeight(CreateVideoUtil.DEFAULT_HEIGHT, pack.getBlockSize());
+        return shardService.spool(pack, videoDecoderSettings.forSymbolMode(pack.getSymbolMode()), minVideoHeight);
+    }
+
+    private void decodeFile(File file, OutputStream outputStream, long offset, long length) throws IOException {
+        // Files drawn with big enough blocks are fetched at a lower resolution
+        int minVideoHeight = videoDecoderSettings.minVideoHeight(CreateVideoUtil.DEFAULT_HEIGHT, file.getBlockSize());
+        VideoDecoderSettings decoderSettings = videoDecoderSettings.forSymbolMode(file.getSymbolMode());
+        List<FileShard> shards = shardService.getShards(file.getId());
+        if (!shards.isEmpty()) {
+            shardService.streamShards(shards, decoderSettings, minVideoHeight, outputStream, offset, length);
+            return;
+        }
+        try (InputStream videoStream = youTubeVideoDownload.downloadVideo(file.getYoutubeVideoUrl(), minVideoHeight)) {
+            RetrieveVideo.decodeVideo(videoStream, outputStream, decoderSettings, offset, length);
         }
+    }
 
+    public CacheStatsResponseDto getCacheStats() {
+        return decodedFileCache.getStats();
+    }
+
+    public DownloadStatsResponseDto getDownloadStats() {
+        ProcessSupervisor.Stats stats = youTubeVideoDownload.getStats();
+        return new DownloadStatsResponseDto(stats.active(), stats.queued(), stats.started(), stats.succeeded(),
+                stats.failed(), stats.timedOut());
     }
 
     public ResponseEntity<?> uploadFile(UploadFileRequestDto uploadRequest) throws IOException {
@@ -184,102 +371,151 @@ public class FileService {
 
         File newFile = new File(originalFileName, originalFileSizeInByte, originalFileType, uploadRequest.tags());
 
-        if (uploadRequest.secretKey() != null) {
-            String secretKeyHash = HashUtil.hash(uploadRequest.secretKey());
-            newFile.setSecretKeyHash(secretKeyHash);
+        if (uploadRequest.symbolMode() != null) {
+            if (videoEncoderSettings.blockSize() < uploadRequest.symbolMode().minBlockSize()) {
+                throw new ResponseStatusException(
+                        HttpStatus.BAD_REQUEST,
+                        uploadRequest.symbolMode() + " needs a block size of at least "
+                                + uploadRequest.symbolMode().minBlockSize() + ", the server uses "
+                                + videoEncoderSettings.blockSize()
+                );
+            }
+            newFile.setSymbolMode(uploadRequest.symbolMode());
         }
 
-        byte[] fileBytes = uploadRequest.file().getBytes();
-
-        String fileChecksum = ChecksumUtil.calculateChecksum(fileBytes);
-        newFile.setFileChecksum(fileChecksum);
-
-        // Save file with PENDING status initially
-        newFile = fileRepository.save(newFile);
-        logger.info("File record created with ID: {}, Status: PENDING", newFile.getId());
-
-        // Encryption if secret key is given
         if (uploadRequest.secretKey() != null) {
-            // TODO: encryption
-            logger.info("File Encryption need to be implemented");
+            String secretKeyHash = HashUtil.hash(uploadRequest.secretKey());
+            newFile.setSecretKeyHash(secretKeyHash);
         }
 
-        // Time to create video
-        final int width = 1920;
-        final int frameRate = 24;
-        final int height = 1072;
-        final String tempOutputPath = "/tmp/jaimin_" + newFile.getId() + ".mp4";
-
+        // Stage the upload before the request ends, the checksum is read from the staged copy
+        Path staged = uploadJobService.stage(uploadRequest.file());
+        CompletableFuture<File> claim = null;
         try {
-            logger.info("Creating video from file bytes...");
-            CreateVideoUtil.createVideo(fileBytes, width, height, frameRate, tempOutputPath);
-            logger.info("Video created successfully at: {}", tempOutputPath);
-
-            // Get access token from auth service
-            String accessToken = youTubeAuthService.getAccessToken();
-            if (accessToken == null) {
-                throw new ResponseStatusException(
-                        HttpStatus.UNAUTHORIZED,
-                        "YouTube access token not available. Please re-authenticate."
-                );
+            String fileChecksum = ChecksumUtil.calculateChecksum(staged);
+            newFile.setFileChecksum(fileChecksum);
+
+            // Encrypted files are stored under a key of their own, only plain ones share videos
+            if (uploadRequest.secretKey() == null) {
+                claim = new CompletableFuture<>();
+                File content = claimContent(fileChecksum, claim);
+                if (content != null) {
+                    claim = null;
+                    Files.deleteIfExists(staged);
+                    return linkDuplicate(newFile, content);
+                }
+                newFile.setContentChecksum(fileChecksum);
             }
 
-            // Create YouTubeApi instance with access token
-            YouTubeApi youTubeApi = new YouTubeApi(
-                    youTubeAuthService.getHttpTransport(),
-                    accessToken
-            );
-
-            // Upload to YouTube
-            String videoTitle = "JustStore_" + newFile.getId() + "_" + originalFileName;
-            logger.info("Uploading video to YouTube with title: {}", videoTitle);
-
-            YouTubeApi.YouTubeUploadResult uploadResult = youTubeApi.uploadVideo(
-                    tempOutputPath,
-                    videoTitle,
-                    uploadRequest.tags()
-            );
+            // Small plain files wait to share a container video, compressed with it chunk by chunk
+            boolean packSmall = uploadRequest.secretKey() == null && packingService.shouldPack(originalFileSizeInByte);
+            if (packSmall) {
+                newFile.setStatusMessage("Waiting to be packed with other small files");
+            }
 
-            // Update file record with YouTube info
-            newFile.setYoutubeVideoId(uploadResult.videoId());
-            newFile.setYoutubeVideoUrl(uploadResult.videoUrl());
-            newFile.setStatus(Status.UPLOADED);
-            fileRepository.save(newFile);
+            // The checksum stays that of the plaintext, the videos only ever hold the encryption.
+            // The key is derived here, the job encrypts the staged plaintext as it encodes
+            ChunkCipher cipher = null;
+            if (uploadRequest.secretKey() != null) {
+                byte[] salt = ChunkCipher.newSalt();
+                cipher = encryptionSettings.cipher(uploadRequest.secretKey(), salt,
+                        encryptionSettings.iterations(), encryptionSettings.chunkSizeBytes());
+                newFile.setEncryption(HexFormat.of().formatHex(salt), encryptionSettings.chunkSizeBytes(),
+                        encryptionSettings.iterations());
+            }
 
-            logger.info("File uploaded successfully! YouTube Video ID: {}", uploadResult.videoId());
+            try {
+                newFile = fileRepository.save(newFile);
+            } catch (DataIntegrityViolationException e) {
+                // Another instance stored the same bytes meanwhile
+                if (claim == null) {
+                    throw e;
+                }
+                File content = fileRepository.findByContentChecksum(fileChecksum).orElseThrow(() -> e);
+                claim.complete(content);
+                Files.deleteIfExists(staged);
+                return linkDuplicate(newFile, content);
+            }
+            if (packSmall) {
+                packingService.add(newFile, staged, uploadRequest.tags());
+            } else {
+                uploadJobService.submit(newFile, staged, uploadRequest.tags(), cipher);
+            }
+            if (claim != null) {
+                claim.complete(newFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(staged);
+            if (claim != null) {
+                claim.completeExceptionally(e);
+            }
+            throw e;
+        } finally {
+            if (claim != null) {
+                contentInFlight.remove(newFile.getFileChecksum(), claim);
+            }
+        }
+        logger.info("File record created with ID: {}, Status: {}", newFile.getId(), newFile.getStatus());
+
+        // Encoding and uploading continue in the background, progress is on the status endpoint
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .body(Map.of(
+                        "message", "File received, encoding and uploading in the background",
+                        "fileId", newFile.getId(),
+                        "status", newFile.getStatus().name(),
+                        "statusUrl", "/files/" + newFile.getId() + "/status"
+                ));
+    }
 
-            // Clean up temp file
-            java.io.File tempFile = new java.io.File(tempOutputPath);
-            if (tempFile.exists() && tempFile.delete()) {
-                logger.info("Temporary video file deleted: {}", tempOutputPath);
+    /**
+     * Find the file already storing these bytes, waiting for an identical upload that is being
+     * staged right now instead of storing them twice.
+     *
+     * @return The file to link to, or {@code null} when the caller holds {@code claim} and stores the bytes.
+     */
+    private File claimContent(String checksum, CompletableFuture<File> claim) throws IOException {
+        CompletableFuture<File> inFlight;
+        while ((inFlight = contentInFlight.putIfAbsent(checksum, claim)) != null) {
+            try {
+                return inFlight.get();
+            } catch (ExecutionException e) {
+                // That upload failed, store the bytes with this one
+                contentInFlight.remove(checksum, inFlight);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an identical upload");
             }
+        }
 
-            return ResponseEntity
-                    .status(HttpStatus.CREATED)
-                    .body(Map.of(
-                            "message", "File uploaded successfully",
-                            "fileId", newFile.getId(),
-                            "youtubeVideoId", uploadResult.videoId(),
-                            "youtubeVideoUrl", uploadResult.videoUrl()
-                    ));
-
-        } catch (GeneralSecurityException e) {
-            logger.error("YouTube authentication error: {}", e.getMessage());
-            newFile.setStatus(Status.FAILED);
-            fileRepository.save(newFile);
-            throw new ResponseStatusException(
-                    HttpStatus.INTERNAL_SERVER_ERROR,
-                    "YouTube authentication failed: " + e.getMessage()
-            );
-        } catch (IOException e) {
-            logger.error("Error during upload: {}", e.getMessage());
-            newFile.setStatus(Status.FAILED);
-            fileRepository.save(newFile);
-            throw new ResponseStatusException(
-                    HttpStatus.INTERNAL_SERVER_ERROR,
-                    "Upload failed: " + e.getMessage()
-            );
+        Optional<File> stored = fileRepository.findByContentChecksum(checksum);
+        if (stored.isEmpty()) {
+            return null;
+        }
+        File content = stored.get();
+        if (content.getCarrier().getStatus() == Status.FAILED) {
+            // Its videos never made it, the next upload of these bytes stores them instead
+            content.setContentChecksum(null);
+            fileRepository.save(content);
+            return null;
         }
+        // Uploads that joined the claim meanwhile link to the stored file too
+        claim.complete(content);
+        contentInFlight.remove(checksum, claim);
+        return content;
     }
-}
 
+    private ResponseEntity<?> linkDuplicate(File newFile, File content) {
+        newFile.linkTo(content);
+        newFile = fileRepository.save(newFile);
+        logger.info("File record created with ID: {}, a duplicate of file {}", newFile.getId(), content.getId());
+        return ResponseEntity
+                .status(HttpStatus.ACCEPTED)
+                .body(Map.of(
+                        "message", "File already stored, sharing the videos of file " + content.getId(),
+                        "fileId", newFile.getId(),
+                        "status", newFile.getStatus().name(),
+                        "statusUrl", "/files/" + newFile.getId() + "/status"
+                ));
+    }
+}
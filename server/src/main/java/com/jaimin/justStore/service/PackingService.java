@@ -0,0 +1,202 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.enums.Status;
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.repository.FileRepository;
+import com.jaimin.justStore.utils.PackingSettings;
+import com.jaimin.justStore.utils.UploadJobSettings;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gathers small plain uploads into one container video, so they share an encode, an upload and
+ * its quota instead of paying for a video each.
+ * <p>
+ * Uploads wait until their files fill a container or the packing window closes. The first file
+ * of the container carries the upload: its pack holds the chunks of every file, and each file
+ * reads its bytes through its own chunk manifest, decoding only the frames that hold them. The
+ * others follow the carrier's upload stage. Files still waiting at shutdown keep their staged
+ * upload and are uploaded on their own by the next start.
+ */
+@Service
+public class PackingService {
+    private static final Logger logger = LoggerFactory.getLogger(PackingService.class);
+
+    private final FileRepository fileRepository;
+    private final ChunkService chunkService;
+    private final UploadJobService uploadJobService;
+    private final UploadJobSettings uploadJobSettings;
+    private final PackingSettings packingSettings;
+
+    // Single thread, so containers are written one at a time
+    private final ScheduledExecutorService packer;
+
+    private final Object lock = new Object();
+    private List<Waiting> waiting = new ArrayList<>();
+    private long waitingBytes;
+    private ScheduledFuture<?> windowClose;
+
+    private record Waiting(Long fileId, String fileType, Set<String> tags) {
+    }
+
+    public PackingService(FileRepository fileRepository, ChunkService chunkService,
+                          UploadJobService uploadJobService, UploadJobSettings uploadJobSettings,
+                          PackingSettings packingSettings) {
+        this.fileRepository = fileRepository;
+        this.chunkService = chunkService;
+        this.uploadJobService = uploadJobService;
+        this.uploadJobSettings = uploadJobSettings;
+        this.packingSettings = packingSettings;
+        this.packer = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("small-file-packer").daemon().factory());
+    }
+
+    public boolean shouldPack(long fileSize) {
+        return packingSettings.shouldPack(fileSize);
+    }
+
+    /**
+     * Take over a staged upload of a saved small file until its container is uploaded.
+     */
+    public void add(File file, Path staged, Set<String> tags) throws IOException {
+        Files.move(staged, uploadJobSettings.stagedFile(file.getId()), StandardCopyOption.REPLACE_EXISTING);
+        List<Waiting> full = null;
+        synchronized (lock) {
+            waiting.add(new Waiting(file.getId(), file.getOriginalFileType(),
+                    tags != null ? Set.copyOf(tags) : Set.of()));
+            waitingBytes += file.getOriginalFileSizeInByte();
+            if (waitingBytes >= packingSettings.containerSizeBytes()) {
+                full = takeWaiting();
+            } else if (windowClose == null) {
+                windowClose = packer.schedule(this::closeWindow, packingSettings.window().toMillis(),
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            List<Waiting> container = full;
+            packer.execute(() -> pack(container));
+        }
+        logger.info("File {} received, waiting to be packed with other small files", file.getId());
+    }
+
+    private void closeWindow() {
+        List<Waiting> container;
+        synchronized (lock) {
+            windowClose = null;
+            container = takeWaiting();
+        }
+        pack(container);
+    }
+
+    private List<Waiting> takeWaiting() {
+        if (windowClose != null) {
+            windowClose.cancel(false);
+            windowClose = null;
+        }
+        List<Waiting> taken = waiting;
+        waiting = new ArrayList<>();
+        waitingBytes = 0;
+        return taken;
+    }
+
+    private void pack(List<Waiting> container) {
+        List<File> files = new ArrayList<>();
+        List<Path> staged = new ArrayList<>();
+        List<String> fileTypes = new ArrayList<>();
+        List<Set<String>> tags = new ArrayList<>();
+        for (Waiting entry : container) {
+            File file = fileRepository.findById(entry.fileId()).orElse(null);
+            Path stagedFile = uploadJobSettings.stagedFile(entry.fileId());
+            if (file == null || file.getStatus() != Status.RECEIVED || !Files.exists(stagedFile)) {
+                continue;
+            }
+            files.add(file);
+            staged.add(stagedFile);
+            fileTypes.add(entry.fileType());
+            tags.add(entry.tags());
+        }
+        if (files.isEmpty()) {
+            return;
+        }
+        if (files.size() == 1) {
+            submitAlone(files.get(0), staged.get(0), tags.get(0));
+            return;
+        }
+
+        List<ChunkService.Plan> plans;
+        try {
+            plans = chunkService.packAll(staged, fileTypes);
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not pack {} small files, uploading them one by one", files.size(), e);
+            for (int i = 0; i < files.size(); i++) {
+                submitAlone(files.get(i), staged.get(i), tags.get(i));
+            }
+            return;
+        }
+
+        File carrier = files.get(0);
+        try {
+            carrier.setPackSizeInByte(plans.get(0).packSize());
+            carrier = fileRepository.save(carrier);
+            files.set(0, carrier);
+            for (int i = 1; i < files.size(); i++) {
+                File file = files.get(i);
+                file.packInto(carrier);
+                files.set(i, fileRepository.save(file));
+            }
+            chunkService.recordAll(files, carrier, plans);
+            uploadJobService.submit(carrier, plans.get(0).pack(), tags.get(0));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Packing {} small files into file {} failed", files.size(), carrier.getId(), e);
+            for (File file : files) {
+                file.setStatus(Status.FAILED);
+                file.setStatusMessage("Packing small files failed: " + e.getMessage());
+                fileRepository.save(file);
+            }
+            deleteQuietly(plans.get(0).pack());
+            staged.forEach(PackingService::deleteQuietly);
+            return;
+        }
+        // Only the container is uploaded, the carrier's staged upload was replaced by it
+        for (int i = 1; i < staged.size(); i++) {
+            deleteQuietly(staged.get(i));
+        }
+        logger.info("Packed {} small files into the container upload of file {}", files.size(), carrier.getId());
+    }
+
+    private void submitAlone(File file, Path staged, Set<String> tags) {
+        try {
+            uploadJobService.submit(file, staged, tags);
+        } catch (IOException e) {
+            logger.error("Could not queue the upload job of file {}", file.getId(), e);
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Waiting files keep their staged upload and are uploaded on their own by the next start
+        packer.shutdownNow();
+    }
+}
@@ -0,0 +1,217 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileShard;
+import com.jaimin.justStore.repository.FileShardRepository;
+import com.jaimin.justStore.utils.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stores a large file as several shorter videos.
+ * <p>
+ * Every shard is a complete video with its own header, so shards are encoded, uploaded,
+ * downloaded and decoded independently and in parallel. Only the order is shared, through
+ * {@link FileShard#getShardIndex()}. Uploading shards is driven by {@link UploadJobService}.
+ */
+@Service
+public class ShardService {
+    private static final Logger logger = LoggerFactory.getLogger(ShardService.class);
+
+    private final FileShardRepository fileShardRepository;
+    private final ShardSettings shardSettings;
+    private final YouTubeVideoDownload youTubeVideoDownload;
+
+    public ShardService(FileShardRepository fileShardRepository, ShardSettings shardSettings,
+                        YouTubeVideoDownload youTubeVideoDownload) {
+        this.fileShardRepository = fileShardRepository;
+        this.shardSettings = shardSettings;
+        this.youTubeVideoDownload = youTubeVideoDownload;
+    }
+
+    public List<FileShard> getShards(Long fileId) {
+        return fileShardRepository.findByFileIdOrderByShardIndexAsc(fileId);
+    }
+
+    /**
+     * Record an uploaded shard, called as soon as its upload finishes so a restarted job can skip it.
+     */
+    public FileShard recordShard(File file, int index, long offset, long length,
+                                 YouTubeApi.YouTubeUploadResult uploadResult) {
+        return fileShardRepository.save(new FileShard(file, index, offset, length,
+                uploadResult.videoId(), uploadResult.videoUrl()));
+    }
+
+    /**
+     * Write {@code length} bytes starting at {@code offset} of a sharded file to {@code outputStream}.
+     * <p>
+     * Only the shards overlapping the range are fetched. Up to the configured number of them
+     * are downloaded and decoded in parallel into temporary files, which are copied out in
+     * shard order. Disk use is bounded by that number of shards, heap use by a few frames.
+     *
+     * @param decoderSettings How the file's videos are decoded.
+     * @param minVideoHeight  Smallest rendition that still resolves the shards' blocks, 0 for the best one.
+     */
+    public void streamShards(List<FileShard> shards, VideoDecoderSettings decoderSettings, int minVideoHeight,
+                             OutputStream outputStream, long offset, long length) throws IOException {
+        final long end = offset + length;
+        List<FileShard> covering = shards.stream()
+                .filter(shard -> shard.getByteOffset() < end && shard.getByteOffset() + shard.getByteLength() > offset)
+                .toList();
+        if (covering.isEmpty()) {
+            return;
+        }
+
+        final int parallelism = Math.min(shardSettings.downloadParallelism(), covering.size());
+        // Shards decode side by side, so they split the extraction workers
+        final VideoDecoderSettings shardDecoderSettings = decoderSettings.withWorkerThreads(
+                Math.max(1, decoderSettings.workerThreads() / parallelism));
+
+        Queue<Path> tempFiles = new ConcurrentLinkedQueue<>();
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism,
+                Thread.ofPlatform().name("shard-decode-", 0).daemon().factory());
+        try {
+            OrderedPipeline.<Path>run(pool, parallelism, "shard-fetcher",
+                    submitter -> {
+                        for (FileShard shard : covering) {
+                            long from = Math.max(offset, shard.getByteOffset()) - shard.getByteOffset();
+                            long to = Math.min(end, shard.getByteOffset() + shard.getByteLength()) - shard.getByteOffset();
+                            submitter.submit(() -> decodeShard(shard, from, to - from, minVideoHeight, shardDecoderSettings,
+                                    tempFiles));
+                        }
+                    },
+                    decoded -> {
+                        try (InputStream in = Files.newInputStream(decoded)) {
+                            in.transferTo(outputStream);
+                        }
+                        tempFiles.remove(decoded);
+                        Files.deleteIfExists(decoded);
+                    });
+            outputStream.flush();
+        } finally {
+            pool.shutdownNow();
+            for (Path tempFile : tempFiles) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Open the videos of a file for decoding several ranges of it. Each video is downloaded to a
+     * temporary file the first time a range needs it, so any number of ranges cost one download
+     * per video.
+     *
+     * @param decoderSettings How the file's videos are decoded.
+     * @param minVideoHeight  Smallest rendition that still resolves the videos' blocks, 0 for the best one.
+     */
+    public SpooledVideos spool(File file, VideoDecoderSettings decoderSettings, int minVideoHeight) {
+        List<FileShard> shards = getShards(file.getId());
+        List<SpooledVideo> videos = shards.isEmpty()
+                ? List.of(new SpooledVideo(file.getYoutubeVideoUrl(), 0, file.getPayloadSizeInByte()))
+                : shards.stream()
+                .map(shard -> new SpooledVideo(shard.getYoutubeVideoUrl(), shard.getByteOffset(), shard.getByteLength()))
+                .toList();
+        return new SpooledVideos(videos, decoderSettings, minVideoHeight);
+    }
+
+    /**
+     * The videos of a file, downloaded on first use. Closing it deletes them.
+     */
+    public final class SpooledVideos implements ChunkService.PackSource {
+        private final List<SpooledVideo> videos;
+        private final VideoDecoderSettings decoderSettings;
+        private final int minVideoHeight;
+        private volatile boolean closed;
+
+        private SpooledVideos(List<SpooledVideo> videos, VideoDecoderSettings decoderSettings, int minVideoHeight) {
+            this.videos = videos;
+            this.decoderSettings = decoderSettings;
+            this.minVideoHeight = minVideoHeight;
+        }
+
+        @Override
+        public void decode(OutputStream outputStream, long offset, long length) throws IOException {
+            final long end = offset + length;
+            for (SpooledVideo video : videos) {
+                if (video.byteOffset >= end || video.byteOffset + video.byteLength <= offset) {
+                    continue;
+                }
+                long from = Math.max(offset, video.byteOffset) - video.byteOffset;
+                long to = Math.min(end, video.byteOffset + video.byteLength) - video.byteOffset;
+                RetrieveVideo.decodeVideo(fetch(video), outputStream, decoderSettings, from, to - from);
+            }
+        }
+
+        private Path fetch(SpooledVideo video) throws IOException {
+            synchronized (video) {
+                if (video.path == null) {
+                    Path path = Files.createTempFile("juststore-video-", ".mp4");
+                    try (InputStream videoStream = youTubeVideoDownload.downloadVideo(video.url, minVideoHeight)) {
+                        Files.copy(videoStream, path, StandardCopyOption.REPLACE_EXISTING);
+                    } catch (IOException | RuntimeException e) {
+                        Files.deleteIfExists(path);
+                        throw e;
+                    }
+                    video.path = path;
+                }
+                if (closed) {
+                    Files.deleteIfExists(video.path);
+                    throw new IOException("Videos were closed while downloading");
+                }
+                return video.path;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            for (SpooledVideo video : videos) {
+                synchronized (video) {
+                    if (video.path != null) {
+                        Files.deleteIfExists(video.path);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * One video of a file, and where it was downloaded to.
+     */
+    private static final class SpooledVideo {
+        private final String url;
+        private final long byteOffset;
+        private final long byteLength;
+        private Path path;
+
+        SpooledVideo(String url, long byteOffset, long byteLength) {
+            this.url = url;
+            this.byteOffset = byteOffset;
+            this.byteLength = byteLength;
+        }
+    }
+
+    private Path decodeShard(FileShard shard, long offset, long length, int minVideoHeight,
+                             VideoDecoderSettings settings, Queue<Path> tempFiles) throws IOException {
+        Path decoded = Files.createTempFile("juststore-shard-" + shard.getId() + "-", ".bin");
+        tempFiles.add(decoded);
+        try (InputStream videoStream = youTubeVideoDownload.downloadVideo(shard.getYoutubeVideoUrl(), minVideoHeight);
+             OutputStream out = Files.newOutputStream(decoded)) {
+            RetrieveVideo.decodeVideo(videoStream, out, settings, offset, length);
+        }
+        return decoded;
+    }
+}
@@ -0,0 +1,741 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.Status;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileShard;
+import com.jaimin.justStore.model.UploadSession;
+import com.jaimin.justStore.repository.FileRepository;
+import com.jaimin.justStore.repository.UploadSessionRepository;
+import com.jaimin.justStore.utils.*;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Runs accepted uploads in the background.
+ * <p>
+ * Every upload is a job on its own virtual thread that walks the file through
+ * {@link Status#RECEIVED}, {@link Status#ENCODING}, {@link Status#UPLOADING} and
+ * {@link Status#PROCESSING} to {@link Status#UPLOADED}, persisting each stage on the file.
+ * Jobs mostly wait: rendering runs on a small pool of platform threads sized for the CPU,
+ * YouTube uploads on a separately bounded pool, so neither kind of work can starve the other.
+ * <p>
+ * The upload is staged on disk under a name derived from the file id, so jobs interrupted by
+ * a restart are picked up again, skipping shards that were already uploaded. Videos are sent
+ * through resumable sessions persisted as {@link UploadSession}s, so a video cut off mid-upload
+ * continues from the last byte YouTube acknowledged instead of being encoded and sent again.
+ * With {@link UploadJobSettings#streamUploads()} the encoder feeds the upload directly instead,
+ * which overlaps the two but gives up resuming a video cut off by a restart.
+ * <p>
+ * Encrypted files are staged as plaintext and encrypted as they are encoded, with the key the
+ * request derived. The key is never persisted, so their jobs do not survive a restart.
+ */
+@Service
+public class UploadJobService {
+    private static final Logger logger = LoggerFactory.getLogger(UploadJobService.class);
+
+    // Stages a restart can leave a file in
+    private static final Set<Status> UNFINISHED = EnumSet.of(
+            Status.RECEIVED, Status.ENCODING, Status.UPLOADING, Status.PROCESSING);
+
+    private final FileRepository fileRepository;
+    private final UploadSessionRepository uploadSessionRepository;
+    private final ShardService shardService;
+    private final YouTubeAuthService youTubeAuthService;
+    private final VideoEncoderSettings videoEncoderSettings;
+    private final ShardSettings shardSettings;
+    private final UploadJobSettings uploadJobSettings;
+    private final CompressionSettings compressionSettings;
+    private final ChunkService chunkService;
+
+    private final ExecutorService jobs;
+    private final ExecutorService encodeExecutor;
+    private final ExecutorService uploadExecutor;
+    private volatile boolean shuttingDown;
+
+    public UploadJobService(FileRepository fileRepository, UploadSessionRepository uploadSessionRepository,
+                            ShardService shardService,
+                            YouTubeAuthService youTubeAuthService, VideoEncoderSettings videoEncoderSettings,
+                            ShardSettings shardSettings, UploadJobSettings uploadJobSettings,
+                            CompressionSettings compressionSettings, ChunkService chunkService) {
+        this.fileRepository = fileRepository;
+        this.uploadSessionRepository = uploadSessionRepository;
+        this.shardService = shardService;
+        this.youTubeAuthService = youTubeAuthService;
+        this.videoEncoderSettings = videoEncoderSettings;
+        this.shardSettings = shardSettings;
+        this.uploadJobSettings = uploadJobSettings;
+        this.compressionSettings = compressionSettings;
+        this.chunkService = chunkService;
+
+        this.jobs = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("upload-job-", 0).factory());
+        // Each encode already fans out to its own render threads
+        this.encodeExecutor = Executors.newFixedThreadPool(uploadJobSettings.encodeConcurrency(),
+                Thread.ofPlatform().name("upload-encode-", 0).daemon().factory());
+        this.uploadExecutor = Executors.newFixedThreadPool(uploadJobSettings.uploadConcurrency(),
+                Thread.ofVirtual().name("upload-io-", 0).factory());
+    }
+
+    /**
+     * Move the multipart upload into the staging directory before the request ends and
+     * the servlet container deletes it.
+     */
+    public Path stage(MultipartFile multipartFile) throws IOException {
+        Files.createDirectories(uploadJobSettings.stagingDir());
+        Path incoming = Files.createTempFile(uploadJobSettings.stagingDir(), "incoming_", ".bin");
+        // The File overload lets the container rename its spooled copy instead of copying it
+        multipartFile.transferTo(incoming.toFile());
+        return incoming;
+    }
+
+    /**
+     * Deflate a staged upload into a copy next to it.
+     *
+     * @return The copy, or {@code null} when it would be no smaller.
+     */
+    private Path compress(Path staged, int level) throws IOException {
+        Path compressed = Files.createTempFile(uploadJobSettings.stagingDir(), "compressed_", ".bin");
+        long startNanos = System.nanoTime();
+        long size = Files.size(staged);
+        long compressedSize;
+        try (InputStream in = Files.newInputStream(staged);
+             OutputStream out = Files.newOutputStream(compressed)) {
+            compressedSize = CompressionUtil.compress(in, out, level);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(compressed);
+            throw e;
+        }
+        logger.info("Compressed {} staged bytes to {} in {} ms", size, compressedSize,
+                (System.nanoTime() - startNanos) / 1_000_000);
+        if (compressedSize >= size) {
+            deleteQuietly(compressed);
+            return null;
+        }
+        return compressed;
+    }
+
+    /**
+     * Take over a staged upload of a saved file and queue its job.
+     */
+    public void submit(File file, Path staged, Set<String> tags) throws IOException {
+        submit(file, staged, tags, null);
+    }
+
+    /**
+     * Take over the staged plaintext of a saved encrypted file and queue its job, which encrypts
+     * it with {@code cipher} as it encodes. The key is only kept in memory, so the job cannot
+     * resume after a restart.
+     */
+    public void submit(File file, Path staged, Set<String> tags, ChunkCipher cipher) throws IOException {
+        Files.move(staged, uploadJobSettings.stagedFile(file.getId()), StandardCopyOption.REPLACE_EXISTING);
+        Set<String> jobTags = tags != null ? Set.copyOf(tags) : Set.of();
+        jobs.submit(() -> runJob(file.getId(), jobTags, cipher));
+        logger.info("File {} received, upload job queued", file.getId());
+    }
+
+    /**
+     * Requeue jobs a shutdown interrupted. Files whose staged upload is gone are marked failed.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeUnfinishedJobs() {
+        for (File file : fileRepository.findByStatusInAndContentFileIsNullAndCarrierFileIsNull(UNFINISHED)) {
+            Long fileId = file.getId();
+            if (file.getStatus() == Status.PROCESSING && file.getYoutubeVideoId() != null) {
+                logger.info("Resuming wait for YouTube processing of file {}", fileId);
+                jobs.submit(() -> runJob(fileId, Set.of(), null));
+            } else if (file.isEncrypted()) {
+                // Its key went with the request, the staged plaintext cannot be encrypted again
+                deleteQuietly(uploadJobSettings.stagedFile(fileId));
+                markFailed(file, "Upload was interrupted by a restart, and the key of an encrypted file is not kept");
+            } else if (Files.exists(uploadJobSettings.stagedFile(fileId))) {
+                logger.info("Resuming upload job of file {} from {}", fileId, file.getStatus());
+                Set<String> tags = fileRepository.findWithTagsById(fileId)
+                        .map(withTags -> withTags.getTags() != null ? Set.copyOf(withTags.getTags()) : Set.<String>of())
+                        .orElse(Set.of());
+                jobs.submit(() -> runJob(fileId, tags, null));
+            } else {
+                markFailed(file, "Upload was interrupted by a restart and its staged copy is gone");
+            }
+        }
+    }
+
+    private void runJob(Long fileId, Set<String> tags, ChunkCipher cipher) {
+        File file = fileRepository.findById(fileId).orElse(null);
+        Path staged = uploadJobSettings.stagedFile(fileId);
+        if (file == null) {
+            deleteQuietly(staged);
+            return;
+        }
+
+        try {
+            if (file.getStatus() == Status.RECEIVED && !file.hasCompression() && !file.isChunked()) {
+                // Large plain files only upload the chunks no file stored before, compressed chunk by chunk
+                if (file.getSecretKeyHash() == null && chunkService.shouldChunk(file.getOriginalFileSizeInByte())) {
+                    chunkPlain(file, staged);
+                } else {
+                    compressStaged(file, staged);
+                }
+            }
+            if (file.isChunked() && file.getPayloadSizeInByte() == 0) {
+                // Other files already hold every chunk, there is nothing to encode
+                awaitPacks(file);
+                advance(file, Status.UPLOADED);
+                deleteQuietly(staged);
+                return;
+            }
+            recordEncoding(file);
+            List<String> videoIds;
+            if (file.getStatus() == Status.PROCESSING && file.getYoutubeVideoId() != null) {
+                videoIds = uploadedVideoIds(file);
+            } else if (shardSettings.shouldShard(file.getPayloadSizeInByte())) {
+                videoIds = encodeAndUploadShards(file, staged, cipher, tags);
+            } else {
+                YouTubeApi.YouTubeUploadResult uploadResult = encodeAndUpload(file, staged, cipher, 0, 0,
+                        file.getPayloadSizeInByte(), "JustStore_" + file.getId() + "_" + file.getOriginalFileName(),
+                        tags);
+                synchronized (file) {
+                    file.setYoutubeVideoId(uploadResult.videoId());
+                    file.setYoutubeVideoUrl(uploadResult.videoUrl());
+                }
+                videoIds = List.of(uploadResult.videoId());
+            }
+
+            advance(file, Status.PROCESSING);
+            awaitProcessing(file, videoIds);
+            if (file.isChunked()) {
+                awaitPacks(file);
+            }
+            advance(file, Status.UPLOADED);
+            logger.info("File {} uploaded successfully! YouTube Video ID: {}", fileId, file.getYoutubeVideoId());
+        } catch (Exception e) {
+            if (shuttingDown && cipher == null) {
+                // Keep the staged upload, the job resumes on the next start
+                logger.info("Upload job of file {} stopped at {} by shutdown", fileId, file.getStatus());
+                return;
+            }
+            if (shuttingDown) {
+                // Without the key the next start cannot resume it, and marks it failed
+                logger.info("Upload job of encrypted file {} stopped at {} by shutdown", fileId, file.getStatus());
+                deleteQuietly(staged);
+                return;
+            }
+            logger.error("Upload job of file {} failed", fileId, e);
+            markFailed(file, e.getMessage());
+        }
+        deleteQuietly(staged);
+    }
+
+    /**
+     * Replace a large plain upload by the pack of its new chunks and write its manifest. The file
+     * is only marked chunked once the pack is staged, so a job cut off before that finds the
+     * manifest without the mark and fails instead of encoding the wrong bytes.
+     */
+    private void chunkPlain(File file, Path staged) throws IOException {
+        if (chunkService.hasManifest(file)) {
+            throw new IOException("Cutting the upload into chunks was interrupted by a restart");
+        }
+        ChunkService.Plan plan = chunkService.pack(staged, file.getOriginalFileType());
+        try {
+            chunkService.record(file, plan);
+            Files.move(plan.pack(), staged, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(plan.pack());
+            throw e;
+        }
+        synchronized (file) {
+            file.setPackSizeInByte(plan.packSize());
+            fileRepository.save(file);
+        }
+    }
+
+    /**
+     * Compress an upload before its first encode when its type and a sample say it pays off. An
+     * encrypted upload is compressed here too, its encode then encrypts the compressed bytes.
+     */
+    private void compressStaged(File file, Path staged) throws IOException {
+        Path compressed = CompressionUtil.choose(compressionSettings, file.getOriginalFileType(), staged)
+                == Compression.DEFLATE ? compress(staged, compressionSettings.level()) : null;
+        try {
+            synchronized (file) {
+                if (compressed != null) {
+                    file.setCompression(Compression.DEFLATE, Files.size(compressed));
+                } else {
+                    file.setCompression(Compression.NONE, file.getOriginalFileSizeInByte());
+                }
+                fileRepository.save(file);
+            }
+            if (compressed != null) {
+                Files.move(compressed, staged, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            if (compressed != null) {
+                deleteQuietly(compressed);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Fix the block size and symbol mode of the file's videos before the first one is encoded, so
+     * a job resumed after a configuration change still draws every shard the same way.
+     */
+    private void recordEncoding(File file) {
+        synchronized (file) {
+            if (file.hasBlockSize() && file.hasSymbolMode()) {
+                return;
+            }
+            // Jobs already past RECEIVED were started before these were recorded, one black or white pixel per bit
+            boolean fresh = file.getStatus() == Status.RECEIVED;
+            if (!file.hasBlockSize()) {
+                file.setBlockSize(fresh ? videoEncoderSettings.blockSize() : 1);
+            }
+            if (!file.hasSymbolMode()) {
+                file.setSymbolMode(fresh ? videoEncoderSettings.symbolMode() : SymbolMode.BW1);
+            }
+            fileRepository.save(file);
+        }
+    }
+
+    private VideoEncoderSettings encoderSettings(File file) {
+        return videoEncoderSettings.withBlockSize(file.getBlockSize()).withSymbolMode(file.getSymbolMode())
+                .withCompression(file.getCompression());
+    }
+
+    private List<String> uploadedVideoIds(File file) {
+        List<FileShard> shards = shardService.getShards(file.getId());
+        if (shards.isEmpty()) {
+            return List.of(file.getYoutubeVideoId());
+        }
+        return shards.stream().map(FileShard::getYoutubeVideoId).toList();
+    }
+
+    /**
+     * Encode and upload every shard not uploaded yet, at most the configured number at once so
+     * encoded videos waiting for an upload slot do not pile up on disk.
+     */
+    private List<String> encodeAndUploadShards(File file, Path staged, ChunkCipher cipher, Set<String> tags)
+            throws IOException {
+        final long fileSize = file.getPayloadSizeInByte();
+        final long shardSize = shardSettings.shardSizeBytes();
+        final int shardCount = shardSettings.shardCount(fileSize);
+
+        Map<Integer, FileShard> uploaded = new ConcurrentHashMap<>();
+        for (FileShard shard : shardService.getShards(file.getId())) {
+            uploaded.put(shard.getShardIndex(), shard);
+        }
+        logger.info("Uploading file {} as {} shards, {} already done", file.getId(), shardCount, uploaded.size());
+
+        Semaphore inFlight = new Semaphore(shardSettings.uploadParallelism());
+        ExecutorService shardJobs = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("upload-shard-" + file.getId() + "-", 0).factory());
+        try {
+            CompletionService<FileShard> completed = new ExecutorCompletionService<>(shardJobs);
+            int submitted = 0;
+            for (int i = 0; i < shardCount; i++) {
+                if (uploaded.containsKey(i)) {
+                    continue;
+                }
+                final int index = i;
+                final long offset = i * shardSize;
+                final long length = Math.min(shardSize, fileSize - offset);
+                completed.submit(() -> {
+                    inFlight.acquire();
+                    try {
+                        YouTubeApi.YouTubeUploadResult uploadResult = encodeAndUpload(file, staged, cipher, index, offset,
+                                length, "JustStore_" + file.getId() + "_part" + (index + 1) + "of" + shardCount
+                                        + "_" + file.getOriginalFileName(),
+                                tags);
+                        logger.info("Shard {}/{} of file {} uploaded, YouTube Video ID: {}",
+                                index + 1, shardCount, file.getId(), uploadResult.videoId());
+                        return shardService.recordShard(file, index, offset, length, uploadResult);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+                submitted++;
+            }
+
+            // Take in completion order so the first failure stops everything
+            for (int i = 0; i < submitted; i++) {
+                FileShard shard = completed.take().get();
+                uploaded.put(shard.getShardIndex(), shard);
+            }
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Shard upload interrupted");
+        } finally {
+            shardJobs.shutdownNow();
+        }
+
+        FileShard firstShard = uploaded.get(0);
+        synchronized (file) {
+            file.setYoutubeVideoId(firstShard.getYoutubeVideoId());
+            file.setYoutubeVideoUrl(firstShard.getYoutubeVideoUrl());
+        }
+        return uploaded.values().stream()
+                .sorted(Comparator.comparingInt(FileShard::getShardIndex))
+                .map(FileShard::getYoutubeVideoId)
+                .toList();
+    }
+
+    /**
+     * Render {@code length} staged bytes from {@code offset} on the encode pool, then send the
+     * video on the upload pool.
+     * <p>
+     * The video and its upload session outlive a shutdown: when both are still there, the
+     * render is skipped and the upload continues from the last byte YouTube acknowledged.
+     */
+    private YouTubeApi.YouTubeUploadResult encodeAndUpload(File file, Path staged, ChunkCipher cipher, int partIndex,
+                                                           long offset, long length, String videoTitle,
+                                                           Set<String> tags)
+            throws IOException {
+        final int threads = uploadJobSettings.renderThreadsPerEncode();
+        final Path video = uploadJobSettings.stagedVideo(file.getId(), partIndex);
+        final UploadSession resumable = resumableSession(file.getId(), partIndex, video);
+        if (resumable == null && uploadJobSettings.streamUploads() && videoEncoderSettings.supportsStreaming()) {
+            // A video left by an earlier run without streaming is of no use without its session
+            deleteQuietly(video);
+            return streamEncodeAndUpload(file, staged, cipher, partIndex, offset, length, videoTitle, tags);
+        }
+        boolean keepVideo = false;
+        try {
+            if (resumable == null) {
+                await(encodeExecutor.submit(() -> {
+                    advance(file, Status.ENCODING);
+                    try (InputStream stagedBytes = Files.newInputStream(staged);
+                         InputStream payload = payload(file, stagedBytes, cipher, offset)) {
+                        CreateVideoUtil.createVideo(payload, length, CreateVideoUtil.DEFAULT_WIDTH,
+                                CreateVideoUtil.DEFAULT_HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE, video.toString(),
+                                threads, encoderSettings(file));
+                    }
+                    return null;
+                }));
+            } else {
+                logger.info("Part {} of file {} is already encoded, resuming its upload at byte {}",
+                        partIndex, file.getId(), resumable.getCommittedBytes());
+            }
+
+            YouTubeApi.YouTubeUploadResult uploadResult = await(uploadExecutor.submit(() -> {
+                advance(file, Status.UPLOADING);
+                logger.info("Uploading video to YouTube with title: {}", videoTitle);
+                return youTubeApi().uploadVideo(video, videoTitle, tags,
+                        resumable != null ? resumable.getSessionUri() : null,
+                        uploadJobSettings.uploadChunkSizeBytes(), uploadJobSettings.uploadMaxRetries(),
+                        new SessionRecorder(file, partIndex, video, resumable));
+            }));
+            uploadSessionRepository.findByFileIdAndPartIndex(file.getId(), partIndex)
+                    .ifPresent(uploadSessionRepository::delete);
+            return uploadResult;
+        } catch (IOException | RuntimeException e) {
+            // A shutdown leaves the video and session for the resumed job
+            keepVideo = shuttingDown;
+            if (!keepVideo) {
+                uploadSessionRepository.findByFileIdAndPartIndex(file.getId(), partIndex)
+                        .ifPresent(uploadSessionRepository::delete);
+            }
+            throw e;
+        } finally {
+            if (!keepVideo) {
+                deleteQuietly(video);
+            }
+        }
+    }
+
+    /**
+     * Encode into a pipe the upload reads from, so the video is sent while it is being rendered
+     * and never lands on disk unless the upload falls behind by more than the memory buffer.
+     * <p>
+     * The upload is only queued once the encode holds an encode slot: an upload waiting for an
+     * upload slot must never keep an encode, and the slot it holds, waiting for it in turn.
+     */
+    private YouTubeApi.YouTubeUploadResult streamEncodeAndUpload(File file, Path staged, ChunkCipher cipher,
+                                                                 int partIndex, long offset, long length,
+                                                                 String videoTitle, Set<String> tags)
+            throws IOException {
+        final int threads = uploadJobSettings.renderThreadsPerEncode();
+        final CompletableFuture<Void> encodeStarted = new CompletableFuture<>();
+        Future<Void> encode = null;
+        try (SpillingPipe pipe = new SpillingPipe(uploadJobSettings.streamBufferBytes(),
+                uploadJobSettings.streamSpillBytes(), uploadJobSettings.stagingDir())) {
+            encode = encodeExecutor.submit(() -> {
+                encodeStarted.complete(null);
+                advance(file, Status.ENCODING);
+                OutputStream sink = pipe.sink();
+                try (InputStream stagedBytes = Files.newInputStream(staged);
+                     InputStream payload = payload(file, stagedBytes, cipher, offset)) {
+                    CreateVideoUtil.streamVideo(payload, length, CreateVideoUtil.DEFAULT_WIDTH,
+                            CreateVideoUtil.DEFAULT_HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE, sink,
+                            threads, encoderSettings(file));
+                } catch (Throwable e) {
+                    // Closing the sink would end the upload with a truncated video
+                    pipe.fail(e);
+                    throw e;
+                }
+                sink.close();
+                return null;
+            });
+            await(encodeStarted);
+
+            YouTubeApi.YouTubeUploadResult uploadResult = await(uploadExecutor.submit(() -> {
+                advance(file, Status.UPLOADING);
+                logger.info("Uploading video to YouTube with title: {}", videoTitle);
+                try (InputStream source = pipe.source()) {
+                    return youTubeApi().uploadVideo(source, videoTitle, tags,
+                            uploadJobSettings.uploadChunkSizeBytes(), uploadJobSettings.uploadMaxRetries(),
+                            (committedBytes, totalBytes) -> showProgress(file, partIndex, committedBytes, totalBytes));
+                } catch (Throwable e) {
+                    pipe.fail(e);
+                    throw e;
+                }
+            }));
+            await(encode);
+            if (pipe.spilledBytes() > 0) {
+                logger.info("Part {} of file {}: the upload fell behind the encoder, {} bytes were spilled to disk",
+                        partIndex, file.getId(), pipe.spilledBytes());
+            }
+            return uploadResult;
+        } finally {
+            if (encode != null) {
+                encode.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * The bytes the videos hold from {@code offset} on, the staged plaintext encrypted on the way
+     * when the job has the file's key.
+     */
+    private static InputStream payload(File file, InputStream staged, ChunkCipher cipher, long offset)
+            throws IOException {
+        if (cipher == null) {
+            staged.skipNBytes(offset);
+            return staged;
+        }
+        return cipher.encrypt(staged, file.getCompressedSizeInByte(), offset);
+    }
+
+    private void showProgress(File file, int partIndex, long committedBytes, long totalBytes) {
+        String sent = totalBytes > 0
+                ? committedBytes * 100 / totalBytes + "% of the video sent to YouTube"
+                : committedBytes / (1024 * 1024) + " MB of the video sent to YouTube";
+        String progress = (shardSettings.shouldShard(file.getPayloadSizeInByte())
+                ? "Part " + (partIndex + 1) + ": " : "") + sent;
+        synchronized (file) {
+            if (file.getStatus() == Status.UPLOADING) {
+                file.setStatusMessage(progress);
+                fileRepository.save(file);
+            }
+        }
+    }
+
+    /**
+     * The persisted session of a part, if its video is still the one the session was opened for.
+     */
+    private UploadSession resumableSession(Long fileId, int partIndex, Path video) throws IOException {
+        UploadSession session = uploadSessionRepository.findByFileIdAndPartIndex(fileId, partIndex).orElse(null);
+        if (session == null) {
+            return null;
+        }
+        if (Files.exists(video) && Files.size(video) == session.getTotalBytes()
+                && video.toString().equals(session.getVideoPath())) {
+            return session;
+        }
+        logger.info("Upload session of part {} of file {} no longer matches its video, encoding again",
+                partIndex, fileId);
+        uploadSessionRepository.delete(session);
+        return null;
+    }
+
+    /**
+     * Persists the session and every acknowledged offset, and shows the progress on the file.
+     */
+    private final class SessionRecorder implements YouTubeApi.UploadSessionListener {
+        private final File file;
+        private final int partIndex;
+        private final Path video;
+        private UploadSession session;
+
+        SessionRecorder(File file, int partIndex, Path video, UploadSession session) {
+            this.file = file;
+            this.partIndex = partIndex;
+            this.video = video;
+            this.session = session;
+        }
+
+        @Override
+        public void sessionStarted(String sessionUri) throws IOException {
+            if (session == null) {
+                session = new UploadSession(file, partIndex, sessionUri, video.toString(), Files.size(video));
+            } else {
+                session.setSessionUri(sessionUri);
+                session.setCommittedBytes(0);
+            }
+            session = uploadSessionRepository.save(session);
+        }
+
+        @Override
+        public void committed(long committedBytes, long totalBytes) {
+            if (session == null || committedBytes == session.getCommittedBytes()) {
+                return;
+            }
+            session.setCommittedBytes(committedBytes);
+            session = uploadSessionRepository.save(session);
+            showProgress(file, partIndex, committedBytes, totalBytes);
+        }
+    }
+
+    /**
+     * Poll YouTube until every video is processed. Giving up after the timeout is not an error:
+     * the videos are on YouTube, downloads simply fail until processing catches up.
+     */
+    private void awaitProcessing(File file, List<String> videoIds) throws IOException, InterruptedException {
+        if (uploadJobSettings.processingTimeout().isZero()) {
+            return;
+        }
+        long deadline = System.nanoTime() + uploadJobSettings.processingTimeout().toNanos();
+        Set<String> pending = new LinkedHashSet<>(videoIds);
+        while (true) {
+            YouTubeApi youTubeApi = youTubeApi();
+            for (Iterator<String> it = pending.iterator(); it.hasNext(); ) {
+                String videoId = it.next();
+                String uploadStatus = youTubeApi.getUploadStatus(videoId);
+                if ("processed".equals(uploadStatus)) {
+                    it.remove();
+                } else if ("failed".equals(uploadStatus) || "rejected".equals(uploadStatus)
+                        || "deleted".equals(uploadStatus)) {
+                    throw new IOException("YouTube could not process video " + videoId + ": " + uploadStatus);
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (System.nanoTime() > deadline) {
+                logger.warn("File {}: {} videos still processing after {}, marking uploaded anyway",
+                        file.getId(), pending.size(), uploadJobSettings.processingTimeout());
+                return;
+            }
+            Thread.sleep(uploadJobSettings.processingPollInterval());
+        }
+    }
+
+    /**
+     * Wait until the other uploads holding chunks of a chunked file are done, so it is only marked
+     * uploaded once all of its bytes can be downloaded. Fails when one of those uploads fails.
+     */
+    private void awaitPacks(File file) throws IOException, InterruptedException {
+        boolean waiting = false;
+        while (true) {
+            List<File> pending = chunkService.findPendingPacks(file);
+            for (File pack : pending) {
+                if (pack.getStatus() == Status.FAILED) {
+                    throw new IOException("Some of its chunks were in the upload of file " + pack.getId()
+                            + ", which failed");
+                }
+            }
+            if (pending.isEmpty()) {
+                return;
+            }
+            if (!waiting) {
+                waiting = true;
+                logger.info("File {} waits for the uploads of files {} holding some of its chunks", file.getId(),
+                        pending.stream().map(File::getId).toList());
+                synchronized (file) {
+                    file.setStatusMessage("Waiting for other uploads holding some of its chunks");
+                    fileRepository.save(file);
+                }
+            }
+            Thread.sleep(uploadJobSettings.processingPollInterval());
+        }
+    }
+
+    private YouTubeApi youTubeApi() throws IOException {
+        // Fetched every time so a token refreshed during a long job is picked up
+        String accessToken = youTubeAuthService.getAccessToken();
+        if (accessToken == null) {
+            throw new IOException("YouTube access token not available. Please re-authenticate.");
+        }
+        try {
+            return new YouTubeApi(youTubeAuthService.getHttpTransport(), accessToken);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("YouTube authentication failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Persist a later stage. Shards of one file run concurrently, so a stage never moves back.
+     */
+    private void advance(File file, Status status) {
+        synchronized (file) {
+            if (file.getStatus() == Status.FAILED || file.getStatus().compareTo(status) >= 0) {
+                return;
+            }
+            file.setStatus(status);
+            file.setStatusMessage(null);
+            fileRepository.save(file);
+        }
+        logger.info("File {} is now {}", file.getId(), status);
+    }
+
+    private void markFailed(File file, String message) {
+        synchronized (file) {
+            file.setStatus(Status.FAILED);
+            file.setStatusMessage(message != null && message.length() > 1024 ? message.substring(0, 1024) : message);
+            fileRepository.save(file);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload job interrupted");
+        }
+    }
+
+    private static IOException asIOException(Throwable e) {
+        if (e instanceof IOException ioException) {
+            return ioException;
+        }
+        return new IOException(e.getMessage(), e);
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("Could not delete {}: {}", path, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        // Staged uploads stay on disk, unfinished jobs resume on the next start
+        shuttingDown = true;
+        jobs.shutdownNow();
+        encodeExecutor.shutdownNow();
+        uploadExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,61 @@
+package com.jaimin.justStore.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The two data-parallel inner loops of the codec: bits to luma pixels when encoding and
+ * luma pixels to bits when decoding. Bit order matches the packed frame layout, leftmost
+ * pixel in the most significant bit.
+ * <p>
+ * {@link #get()} returns the Vector API implementation when the build was made with the
+ * {@code vector} profile and the JVM runs with {@code --add-modules jdk.incubator.vector},
+ * the scalar one otherwise. Both produce identical output.
+ */
+public interface BitKernels {
+
+    /**
+     * Expand {@code packedLength} packed bytes into {@code packedLength * 8} luma bytes, 0 or 255.
+     */
+    void unpackToLuma(byte[] packed, int packedLength, byte[] luma);
+
+    /**
+     * Threshold {@code byteCount * 8} luma bytes starting at {@code lumaOffset} and pack them into {@code out}.
+     * A pixel is 1 when it is strictly above {@code threshold}.
+     *
+     * @return Index in {@code out} after the last byte written.
+     */
+    int packLuma(byte[] luma, int lumaOffset, int byteCount, int threshold, byte[] out, int outIndex);
+
+    static BitKernels get() {
+        return Holder.INSTANCE;
+    }
+
+    final class Holder {
+        private static final Logger logger = LoggerFactory.getLogger(BitKernels.class);
+
+        private static final String VECTOR_KERNELS = "com.jaimin.justStore.utils.VectorBitKernels";
+
+        // Set -DjustStore.kernels=scalar to turn the vector kernels off
+        private static final BitKernels INSTANCE = select();
+
+        private Holder() {
+        }
+
+        private static BitKernels select() {
+            if (!"scalar".equalsIgnoreCase(System.getProperty("justStore.kernels"))) {
+                try {
+                    BitKernels kernels = (BitKernels) Class.forName(VECTOR_KERNELS)
+                            .getDeclaredConstructor()
+                            .newInstance();
+                    logger.info("Using Vector API bit kernels");
+                    return kernels;
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    logger.debug("Vector API bit kernels not available: {}", e.toString());
+                }
+            }
+            logger.info("Using scalar bit kernels");
+            return new ScalarBitKernels();
+        }
+    }
+}
@@ -3,7 +3,10 @@ package com.jaimin.justStore.utils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
@@ -21,8 +24,30 @@ public class ChecksumUtil {
         }
     }
 
+    public static String calculateChecksum(InputStream inputStream) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+            return bytesToHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 algorithm not found", e);
+        }
+    }
+
+    public static String calculateChecksum(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return calculateChecksum(inputStream);
+        }
+    }
+
     public static String calculateChecksum(MultipartFile file) throws IOException {
-        return calculateChecksum(file.getBytes());
+        try (InputStream inputStream = file.getInputStream()) {
+            return calculateChecksum(inputStream);
+        }
     }
 
 
@@ -0,0 +1,369 @@
+package com.jaimin.justStore.utils;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Encrypts a file as independent AES-GCM chunks so that any part of it can be decrypted on its own.
+ * <p>
+ * The plaintext is cut into chunks of {@code chunkSize} bytes, the last one shorter. Each is
+ * sealed on its own with a 12 byte nonce holding the chunk index, and carries its 16 byte tag
+ * right after it. The key is derived from the secret with PBKDF2 over a random salt kept per file,
+ * so a nonce is never reused under one key. The plaintext length is authenticated with every
+ * chunk, so chunks cannot be reordered, dropped from the end or moved between files of other sizes
+ * without failing the tag check.
+ * <p>
+ * Up to {@code parallelism} chunks are sealed or opened at once on virtual threads and handed on
+ * in order, so at most that many chunks are held in memory whatever the file size.
+ */
+public class ChunkCipher {
+
+    public static final int TAG_LENGTH = 16;
+    public static final int SALT_LENGTH = 16;
+
+    private static final int NONCE_LENGTH = 12;
+    private static final int KEY_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKeySpec key;
+    private final int chunkSize;
+    private final int parallelism;
+
+    private ChunkCipher(SecretKeySpec key, int chunkSize, int parallelism) {
+        this.key = key;
+        this.chunkSize = chunkSize;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Derive the key of one file from its secret. This is deliberately slow, derive once per request.
+     */
+    public static ChunkCipher derive(String secret, byte[] salt, int iterations, int chunkSize, int parallelism) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+        }
+        PBEKeySpec spec = new PBEKeySpec(secret.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            byte[] encoded = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new ChunkCipher(new SecretKeySpec(encoded, "AES"), chunkSize, parallelism);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    public static byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        RANDOM.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Size of a file of {@code plainLength} bytes once encrypted, one tag more per chunk.
+     */
+    public static long encryptedLength(long plainLength, int chunkSize) {
+        return plainLength + (plainLength + chunkSize - 1) / chunkSize * TAG_LENGTH;
+    }
+
+    /**
+     * The encrypted bytes holding the chunks that {@code length} plaintext bytes from
+     * {@code offset} fall in.
+     */
+    public Range encryptedRange(long plainLength, long offset, long length) {
+        if (length <= 0) {
+            return new Range(0, 0);
+        }
+        long firstChunk = offset / chunkSize;
+        long lastChunk = (offset + length - 1) / chunkSize;
+        long start = firstChunk * (chunkSize + TAG_LENGTH);
+        long end = Math.min(encryptedLength(plainLength, chunkSize), (lastChunk + 1) * (chunkSize + TAG_LENGTH));
+        return new Range(start, end - start);
+    }
+
+    /**
+     * Encrypt {@code plainLength} bytes of {@code plaintext}. Chunks are read on the calling
+     * thread and sealed ahead of the reader.
+     *
+     * @return The encrypted file, closing it stops the work but leaves {@code plaintext} open.
+     */
+    public InputStream encrypt(InputStream plaintext, long plainLength) {
+        return encrypt(plaintext, plainLength, 0);
+    }
+
+    /**
+     * Encrypt {@code plainLength} bytes of {@code plaintext} from byte {@code offset} of the
+     * encrypted file on. The plaintext before the chunk holding that byte is skipped unread, so a
+     * later part of a file costs no more to encrypt than the first.
+     *
+     * @return The encrypted file from {@code offset}, closing it stops the work but leaves
+     * {@code plaintext} open.
+     */
+    public InputStream encrypt(InputStream plaintext, long plainLength, long offset) {
+        return new SealingStream(plaintext, plainLength, offset);
+    }
+
+    /**
+     * Decrypt into {@code plaintext} the {@link #encryptedRange} of {@code length} bytes from
+     * {@code offset}, written to the returned stream from its first byte. Only the bytes of the
+     * range reach {@code plaintext}, and none before the tag of their chunk checked out.
+     *
+     * @return Where to write the encrypted range. Closing it checks the range was complete and
+     * writes the rest, but leaves {@code plaintext} open.
+     */
+    public OutputStream decrypt(OutputStream plaintext, long plainLength, long offset, long length) {
+        return new OpeningStream(plaintext, plainLength, offset, length);
+    }
+
+    private byte[] seal(long chunkIndex, long plainLength, byte[] chunk, int length) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, nonce(chunkIndex));
+        cipher.updateAAD(associatedData(plainLength));
+        return cipher.doFinal(chunk, 0, length);
+    }
+
+    private byte[] open(long chunkIndex, long plainLength, byte[] chunk, int length) throws IOException {
+        try {
+            Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(Cipher.DECRYPT_MODE, key, nonce(chunkIndex));
+            cipher.updateAAD(associatedData(plainLength));
+            return cipher.doFinal(chunk, 0, length);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + chunkIndex + " failed authentication, wrong key or corrupted video");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Decrypting chunk " + chunkIndex + " failed", e);
+        }
+    }
+
+    private static GCMParameterSpec nonce(long chunkIndex) {
+        byte[] nonce = ByteBuffer.allocate(NONCE_LENGTH).putInt(0).putLong(chunkIndex).array();
+        return new GCMParameterSpec(TAG_LENGTH * 8, nonce);
+    }
+
+    private static byte[] associatedData(long plainLength) {
+        return ByteBuffer.allocate(Long.BYTES).putLong(plainLength).array();
+    }
+
+    private static byte[] await(Future<byte[]> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a chunk");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ioException
+                    ? ioException
+                    : new IOException("Processing a chunk failed", e.getCause());
+        }
+    }
+
+    /**
+     * The byte range of an encrypted file.
+     */
+    public record Range(long offset, long length) {
+    }
+
+    /**
+     * Hands out sealed chunks in order while the ones after it are sealed.
+     */
+    private final class SealingStream extends InputStream {
+        private final InputStream plaintext;
+        private final long plainLength;
+        private final ExecutorService workers =
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chunk-seal-", 0).factory());
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        // Reused by read(), so single bytes do not allocate
+        private final byte[] single = new byte[1];
+
+        private long nextChunk;
+        private long remaining;
+        // Plaintext before the first chunk, and encrypted bytes of that chunk before the offset
+        private long plainSkip;
+        private int sealedSkip;
+        private InputStream current = InputStream.nullInputStream();
+
+        SealingStream(InputStream plaintext, long plainLength, long offset) {
+            this.plaintext = plaintext;
+            this.plainLength = plainLength;
+            this.nextChunk = offset / (chunkSize + TAG_LENGTH);
+            this.plainSkip = Math.min(plainLength, nextChunk * chunkSize);
+            this.sealedSkip = (int) (offset - nextChunk * (chunkSize + TAG_LENGTH));
+            this.remaining = plainLength - plainSkip;
+        }
+
+        private void fillPending() throws IOException {
+            if (plainSkip > 0) {
+                plaintext.skipNBytes(plainSkip);
+                plainSkip = 0;
+            }
+            while (pending.size() < parallelism && remaining > 0) {
+                int length = (int) Math.min(chunkSize, remaining);
+                byte[] chunk = plaintext.readNBytes(length);
+                if (chunk.length != length) {
+                    throw new EOFException("Plaintext ended " + remaining + " bytes short of " + plainLength);
+                }
+                long index = nextChunk++;
+                remaining -= length;
+                pending.add(workers.submit(() -> seal(index, plainLength, chunk, length)));
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int read = current.read(b, off, len);
+                if (read > 0) {
+                    return read;
+                }
+                fillPending();
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return -1;
+                }
+                byte[] sealed = await(next);
+                int skip = Math.min(sealedSkip, sealed.length);
+                sealedSkip = 0;
+                current = new ByteArrayInputStream(sealed, skip, sealed.length - skip);
+            }
+        }
+
+        @Override
+        public void close() {
+            pending.forEach(chunk -> chunk.cancel(true));
+            pending.clear();
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Collects whole encrypted chunks, opens them on worker threads and writes them out in order.
+     */
+    private final class OpeningStream extends OutputStream {
+        private final OutputStream plaintext;
+        private final long plainLength;
+        private final long lastChunk;
+        private final ExecutorService workers =
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chunk-open-", 0).factory());
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        private final byte[] chunk = new byte[chunkSize + TAG_LENGTH];
+        // Reused by write(int), so single bytes do not allocate
+        private final byte[] single = new byte[1];
+
+        private long nextChunk;
+        private int filled;
+        // Plaintext bytes still to drop before the range, then still to write
+        private long skip;
+        private long remaining;
+        private boolean closed;
+
+        OpeningStream(OutputStream plaintext, long plainLength, long offset, long length) {
+            this.plaintext = plaintext;
+            this.plainLength = plainLength;
+            this.lastChunk = length > 0 ? (offset + length - 1) / chunkSize : -1;
+            this.nextChunk = offset / chunkSize;
+            this.skip = offset - nextChunk * chunkSize;
+            this.remaining = Math.max(0, length);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            single[0] = (byte) b;
+            write(single, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (nextChunk > lastChunk) {
+                    throw new IOException("More encrypted bytes than the range holds");
+                }
+                int take = Math.min(len, expectedLength() - filled);
+                System.arraycopy(b, off, chunk, filled, take);
+                filled += take;
+                off += take;
+                len -= take;
+                if (filled == expectedLength()) {
+                    submit();
+                }
+            }
+        }
+
+        // Encrypted size of the next chunk, only the last chunk of the file is short
+        private int expectedLength() {
+            long plainLeft = plainLength - nextChunk * chunkSize;
+            return (int) Math.min(chunkSize, plainLeft) + TAG_LENGTH;
+        }
+
+        private void submit() throws IOException {
+            if (pending.size() >= parallelism) {
+                drain(pending.poll());
+            }
+            long index = nextChunk++;
+            byte[] sealed = chunk.clone();
+            int length = filled;
+            filled = 0;
+            pending.add(workers.submit(() -> open(index, plainLength, sealed, length)));
+        }
+
+        private void drain(Future<byte[]> next) throws IOException {
+            byte[] opened = await(next);
+            int from = (int) Math.min(skip, opened.length);
+            skip -= from;
+            int length = (int) Math.min(remaining, opened.length - from);
+            plaintext.write(opened, from, length);
+            remaining -= length;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            plaintext.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                while (!pending.isEmpty()) {
+                    drain(pending.poll());
+                }
+                if (nextChunk <= lastChunk) {
+                    throw new EOFException("Encrypted range ended in chunk " + nextChunk + ", before chunk "
+                            + lastChunk);
+                }
+                plaintext.flush();
+            } finally {
+                pending.forEach(chunk -> chunk.cancel(true));
+                workers.shutdownNow();
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.jaimin.justStore.utils;
+
+/**
+ * How large plain uploads are split into content-defined chunks stored once across files.
+ *
+ * @param enabled             Whether uploads are chunked at all.
+ * @param minFileSizeBytes    Smaller files are stored whole.
+ * @param avgChunkSizeBytes   Average chunk size, see {@link ContentChunker#ofAverage}.
+ * @param downloadParallelism Chunk packs downloaded and decoded at the same time.
+ */
+public record ChunkingSettings(
+        boolean enabled,
+        long minFileSizeBytes,
+        int avgChunkSizeBytes,
+        int downloadParallelism
+) {
+
+    public boolean shouldChunk(long fileSize) {
+        return enabled && fileSize >= minFileSizeBytes;
+    }
+
+    public ContentChunker chunker() {
+        return ContentChunker.ofAverage(avgChunkSizeBytes);
+    }
+}
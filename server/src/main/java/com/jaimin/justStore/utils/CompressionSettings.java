@@ -0,0 +1,29 @@
+package com.jaimin.justStore.utils;
+
+import java.util.List;
+
+/**
+ * When uploads are compressed before they are encoded, see {@link CompressionUtil}.
+ *
+ * @param enabled     Whether uploads are compressed at all.
+ * @param level       Deflate level, 1 is fastest and 9 smallest.
+ * @param sampleBytes Bytes sampled across the file to decide whether compressing pays.
+ * @param maxRatio    Compressed size over sample size above which the file is stored as is.
+ * @param skipTypes   Content type prefixes of formats that are already compressed.
+ */
+public record CompressionSettings(
+        boolean enabled,
+        int level,
+        int sampleBytes,
+        double maxRatio,
+        List<String> skipTypes
+) {
+
+    public boolean skips(String fileType) {
+        if (fileType == null) {
+            return false;
+        }
+        String type = fileType.trim().toLowerCase();
+        return skipTypes.stream().anyMatch(type::startsWith);
+    }
+}
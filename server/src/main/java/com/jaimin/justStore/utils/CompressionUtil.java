@@ -0,0 +1,187 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+
+/**
+ * Compresses uploads before they become pixels, so compressible files take fewer frames.
+ * <p>
+ * Files of a type that is already compressed are stored as they are without looking at them.
+ * Other files are sampled in a few places across their length and only compressed when the
+ * sample shrinks enough, so an unlabelled archive costs one sample, not a pass over the file.
+ */
+public class CompressionUtil {
+
+    // Slices centred in equal parts of the file, so a text header in front of binary data does not decide alone
+    private static final int SAMPLE_SLICES = 4;
+
+    /**
+     * Decide how to store a staged file.
+     */
+    public static Compression choose(CompressionSettings settings, String fileType, Path file) throws IOException {
+        if (!settings.enabled() || settings.skips(fileType)) {
+            return Compression.NONE;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return Compression.NONE;
+            }
+            // Small files are sampled whole
+            int slices = size <= settings.sampleBytes() ? 1 : SAMPLE_SLICES;
+            ByteBuffer slice = ByteBuffer.allocate((int) Math.min(size, settings.sampleBytes() / slices));
+            CountingOutputStream counter = new CountingOutputStream();
+            long sampled = 0;
+            Deflater deflater = new Deflater(settings.level());
+            try (DeflaterOutputStream deflating = new DeflaterOutputStream(counter, deflater, 64 * 1024)) {
+                for (int i = 0; i < slices; i++) {
+                    long position = (size - slice.capacity()) * (2L * i + 1) / (2L * slices);
+                    slice.clear();
+                    int read;
+                    while (slice.hasRemaining() && (read = channel.read(slice, position + slice.position())) > 0) {
+                        sampled += read;
+                    }
+                    deflating.write(slice.array(), 0, slice.position());
+                }
+            } finally {
+                deflater.end();
+            }
+            return counter.count <= sampled * settings.maxRatio() ? Compression.DEFLATE : Compression.NONE;
+        }
+    }
+
+    /**
+     * Compress {@code in} to {@code out} as one zlib stream.
+     *
+     * @return Bytes written.
+     */
+    public static long compress(InputStream in, OutputStream out, int level) throws IOException {
+        CountingOutputStream counter = new CountingOutputStream(out);
+        Deflater deflater = new Deflater(level);
+        try (DeflaterOutputStream deflating = new DeflaterOutputStream(counter, deflater, 64 * 1024)) {
+            in.transferTo(deflating);
+        } finally {
+            deflater.end();
+        }
+        return counter.count;
+    }
+
+    /**
+     * Inflate a compressed file written to the returned stream, passing on only the
+     * {@code length} original bytes from {@code offset}. A zlib stream can only be read from its
+     * start, so the whole compressed file has to be written.
+     *
+     * @return Where to write the compressed file. Closing it checks it inflated to
+     * {@code originalLength} bytes, but leaves {@code out} open.
+     */
+    public static OutputStream decompress(Compression compression, OutputStream out, long originalLength,
+                                          long offset, long length) {
+        if (compression != Compression.DEFLATE) {
+            throw new IllegalArgumentException("Cannot decompress " + compression);
+        }
+        Inflater inflater = new Inflater();
+        return new InflaterOutputStream(new RangeOutputStream(out, originalLength, offset, length), inflater,
+                64 * 1024) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end();
+                }
+            }
+        };
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream() {
+            this(OutputStream.nullOutputStream());
+        }
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Drops what comes before the range and after it, and counts everything.
+     */
+    private static final class RangeOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final long expectedLength;
+        private final long start;
+        private final long end;
+        private long position;
+
+        RangeOutputStream(OutputStream out, long expectedLength, long offset, long length) {
+            this.out = out;
+            this.expectedLength = expectedLength;
+            this.start = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long from = Math.max(start, position);
+            long to = Math.min(end, position + len);
+            if (from < to) {
+                out.write(b, off + (int) (from - position), (int) (to - from));
+            }
+            position += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (position != expectedLength) {
+                throw new IOException("File inflated to " + position + " bytes, expected " + expectedLength);
+            }
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.jaimin.justStore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a stream into chunks at positions chosen by its content, in the style of FastCDC.
+ * <p>
+ * A gear hash rolls over the last 64 bytes and a chunk ends where its top bits are all zero, so
+ * the boundaries move with the data: bytes inserted or removed early in a file only change the
+ * chunks around the edit, and the rest hash the same as before. Nothing is hashed in the first
+ * {@code minSize} bytes of a chunk. Up to {@code avgSize} a cut needs two more zero bits than
+ * after it, which pulls chunk sizes towards the average, and a chunk never exceeds {@code maxSize}.
+ */
+public class ContentChunker {
+
+    // Fixed so the same bytes are cut the same way on every run, never change it
+    private static final long[] GEAR = new long[256];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x4A535452L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Receives every chunk in order. The buffer is reused once this returns.
+     */
+    public interface ChunkSink {
+        void accept(byte[] buffer, int offset, int length) throws IOException;
+    }
+
+    private final int minSize;
+    private final int avgSize;
+    private final int maxSize;
+    private final long maskBeforeAverage;
+    private final long maskAfterAverage;
+
+    public ContentChunker(int minSize, int avgSize, int maxSize) {
+        if (minSize < 1 || avgSize <= minSize || maxSize <= avgSize || avgSize < 64) {
+            throw new IllegalArgumentException("Chunk sizes must grow from min to average to max, and average "
+                    + "at least 64 bytes, got " + minSize + ", " + avgSize + ", " + maxSize);
+        }
+        this.minSize = minSize;
+        this.avgSize = avgSize;
+        this.maxSize = maxSize;
+        int bits = 63 - Long.numberOfLeadingZeros(avgSize);
+        this.maskBeforeAverage = -1L << (64 - (bits + 2));
+        this.maskAfterAverage = -1L << (64 - (bits - 2));
+    }
+
+    /**
+     * Chunker averaging {@code avgSize} bytes, with chunks between a quarter and eight times that.
+     */
+    public static ContentChunker ofAverage(int avgSize) {
+        return new ContentChunker(Math.max(1, avgSize / 4), avgSize, avgSize * 8);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Length of the chunk starting at {@code offset}. {@code length} has to reach at least
+     * {@code maxSize} bytes from there, unless the stream ends sooner.
+     */
+    public int cut(byte[] data, int offset, int length) {
+        if (length <= minSize) {
+            return length;
+        }
+        int limit = Math.min(length, maxSize);
+        int normal = Math.min(limit, avgSize);
+        long hash = 0;
+        int i = minSize;
+        for (; i < normal; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskBeforeAverage) == 0) {
+                return i + 1;
+            }
+        }
+        for (; i < limit; i++) {
+            hash = (hash << 1) + GEAR[data[offset + i] & 0xFF];
+            if ((hash & maskAfterAverage) == 0) {
+                return i + 1;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Read {@code in} to its end and hand every chunk to {@code sink}. Holds two chunks of memory.
+     */
+    public void split(InputStream in, ChunkSink sink) throws IOException {
+        byte[] buffer = new byte[2 * maxSize];
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+        while (true) {
+            if (!eof && end - start < maxSize) {
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                end -= start;
+                start = 0;
+                int read = in.readNBytes(buffer, end, buffer.length - end);
+                end += read;
+                eof = end < buffer.length;
+            }
+            if (start == end) {
+                return;
+            }
+            int length = cut(buffer, start, end - start);
+            sink.accept(buffer, start, length);
+            start += length;
+        }
+    }
+}
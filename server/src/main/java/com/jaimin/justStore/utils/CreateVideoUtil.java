@@ -1,63 +1,164 @@
 package com.jaimin.justStore.utils;
 
 import java.awt.image.BufferedImage;
-import java.io.File;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
-import org.jcodec.api.awt.AWTSequenceEncoder;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.jaimin.justStore.enums.VideoEncoderType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 public class CreateVideoUtil {
 
+    private static final Logger logger = LoggerFactory.getLogger(CreateVideoUtil.class);
+
+    public static final int DEFAULT_RENDER_THREADS = Runtime.getRuntime().availableProcessors();
+
+    // Geometry every upload is rendered at, 1072 keeps the height a multiple of 16 for H.264
+    public static final int DEFAULT_WIDTH = 1920;
+    public static final int DEFAULT_HEIGHT = 1072;
+    public static final int DEFAULT_FRAME_RATE = 24;
+
 
     public static void createVideo(byte[] fileContent, int width, int height, int frameRate, String outputPath) throws IOException {
+        createVideo(new ByteArrayInputStream(fileContent), fileContent.length, width, height, frameRate, outputPath);
+    }
 
+    public static void createVideo(ReadableByteChannel channel, long totalBytes, int width, int height, int frameRate, String outputPath) throws IOException {
+        createVideo(Channels.newInputStream(channel), totalBytes, width, height, frameRate, outputPath);
+    }
 
-        final int bytesInOneFrame = width * height / 8;
-        final int totalFrames = (int) Math.ceil((double) fileContent.length / bytesInOneFrame);
-        int byteIndex = 0;
+    public static void createVideo(InputStream inputStream, long totalBytes, int width, int height, int frameRate, String outputPath) throws IOException {
+        createVideo(inputStream, totalBytes, width, height, frameRate, outputPath, DEFAULT_RENDER_THREADS, VideoEncoderSettings.jcodec());
+    }
 
-        File video = new File(outputPath);
-        AWTSequenceEncoder encoder = AWTSequenceEncoder.createSequenceEncoder(video, frameRate);
-        encoder.encodeImage(createMetadataFrame(fileContent.length, width, height));
+    /**
+     * Encode {@code totalBytes} bytes read from {@code inputStream} into a video.
+     * <p>
+     * A reader thread fills frame buffers, {@code renderThreads} workers render them in
+     * parallel and the calling thread hands rendered frames to the encoder backend in order.
+     * Only a fixed pool of frame buffers is ever allocated, so the heap needed does not
+     * depend on the file size.
+     */
+    public static void createVideo(InputStream inputStream, long totalBytes, int width, int height, int frameRate,
+                                   String outputPath, int renderThreads, VideoEncoderSettings encoderSettings) throws IOException {
+        encode(inputStream, totalBytes, width, height, frameRate, renderThreads, encoderSettings,
+                encoder -> encoder.start(outputPath, width, height, frameRate));
+    }
 
-        for (int i = 0; i < totalFrames; i++) {
-            BufferedImage image = createFrame(fileContent, byteIndex, width, height);
-            byteIndex += bytesInOneFrame;
-            encoder.encodeImage(image);
+    /**
+     * Same as {@link #createVideo(InputStream, long, int, int, int, String, int, VideoEncoderSettings)},
+     * but the container is written to {@code output} as it is encoded, see
+     * {@link VideoEncoderSettings#supportsStreaming()}. {@code output} is flushed, not closed.
+     */
+    public static void streamVideo(InputStream inputStream, long totalBytes, int width, int height, int frameRate,
+                                   OutputStream output, int renderThreads, VideoEncoderSettings encoderSettings) throws IOException {
+        encode(inputStream, totalBytes, width, height, frameRate, renderThreads, encoderSettings,
+                encoder -> encoder.start(output, width, height, frameRate));
+        output.flush();
+    }
+
+    @FunctionalInterface
+    private interface EncoderStarter {
+        void start(VideoEncoderBackend encoder) throws IOException;
+    }
+
+    private static void encode(InputStream inputStream, long totalBytes, int width, int height, int frameRate,
+                               int renderThreads, VideoEncoderSettings encoderSettings, EncoderStarter starter)
+            throws IOException {
+        final int threads = Math.max(1, renderThreads);
+        // Frames queued, rendering or being encoded never exceed the number of writers
+        final int capacity = threads * 2;
+        final int blockSize = Math.max(1, encoderSettings.blockSize());
+        VideoEncoderBackend encoder = encoderSettings.createBackend();
+        BlockingQueue<PackedFrameWriter> freeWriters = new ArrayBlockingQueue<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            freeWriters.add(new PackedFrameWriter(width, height, blockSize, encoderSettings.symbolMode(),
+                    encoder.getPixelFormat()));
         }
 
-        encoder.finish();
+        final FrameHeader header = FrameHeader.of(totalBytes, width, height, blockSize, encoderSettings.symbolMode(),
+                encoderSettings.compression());
+        final int bytesInOneFrame = header.bytesPerFrame();
+        final long totalFrames = header.dataFrames();
+
+        long startNanos = System.nanoTime();
+
+        ExecutorService renderPool = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("frame-render-", 0).daemon().factory());
+
+        try (encoder) {
+            starter.start(encoder);
+            OrderedPipeline.<PackedFrameWriter>run(renderPool, capacity, "frame-reader",
+                    submitter -> {
+                        PackedFrameWriter headerWriter = freeWriters.take();
+                        submitter.submit(() -> {
+                            headerWriter.renderHeader(header);
+                            return headerWriter;
+                        });
+
+                        long remaining = totalBytes;
+                        for (long i = 0; i < totalFrames; i++) {
+                            int chunkLength = (int) Math.min(bytesInOneFrame, remaining);
+                            PackedFrameWriter writer = freeWriters.take();
+                            readFully(inputStream, writer.getPackedFrame(), chunkLength);
+                            remaining -= chunkLength;
+
+                            submitter.submit(() -> {
+                                writer.render(chunkLength);
+                                return writer;
+                            });
+                        }
+                    },
+                    writer -> {
+                        encoder.encode(writer);
+                        freeWriters.add(writer);
+                    });
+            encoder.finish();
+        } finally {
+            renderPool.shutdownNow();
+        }
 
+        logFrameRate(totalFrames + 1, threads, encoderSettings.type(), System.nanoTime() - startNanos);
     }
 
-    public static BufferedImage createMetadataFrame(int totalBytes, int width, int height) {
-        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
-
-        for (int bitPosition = 0; bitPosition < 32; bitPosition++) {
-            int bitValue = (totalBytes >> (bitPosition)) & 1;
-            int rgb = bitValue == 1 ? 0xFFFFFF : 0x000000;
-            image.setRGB(bitPosition, 0, rgb);
+    private static void readFully(InputStream inputStream, byte[] buffer, int length) throws IOException {
+        int read = inputStream.readNBytes(buffer, 0, length);
+        if (read < length) {
+            throw new EOFException("Stream ended after " + read + " of " + length + " bytes of the frame");
         }
+    }
 
+    private static void logFrameRate(long frames, int renderThreads, VideoEncoderType encoderType, long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        logger.info("Encoded {} frames with {} render threads and {} in {} s ({} fps)",
+                frames, renderThreads, encoderType, String.format("%.2f", seconds), String.format("%.2f", frames / Math.max(seconds, 1e-9)));
+    }
+
+    public static BufferedImage createMetadataFrame(long totalBytes, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] raster = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        PackedFrameWriter.packHeader(FrameHeader.of(totalBytes, width, height), raster, width, height);
         return image;
     }
 
     public static BufferedImage createFrame(byte[] fileContent, int byteIndex, int width, int height) {
         BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY);
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j += 8) {
-                for (int bitPosition = 0; bitPosition < 8; bitPosition++) {
-                    int bitValue = (fileContent[byteIndex] >> (7 - bitPosition)) & 1;
-                    int rgb = bitValue == 1 ? 0xFFFFFF : 0x000000;
-                    image.setRGB(j + bitPosition, i, rgb);
-                }
-                byteIndex++;
-                if (byteIndex == fileContent.length) {
-                    return image;
-                }
-            }
-        }
-
+        // TYPE_BYTE_BINARY already stores 8 pixels per byte, MSB first, same as our bit layout
+        byte[] raster = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int length = Math.min(raster.length, fileContent.length - byteIndex);
+        System.arraycopy(fileContent, byteIndex, raster, 0, length);
         return image;
     }
 
@@ -0,0 +1,66 @@
+package com.jaimin.justStore.utils;
+
+import org.bytedeco.javacv.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel data of one decoded frame copied out of FFmpeg's buffer.
+ * <p>
+ * The grabber reuses its {@link Frame} for the next grab, so frames that are processed on
+ * another thread are snapshotted here first. The pixel array is reused as long as the
+ * frame size does not grow.
+ */
+public class DecodedFrame {
+
+    private byte[] pixels = new byte[0];
+    private int width;
+    private int height;
+    private int channels;
+    private int stride;
+
+    /**
+     * Copy the frame's pixels with one bulk copy.
+     */
+    public void copyFrom(Frame frame) {
+        ByteBuffer image = (ByteBuffer) frame.image[0];
+        width = frame.imageWidth;
+        height = frame.imageHeight;
+        channels = frame.imageChannels;
+        // imageStride is in bytes for 8-bit frames and may be padded past width * channels
+        stride = frame.imageStride;
+
+        int length = (height - 1) * stride + width * channels;
+        if (pixels.length < length) {
+            pixels = new byte[length];
+        }
+        image.get(0, pixels, 0, length);
+    }
+
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    /**
+     * Bytes this frame decodes to.
+     */
+    public int getPayloadBytes() {
+        return width / 8 * height;
+    }
+}
@@ -0,0 +1,19 @@
+package com.jaimin.justStore.utils;
+
+import java.nio.file.Path;
+
+/**
+ * Local cache of decoded files.
+ *
+ * @param directory    Where decoded files are kept, one file per checksum.
+ * @param maxSizeBytes Total size the cache may grow to, 0 turns the cache off.
+ */
+public record DownloadCacheSettings(
+        Path directory,
+        long maxSizeBytes
+) {
+
+    public boolean enabled() {
+        return maxSizeBytes > 0;
+    }
+}
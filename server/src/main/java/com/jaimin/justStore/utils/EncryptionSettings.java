@@ -0,0 +1,20 @@
+package com.jaimin.justStore.utils;
+
+/**
+ * How files uploaded with a secret key are encrypted, see {@link ChunkCipher}.
+ * The chunk size and iterations are recorded on every file, so changing them only affects new uploads.
+ *
+ * @param chunkSizeBytes Plaintext bytes sealed under one tag. A range download decrypts whole chunks.
+ * @param iterations     PBKDF2 iterations turning the secret key into the AES key.
+ * @param parallelism    Chunks encrypted or decrypted at the same time.
+ */
+public record EncryptionSettings(
+        int chunkSizeBytes,
+        int iterations,
+        int parallelism
+) {
+
+    public ChunkCipher cipher(String secretKey, byte[] salt, int iterations, int chunkSizeBytes) {
+        return ChunkCipher.derive(secretKey, salt, iterations, chunkSizeBytes, parallelism);
+    }
+}
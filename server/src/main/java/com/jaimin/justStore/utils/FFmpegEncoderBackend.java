@@ -0,0 +1,107 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.SymbolMode;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Native FFmpeg encoder fed with raw GRAY8 frames, or BGR24 for colour symbols, no
+ * {@code BufferedImage} involved.
+ * <p>
+ * libx264 is only present in the GPL build of FFmpeg, see {@code JustStoreApplication}.
+ * Streamed output is fragmented MP4: the {@code moov} box goes first and every key frame
+ * starts a new fragment, so nothing has to be patched once the stream has moved on.
+ */
+public class FFmpegEncoderBackend implements VideoEncoderBackend {
+
+    private final VideoEncoderSettings settings;
+    private FFmpegFrameRecorder recorder;
+    private int width;
+    private int height;
+
+    public FFmpegEncoderBackend(VideoEncoderSettings settings) {
+        this.settings = settings;
+    }
+
+    @Override
+    public PackedFrameWriter.PixelFormat getPixelFormat() {
+        // Only colour symbols need more than the luma plane
+        return settings.symbolMode() == SymbolMode.RGB3
+                ? PackedFrameWriter.PixelFormat.BGR24
+                : PackedFrameWriter.PixelFormat.GRAY8;
+    }
+
+    @Override
+    public void start(String outputPath, int width, int height, int frameRate) throws IOException {
+        checkCodec();
+        recorder = new FFmpegFrameRecorder(outputPath, width, height, 0);
+        start(width, height, frameRate);
+    }
+
+    @Override
+    public void start(OutputStream output, int width, int height, int frameRate) throws IOException {
+        checkCodec();
+        recorder = new FFmpegFrameRecorder(output, width, height, 0);
+        recorder.setCloseOutputStream(false);
+        recorder.setOption("movflags", "frag_keyframe+empty_moov+default_base_moof");
+        start(width, height, frameRate);
+    }
+
+    private void checkCodec() throws IOException {
+        // FFmpeg silently falls back to a low bitrate mpeg4 encoder otherwise, which destroys the data
+        if (avcodec.avcodec_find_encoder_by_name(settings.codec()) == null) {
+            throw new IOException("FFmpeg encoder not available: " + settings.codec());
+        }
+    }
+
+    private void start(int width, int height, int frameRate) throws IOException {
+        this.width = width;
+        this.height = height;
+
+        recorder.setFormat("mp4");
+        recorder.setVideoCodecName(settings.codec());
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(frameRate);
+        if (settings.gopSize() > 0) {
+            recorder.setGopSize(settings.gopSize());
+        }
+        if (settings.preset() != null && !settings.preset().isBlank()) {
+            recorder.setVideoOption("preset", settings.preset());
+        }
+        if (settings.crf() >= 0) {
+            recorder.setVideoOption("crf", String.valueOf(settings.crf()));
+        } else if (settings.bitrateKbps() > 0) {
+            recorder.setVideoBitrate(settings.bitrateKbps() * 1000);
+        }
+        recorder.start();
+    }
+
+    @Override
+    public void encode(PackedFrameWriter frame) throws IOException {
+        if (frame.getPixelFormat() == PackedFrameWriter.PixelFormat.BGR24) {
+            recorder.recordImage(width, height, Frame.DEPTH_UBYTE, 3, width * 3, avutil.AV_PIX_FMT_BGR24,
+                    ByteBuffer.wrap(frame.getBgr()));
+            return;
+        }
+        recorder.recordImage(width, height, Frame.DEPTH_UBYTE, 1, width, avutil.AV_PIX_FMT_GRAY8,
+                ByteBuffer.wrap(frame.getLuma()));
+    }
+
+    @Override
+    public void finish() throws IOException {
+        recorder.stop();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (recorder != null) {
+            recorder.release();
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Header stored in the first frame of every video.
+ * <p>
+ * Version 1 is the legacy layout: a 32-bit payload length in the first 32 pixels of row 0.
+ * Version 2 and later serialize this record with {@link #toBytes()} and draw every bit as a
+ * large square cell, so the header survives much heavier compression than the payload. It
+ * carries a 64-bit length and the frame geometry, and {@code bytesPerFrame} maps any payload
+ * offset to the data frame holding it.
+ * <p>
+ * Version 2 draws {@link #V2_CELL_SIZE} pixel cells, so it can only be read at the size it was
+ * encoded at. Version 3 adds the block size and lays {@link #CELLS_PER_ROW} cells across the
+ * frame whatever its width, so the header is found at any resolution YouTube transcodes to.
+ * Version 4 adds the {@link SymbolMode}, older versions are always {@link SymbolMode#BW1}.
+ * Version 5 adds the {@link Compression} of the payload, older versions are never compressed.
+ *
+ * @param version       Header layout version.
+ * @param payloadLength Total payload bytes stored in the video.
+ * @param width         Frame width the payload was rendered at.
+ * @param height        Frame height the payload was rendered at.
+ * @param bytesPerFrame Payload bytes carried by every data frame.
+ * @param blockSize     Side of the square pixel block every payload symbol is drawn as.
+ * @param symbolMode    How many bits a block carries and how they are drawn.
+ * @param compression   How the file was compressed into the payload.
+ */
+public record FrameHeader(int version, long payloadLength, int width, int height, int bytesPerFrame, int blockSize,
+                          SymbolMode symbolMode, Compression compression) {
+
+    public static final int LEGACY_VERSION = 1;
+    public static final int CURRENT_VERSION = 5;
+
+    // "JSTR"
+    public static final int MAGIC = 0x4A535452;
+
+    // Side of the square pixel block every version 2 header bit is drawn as
+    public static final int V2_CELL_SIZE = 8;
+
+    // Version 3 header cells across the frame, 60 pixels each at 1920 wide
+    public static final int CELLS_PER_ROW = 32;
+
+    // magic, version, flags, header length, payload length, width, height, bytes per frame, crc
+    public static final int V2_ENCODED_LENGTH = 4 + 1 + 1 + 2 + 8 + 4 + 4 + 4 + 4;
+
+    // Version 2 plus the block size
+    public static final int V3_ENCODED_LENGTH = V2_ENCODED_LENGTH + 1;
+
+    // Version 3 plus the symbol mode
+    public static final int V4_ENCODED_LENGTH = V3_ENCODED_LENGTH + 1;
+
+    // Version 4 plus the compression
+    public static final int ENCODED_LENGTH = V4_ENCODED_LENGTH + 1;
+
+    /**
+     * Header for a new video holding {@code payloadLength} bytes, one pixel per bit.
+     */
+    public static FrameHeader of(long payloadLength, int width, int height) {
+        return of(payloadLength, width, height, 1);
+    }
+
+    /**
+     * Header for a new video holding {@code payloadLength} bytes drawn as {@code blockSize} pixel blocks.
+     */
+    public static FrameHeader of(long payloadLength, int width, int height, int blockSize) {
+        return of(payloadLength, width, height, blockSize, SymbolMode.BW1);
+    }
+
+    /**
+     * Header for a new video holding {@code payloadLength} bytes drawn as {@code blockSize} pixel
+     * blocks of {@code symbolMode} symbols.
+     */
+    public static FrameHeader of(long payloadLength, int width, int height, int blockSize, SymbolMode symbolMode) {
+        return of(payloadLength, width, height, blockSize, symbolMode, Compression.NONE);
+    }
+
+    /**
+     * Header for a new video holding {@code payloadLength} bytes of a file compressed with
+     * {@code compression}, drawn as {@code blockSize} pixel blocks of {@code symbolMode} symbols.
+     */
+    public static FrameHeader of(long payloadLength, int width, int height, int blockSize, SymbolMode symbolMode,
+                                 Compression compression) {
+        return new FrameHeader(CURRENT_VERSION, payloadLength, width, height,
+                bytesPerFrame(width, height, blockSize, symbolMode), blockSize, symbolMode, compression);
+    }
+
+    /**
+     * Header read from a video written before versioned headers existed.
+     */
+    public static FrameHeader legacy(int payloadLength, int width, int height) {
+        return new FrameHeader(LEGACY_VERSION, payloadLength, width, height, width / 8 * height, 1, SymbolMode.BW1,
+                Compression.NONE);
+    }
+
+    /**
+     * Payload bytes a frame of one bit blocks holds.
+     */
+    public static int bytesPerFrame(int width, int height, int blockSize) {
+        return bytesPerFrame(width, height, blockSize, SymbolMode.BW1);
+    }
+
+    /**
+     * Payload bytes a frame holds: a row of blocks is a whole number of bytes, rows of blocks
+     * that do not fit the height are left black.
+     */
+    public static int bytesPerFrame(int width, int height, int blockSize, SymbolMode symbolMode) {
+        return width / blockSize / 8 * symbolMode.bitsPerSymbol() * (height / blockSize);
+    }
+
+    /**
+     * Blocks across a frame, always a multiple of 8.
+     */
+    public int blocksPerRow() {
+        return width / blockSize;
+    }
+
+    /**
+     * Rows of blocks in a frame.
+     */
+    public int blockRows() {
+        return height / blockSize;
+    }
+
+    /**
+     * Number of data frames following the header frame.
+     */
+    public long dataFrames() {
+        return (payloadLength + bytesPerFrame - 1) / bytesPerFrame;
+    }
+
+    /**
+     * Cells needed to draw the encoded header.
+     */
+    public static int cellCount() {
+        return ENCODED_LENGTH * 8;
+    }
+
+    /**
+     * Rows of cells the encoded header takes.
+     */
+    public static int cellRows() {
+        return (cellCount() + CELLS_PER_ROW - 1) / CELLS_PER_ROW;
+    }
+
+    /**
+     * Encode the header in the current layout, whatever its {@code version}.
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(ENCODED_LENGTH);
+        buffer.putInt(MAGIC)
+                .put((byte) CURRENT_VERSION)
+                .put((byte) 0)
+                .putShort((short) ENCODED_LENGTH)
+                .putLong(payloadLength)
+                .putInt(width)
+                .putInt(height)
+                .putInt(bytesPerFrame)
+                .put((byte) blockSize)
+                .put((byte) symbolMode.ordinal())
+                .put((byte) compression.ordinal());
+        buffer.putInt(crc(buffer.array(), buffer.position()));
+        return buffer.array();
+    }
+
+    /**
+     * Parse an encoded header.
+     *
+     * @return The header, or {@code null} when the bytes do not start with {@link #MAGIC}.
+     * @throws IOException When the magic matches but the header is corrupt or too new.
+     */
+    public static FrameHeader fromBytes(byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int version = buffer.get() & 0xFF;
+        buffer.get(); // flags, unused so far
+        int headerLength = buffer.getShort() & 0xFFFF;
+        int expectedLength = switch (version) {
+            case 2 -> V2_ENCODED_LENGTH;
+            case 3 -> V3_ENCODED_LENGTH;
+            case 4 -> V4_ENCODED_LENGTH;
+            default -> ENCODED_LENGTH;
+        };
+        if (version <= LEGACY_VERSION || version > CURRENT_VERSION || headerLength != expectedLength
+                || bytes.length < headerLength) {
+            throw new IOException("Unsupported frame header version " + version + " (" + headerLength + " bytes)");
+        }
+        long payloadLength = buffer.getLong();
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int bytesPerFrame = buffer.getInt();
+        int blockSize = version == 2 ? 1 : buffer.get() & 0xFF;
+        int symbolMode = version <= 3 ? SymbolMode.BW1.ordinal() : buffer.get() & 0xFF;
+        int compression = version <= 4 ? Compression.NONE.ordinal() : buffer.get() & 0xFF;
+        int expectedCrc = crc(bytes, buffer.position());
+        if (buffer.getInt() != expectedCrc) {
+            throw new IOException("Frame header checksum mismatch, the header frame is too damaged to read");
+        }
+        if (payloadLength < 0 || bytesPerFrame <= 0 || blockSize <= 0 || symbolMode >= SymbolMode.values().length
+                || compression >= Compression.values().length) {
+            throw new IOException("Invalid frame header: length " + payloadLength + ", bytes per frame "
+                    + bytesPerFrame + ", block size " + blockSize + ", symbol mode " + symbolMode
+                    + ", compression " + compression);
+        }
+        return new FrameHeader(version, payloadLength, width, height, bytesPerFrame, blockSize,
+                SymbolMode.values()[symbolMode], Compression.values()[compression]);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,47 @@
+package com.jaimin.justStore.utils;
+
+import org.jcodec.api.SequenceEncoder;
+import org.jcodec.common.Codec;
+import org.jcodec.common.Format;
+import org.jcodec.common.io.NIOUtils;
+import org.jcodec.common.io.SeekableByteChannel;
+import org.jcodec.common.model.Rational;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Pure Java H.264 encoder. Slow, but needs no native libraries.
+ */
+public class JcodecEncoderBackend implements VideoEncoderBackend {
+
+    private SeekableByteChannel channel;
+    private SequenceEncoder encoder;
+
+    @Override
+    public PackedFrameWriter.PixelFormat getPixelFormat() {
+        return PackedFrameWriter.PixelFormat.RGB_PICTURE;
+    }
+
+    @Override
+    public void start(String outputPath, int width, int height, int frameRate) throws IOException {
+        // Same setup as SequenceEncoder.createSequenceEncoder, but we keep the channel to close it on failure
+        channel = NIOUtils.writableChannel(new File(outputPath));
+        encoder = new SequenceEncoder(channel, Rational.R(frameRate, 1), Format.MOV, Codec.H264, null);
+    }
+
+    @Override
+    public void encode(PackedFrameWriter frame) throws IOException {
+        encoder.encodeNativeFrame(frame.getPicture());
+    }
+
+    @Override
+    public void finish() throws IOException {
+        encoder.finish();
+    }
+
+    @Override
+    public void close() throws IOException {
+        NIOUtils.closeQuietly(channel);
+    }
+}
@@ -0,0 +1,100 @@
+package com.jaimin.justStore.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Producer thread -> worker pool -> single ordered consumer.
+ * <p>
+ * The producer runs on its own thread and submits tasks in order. Tasks run in parallel
+ * on the worker pool, and the consumer runs on the calling thread and sees results in
+ * the order they were submitted. At most {@code capacity} tasks are queued, running or
+ * being consumed at once, so a producer that outruns the consumer blocks instead of
+ * growing memory.
+ * <p>
+ * If any stage fails the whole pipeline stops and the first failure is rethrown.
+ */
+public final class OrderedPipeline {
+
+    @FunctionalInterface
+    public interface Producer<T> {
+        void produce(Submitter<T> submitter) throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface Submitter<T> {
+        void submit(Callable<T> task) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    public interface Consumer<T> {
+        void accept(T result) throws Exception;
+    }
+
+    private OrderedPipeline() {
+    }
+
+    public static <T> void run(ExecutorService workers, int capacity, String producerName,
+                               Producer<T> producer, Consumer<T> consumer) throws IOException {
+        Semaphore permits = new Semaphore(capacity);
+        LinkedBlockingQueue<Future<T>> queue = new LinkedBlockingQueue<>();
+        // Sentinel marking the end of input, a failed future carries a producer error
+        Future<T> endOfInput = CompletableFuture.completedFuture(null);
+
+        Thread producerThread = Thread.ofPlatform().name(producerName).daemon().start(() -> {
+            try {
+                producer.produce(task -> {
+                    permits.acquire();
+                    queue.add(workers.submit(task));
+                });
+                queue.add(endOfInput);
+            } catch (Throwable e) {
+                queue.add(CompletableFuture.failedFuture(e));
+            }
+        });
+
+        try {
+            Future<T> next;
+            while ((next = queue.take()) != endOfInput) {
+                consumer.accept(next.get());
+                permits.release();
+            }
+        } catch (ExecutionException e) {
+            throw asIOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline interrupted");
+        } catch (Exception e) {
+            throw asIOException(e);
+        } finally {
+            producerThread.interrupt();
+            queue.forEach(future -> future.cancel(true));
+            joinQuietly(producerThread);
+        }
+    }
+
+    private static IOException asIOException(Throwable e) {
+        if (e instanceof IOException ioException) {
+            return ioException;
+        }
+        if (e instanceof InterruptedException) {
+            return new InterruptedIOException("Pipeline interrupted");
+        }
+        return new IOException(e.getMessage(), e);
+    }
+
+    private static void joinQuietly(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
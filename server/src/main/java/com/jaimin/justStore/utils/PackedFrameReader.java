@@ -0,0 +1,420 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.BlockSampling;
+import com.jaimin.justStore.enums.SymbolMode;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Reads packed payload bits back out of decoded frames, the inverse of {@link PackedFrameWriter}.
+ * <p>
+ * Works on a {@link DecodedFrame}, whose pixels were copied out of FFmpeg's buffer in one bulk
+ * copy. Pixels are thresholded and packed 8 per byte, leftmost pixel in the most significant
+ * bit. Frames may be BGR24 (white when every channel is above the threshold) or GRAY8 luma.
+ * Nothing is allocated per pixel or per frame, so one reader must not be shared between threads.
+ * <p>
+ * Videos drawn with blocks, or frames decoded at another size than they were encoded at, are
+ * read on a grid scaled to the frame: every block is read at its centre pixel, or by a
+ * majority vote over the middle half of the block, see {@link BlockSampling}.
+ * <p>
+ * Blocks carrying more than one bit, see {@link SymbolMode}, are read by averaging the same
+ * pixels per channel and quantizing the average to the nearest level the writer draws, so
+ * they always use fixed thresholds.
+ */
+public class PackedFrameReader {
+
+    // A channel is white when it is strictly above this value
+    public static final int DEFAULT_THRESHOLD = 128;
+
+    // Adaptive thresholds outside this band mean the frame is not two clean levels
+    private static final int MIN_ADAPTIVE_THRESHOLD = 48;
+    private static final int MAX_ADAPTIVE_THRESHOLD = 208;
+
+    // Only every n-th row feeds the histogram, plenty for a two-level image
+    private static final int HISTOGRAM_ROW_STEP = 8;
+
+    private static final BitKernels KERNELS = BitKernels.get();
+
+    private final boolean adaptiveThreshold;
+    private final BlockSampling blockSampling;
+    private final int[] histogram = new int[256];
+    private final int[] channelSums = new int[3];
+    private int lastThreshold = DEFAULT_THRESHOLD;
+
+    // Pixel spans of every block column and row, for the frame size and header they were built for
+    private BlockGrid grid;
+
+    public PackedFrameReader() {
+        this(false);
+    }
+
+    public PackedFrameReader(boolean adaptiveThreshold) {
+        this(adaptiveThreshold, BlockSampling.CENTER);
+    }
+
+    public PackedFrameReader(boolean adaptiveThreshold, BlockSampling blockSampling) {
+        this.adaptiveThreshold = adaptiveThreshold;
+        this.blockSampling = blockSampling;
+    }
+
+    /**
+     * Threshold used by the last {@link #readFrame} call.
+     */
+    public int getLastThreshold() {
+        return lastThreshold;
+    }
+
+    /**
+     * Read the header from the first frame of a video.
+     * <p>
+     * The header frame is almost all black, so it always uses the fixed threshold. The current
+     * header is looked for on a grid scaled to the frame, then the version 2 header at its fixed
+     * cell size. A frame without either is a legacy video whose 32-bit length sits in the first
+     * 32 pixels of row 0.
+     *
+     * @throws IOException When the frame carries a versioned header that cannot be read.
+     */
+    public FrameHeader readHeader(DecodedFrame frame) throws IOException {
+        final double cell = (double) frame.getWidth() / FrameHeader.CELLS_PER_ROW;
+        if (cell >= 2 && FrameHeader.cellRows() * cell <= frame.getHeight()) {
+            byte[] bytes = new byte[FrameHeader.ENCODED_LENGTH];
+            for (int bit = 0; bit < bytes.length * 8; bit++) {
+                int x = (int) ((bit % FrameHeader.CELLS_PER_ROW + 0.5) * cell) - 1;
+                int y = (int) ((bit / FrameHeader.CELLS_PER_ROW + 0.5) * cell) - 1;
+                if (isWhiteCell(frame, x, y)) {
+                    bytes[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+                }
+            }
+            FrameHeader header = FrameHeader.fromBytes(bytes);
+            if (header != null) {
+                return header;
+            }
+        }
+
+        final int v2Cell = FrameHeader.V2_CELL_SIZE;
+        final int cellsPerRow = frame.getWidth() / v2Cell;
+        if (cellsPerRow * (frame.getHeight() / v2Cell) >= FrameHeader.V2_ENCODED_LENGTH * 8) {
+            byte[] bytes = new byte[FrameHeader.V2_ENCODED_LENGTH];
+            for (int bit = 0; bit < bytes.length * 8; bit++) {
+                int x = (bit % cellsPerRow) * v2Cell + v2Cell / 2 - 1;
+                int y = (bit / cellsPerRow) * v2Cell + v2Cell / 2 - 1;
+                if (isWhiteCell(frame, x, y)) {
+                    bytes[bit / 8] |= (byte) (0x80 >>> (bit % 8));
+                }
+            }
+            FrameHeader header = FrameHeader.fromBytes(bytes);
+            if (header != null) {
+                return header;
+            }
+        }
+        return FrameHeader.legacy(readLegacyLength(frame), frame.getWidth(), frame.getHeight());
+    }
+
+    private static int readLegacyLength(DecodedFrame frame) {
+        byte[] pixels = frame.getPixels();
+        int channels = frame.getChannels();
+
+        int totalBytes = 0;
+        for (int k = 0; k < 32; k++) {
+            if (isWhite(pixels, k * channels, channels, DEFAULT_THRESHOLD)) {
+                totalBytes |= (1 << k);
+            }
+        }
+        return totalBytes;
+    }
+
+    /**
+     * Average the 2x2 pixels at ({@code x}, {@code y}) over every channel, so a few damaged
+     * pixels inside a header cell do not flip its bit.
+     */
+    private static boolean isWhiteCell(DecodedFrame frame, int x, int y) {
+        byte[] pixels = frame.getPixels();
+        int channels = frame.getChannels();
+        int sum = 0;
+        for (int dy = 0; dy < 2; dy++) {
+            int offset = (y + dy) * frame.getStride() + x * channels;
+            for (int i = 0; i < 2 * channels; i++) {
+                sum += pixels[offset + i] & 0xFF;
+            }
+        }
+        return sum > DEFAULT_THRESHOLD * 4 * channels;
+    }
+
+    /**
+     * Read the payload of a frame of the video described by {@code header} into {@code out}.
+     * Frames at their encoded size without blocks take the pixel per bit path of
+     * {@link #readFrame(DecodedFrame, byte[])}, everything else is sampled block by block.
+     *
+     * @return Number of bytes written, {@link FrameHeader#bytesPerFrame()}.
+     */
+    public int readFrame(DecodedFrame frame, FrameHeader header, byte[] out) {
+        if (header.symbolMode() == SymbolMode.BW1 && header.blockSize() == 1
+                && frame.getWidth() == header.width() && frame.getHeight() == header.height()) {
+            return readFrame(frame, out);
+        }
+        if (grid == null || !grid.matches(frame, header)) {
+            grid = new BlockGrid(frame, header, blockSampling);
+        }
+        if (header.symbolMode() != SymbolMode.BW1) {
+            return readSymbols(frame, header, out);
+        }
+
+        final byte[] pixels = frame.getPixels();
+        final int channels = frame.getChannels();
+        final int stride = frame.getStride();
+        final int threshold = adaptiveThreshold ? adaptiveThreshold(frame) : DEFAULT_THRESHOLD;
+        lastThreshold = threshold;
+
+        int outIndex = 0;
+        for (int row = 0; row < header.blockRows(); row++) {
+            final int y0 = grid.rowStart[row];
+            final int y1 = grid.rowEnd[row];
+            for (int x = 0; x < header.blocksPerRow(); x += 8) {
+                int value = 0;
+                for (int k = 0; k < 8; k++) {
+                    final int x0 = grid.columnStart[x + k];
+                    final int x1 = grid.columnEnd[x + k];
+                    int white = 0;
+                    for (int y = y0; y < y1; y++) {
+                        int pixel = y * stride + x0 * channels;
+                        for (int px = x0; px < x1; px++, pixel += channels) {
+                            if (isWhite(pixels, pixel, channels, threshold)) {
+                                white++;
+                            }
+                        }
+                    }
+                    int votes = 2 * white - (y1 - y0) * (x1 - x0);
+                    if (votes == 0) {
+                        // A tie, the centre pixel decides
+                        int centre = grid.rowCentre[row] * stride + grid.columnCentre[x + k] * channels;
+                        votes = isWhite(pixels, centre, channels, threshold) ? 1 : -1;
+                    }
+                    value = (value << 1) | (votes > 0 ? 1 : 0);
+                }
+                out[outIndex++] = (byte) value;
+            }
+        }
+        return outIndex;
+    }
+
+    /**
+     * Average every block of a multi-bit frame and pack the symbols it is closest to.
+     */
+    private int readSymbols(DecodedFrame frame, FrameHeader header, byte[] out) {
+        final byte[] pixels = frame.getPixels();
+        final int channels = frame.getChannels();
+        final int stride = frame.getStride();
+        final SymbolMode mode = header.symbolMode();
+        final int bits = mode.bitsPerSymbol();
+        lastThreshold = DEFAULT_THRESHOLD;
+
+        int outIndex = 0;
+        int pending = 0;
+        int pendingBits = 0;
+        for (int row = 0; row < header.blockRows(); row++) {
+            final int y0 = grid.rowStart[row];
+            final int y1 = grid.rowEnd[row];
+            for (int x = 0; x < header.blocksPerRow(); x++) {
+                final int x0 = grid.columnStart[x];
+                final int x1 = grid.columnEnd[x];
+                final int[] sums = channelSums;
+                sums[0] = sums[1] = sums[2] = 0;
+                for (int y = y0; y < y1; y++) {
+                    int pixel = y * stride + x0 * channels;
+                    for (int px = x0; px < x1; px++) {
+                        for (int c = 0; c < channels; c++) {
+                            sums[c] += pixels[pixel++] & 0xFF;
+                        }
+                    }
+                }
+                final int count = (y1 - y0) * (x1 - x0);
+                final int symbol = mode == SymbolMode.GRAY4
+                        ? gray4Symbol((sums[0] + sums[1] + sums[2]) / (count * channels))
+                        : rgb3Symbol(sums, count);
+                pending = (pending << bits) | symbol;
+                pendingBits += bits;
+                if (pendingBits >= 8) {
+                    pendingBits -= 8;
+                    out[outIndex++] = (byte) (pending >>> pendingBits);
+                    pending &= (1 << pendingBits) - 1;
+                }
+            }
+        }
+        return outIndex;
+    }
+
+    /**
+     * Nearest of the levels in {@link PackedFrameWriter#GRAY4_LEVELS}, as its symbol.
+     */
+    static int gray4Symbol(int luma) {
+        // Midpoints between 0, 85, 170 and 255
+        int level = luma < 43 ? 0 : luma < 128 ? 1 : luma < 213 ? 2 : 3;
+        // Gray code, the inverse of the level order the writer draws
+        return level ^ (level >> 1);
+    }
+
+    /**
+     * Red, green and blue on or off from the channel sums of a BGR block.
+     */
+    private static int rgb3Symbol(int[] sums, int count) {
+        int threshold = DEFAULT_THRESHOLD * count;
+        return (sums[2] > threshold ? 4 : 0) | (sums[1] > threshold ? 2 : 0) | (sums[0] > threshold ? 1 : 0);
+    }
+
+    /**
+     * Pack every pixel of the frame into {@code out}.
+     *
+     * @return Number of bytes written, {@code width / 8 * height}.
+     */
+    public int readFrame(DecodedFrame frame, byte[] out) {
+        final byte[] pixels = frame.getPixels();
+        final int height = frame.getHeight();
+        final int channels = frame.getChannels();
+        final int stride = frame.getStride();
+        final int bytesPerRow = frame.getWidth() / 8;
+        final int threshold = adaptiveThreshold ? adaptiveThreshold(frame) : DEFAULT_THRESHOLD;
+        lastThreshold = threshold;
+
+        int outIndex = 0;
+        for (int y = 0; y < height; y++) {
+            int pixel = y * stride;
+            if (channels == 1) {
+                outIndex = KERNELS.packLuma(pixels, pixel, bytesPerRow, threshold, out, outIndex);
+                continue;
+            }
+            for (int x = 0; x < bytesPerRow; x++) {
+                int value = 0;
+                for (int k = 0; k < 8; k++) {
+                    value = (value << 1) | (isWhite(pixels, pixel, channels, threshold) ? 1 : 0);
+                    pixel += channels;
+                }
+                out[outIndex++] = (byte) value;
+            }
+        }
+        return outIndex;
+    }
+
+    /**
+     * Otsu's threshold over the first channel of a sample of rows.
+     */
+    private int adaptiveThreshold(DecodedFrame frame) {
+        Arrays.fill(histogram, 0);
+        final byte[] pixels = frame.getPixels();
+        final int width = frame.getWidth();
+        final int channels = frame.getChannels();
+        long samples = 0;
+        for (int y = 0; y < frame.getHeight(); y += HISTOGRAM_ROW_STEP) {
+            int rowStart = y * frame.getStride();
+            for (int x = 0; x < width; x++) {
+                histogram[pixels[rowStart + x * channels] & 0xFF]++;
+            }
+            samples += width;
+        }
+
+        long weightedSum = 0;
+        for (int level = 0; level < 256; level++) {
+            weightedSum += (long) level * histogram[level];
+        }
+
+        long backgroundCount = 0;
+        long backgroundSum = 0;
+        double bestVariance = -1;
+        int best = DEFAULT_THRESHOLD;
+        int bestEnd = DEFAULT_THRESHOLD;
+        for (int level = 0; level < 256; level++) {
+            backgroundCount += histogram[level];
+            if (backgroundCount == 0) {
+                continue;
+            }
+            long foregroundCount = samples - backgroundCount;
+            if (foregroundCount == 0) {
+                break;
+            }
+            backgroundSum += (long) level * histogram[level];
+            double backgroundMean = (double) backgroundSum / backgroundCount;
+            double foregroundMean = (double) (weightedSum - backgroundSum) / foregroundCount;
+            double variance = (double) backgroundCount * foregroundCount
+                    * (backgroundMean - foregroundMean) * (backgroundMean - foregroundMean);
+            if (variance > bestVariance) {
+                bestVariance = variance;
+                best = level;
+                bestEnd = level;
+            } else if (variance == bestVariance) {
+                // Empty levels between the two peaks all score the same, take the middle of the gap
+                bestEnd = level;
+            }
+        }
+        best = (best + bestEnd) / 2;
+
+        if (best < MIN_ADAPTIVE_THRESHOLD || best > MAX_ADAPTIVE_THRESHOLD) {
+            return DEFAULT_THRESHOLD;
+        }
+        return best;
+    }
+
+    private static boolean isWhite(byte[] pixels, int offset, int channels, int threshold) {
+        for (int c = 0; c < channels; c++) {
+            if ((pixels[offset + c] & 0xFF) <= threshold) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The pixels every block is read from, for one frame size. A span of one pixel is the
+     * block centre, longer spans are the pixels whose centres lie in the middle half of the
+     * block, so pixels blended with the neighbouring blocks do not vote.
+     */
+    private static final class BlockGrid {
+        private final int frameWidth;
+        private final int frameHeight;
+        private final FrameHeader header;
+        private final int[] columnStart;
+        private final int[] columnEnd;
+        private final int[] columnCentre;
+        private final int[] rowStart;
+        private final int[] rowEnd;
+        private final int[] rowCentre;
+
+        BlockGrid(DecodedFrame frame, FrameHeader header, BlockSampling sampling) {
+            this.frameWidth = frame.getWidth();
+            this.frameHeight = frame.getHeight();
+            this.header = header;
+            this.columnStart = new int[header.blocksPerRow()];
+            this.columnEnd = new int[header.blocksPerRow()];
+            this.columnCentre = new int[header.blocksPerRow()];
+            this.rowStart = new int[header.blockRows()];
+            this.rowEnd = new int[header.blockRows()];
+            this.rowCentre = new int[header.blockRows()];
+            span(columnStart, columnEnd, columnCentre, header.blockSize(), (double) frameWidth / header.width(),
+                    frameWidth, sampling);
+            span(rowStart, rowEnd, rowCentre, header.blockSize(), (double) frameHeight / header.height(),
+                    frameHeight, sampling);
+        }
+
+        boolean matches(DecodedFrame frame, FrameHeader header) {
+            return frame.getWidth() == frameWidth && frame.getHeight() == frameHeight && header.equals(this.header);
+        }
+
+        private static void span(int[] start, int[] end, int[] centre, int blockSize, double scale, int limit,
+                                 BlockSampling sampling) {
+            double size = blockSize * scale;
+            for (int i = 0; i < start.length; i++) {
+                centre[i] = Math.min(limit - 1, (int) ((i + 0.5) * size));
+                // Pixel p covers [p, p + 1), so its centre is in the middle half when
+                // (i + 0.25) * size <= p + 0.5 < (i + 0.75) * size
+                int first = (int) Math.ceil((i + 0.25) * size - 0.5);
+                int last = (int) Math.ceil((i + 0.75) * size - 0.5) - 1;
+                if (sampling == BlockSampling.CENTER || last < first) {
+                    start[i] = centre[i];
+                    end[i] = centre[i] + 1;
+                } else {
+                    start[i] = Math.max(0, first);
+                    end[i] = Math.min(limit, last + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,337 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.SymbolMode;
+import org.jcodec.common.model.ColorSpace;
+import org.jcodec.common.model.Picture;
+
+import java.util.Arrays;
+
+/**
+ * Renders payload bytes into frames without touching pixels one by one.
+ * <p>
+ * A packed frame uses the {@code TYPE_BYTE_BINARY} raster layout: one bit per pixel,
+ * rows of {@code width / 8} bytes, leftmost pixel in the most significant bit. That is
+ * exactly the order {@link RetrieveVideo} reads bits back, so payload bytes are copied
+ * into the packed frame as is and then expanded, either into a jcodec RGB picture through
+ * a lookup table or into a raw 8-bit luma plane through {@link BitKernels}, depending on
+ * what the encoder backend consumes.
+ * <p>
+ * With a block size above 1 every bit is drawn as a square of that many pixels, so the
+ * packed frame holds one bit per block and rows of blocks are whole bytes. Bigger blocks
+ * carry fewer bytes per frame but survive heavier compression and can be read back from a
+ * downscaled copy of the video, see {@link PackedFrameReader}.
+ * <p>
+ * A block carries one symbol of {@link SymbolMode#bitsPerSymbol()} bits, taken from the packed
+ * frame most significant bit first. One bit blocks are black or white, {@link SymbolMode#GRAY4}
+ * draws four grey levels and {@link SymbolMode#RGB3} switches every colour channel on or off.
+ * The header frame is always black and white.
+ * <p>
+ * Both the packed frame and the output buffer are allocated once and reused for every
+ * frame, so one writer must not be shared between threads.
+ */
+public class PackedFrameWriter {
+
+    /**
+     * Pixel layout a frame is expanded into.
+     */
+    public enum PixelFormat {
+        /** jcodec {@link Picture} in {@link ColorSpace#RGB}. */
+        RGB_PICTURE,
+        /** One byte of luma per pixel, rows of {@code width} bytes. */
+        GRAY8,
+        /** Blue, green and red bytes per pixel, rows of {@code width * 3} bytes. */
+        BGR24
+    }
+
+    // GRAY4 luma by symbol: levels in Gray code order, so neighbouring levels differ in one bit
+    static final int[] GRAY4_LEVELS = {0, 85, 255, 170};
+
+    // jcodec RGB planes hold (value - 128), same conversion AWTUtil does for a BufferedImage
+    private static final byte RGB_WHITE = (byte) (0xFF - 128);
+    private static final byte RGB_BLACK = (byte) (0x00 - 128);
+    private static final int RGB_PATTERN_LENGTH = 8 * 3;
+
+    // 8 RGB pixels for every possible packed byte
+    private static final byte[] RGB_PATTERNS = buildRgbPatterns();
+
+    private static final BitKernels KERNELS = BitKernels.get();
+
+    private final int width;
+    private final int height;
+    private final int blockSize;
+    private final int blocksPerRow;
+    private final int blockRows;
+    private final int bytesPerFrame;
+    private final SymbolMode symbolMode;
+    private final PixelFormat pixelFormat;
+    private final byte[] packedFrame;
+    private final Picture picture;
+    private final byte[] luma;
+    private final byte[] bgr;
+    // Channel bytes of every symbol, for the payload and for the black and white header
+    private final byte[] palette;
+    private final byte[] headerPalette;
+
+    public PackedFrameWriter(int width, int height) {
+        this(width, height, PixelFormat.RGB_PICTURE);
+    }
+
+    public PackedFrameWriter(int width, int height, PixelFormat pixelFormat) {
+        this(width, height, 1, pixelFormat);
+    }
+
+    public PackedFrameWriter(int width, int height, int blockSize, PixelFormat pixelFormat) {
+        this(width, height, blockSize, SymbolMode.BW1, pixelFormat);
+    }
+
+    public PackedFrameWriter(int width, int height, int blockSize, SymbolMode symbolMode, PixelFormat pixelFormat) {
+        if (blockSize < 1 || width % (8 * blockSize) != 0) {
+            throw new IllegalArgumentException("Frame width must be a multiple of 8 blocks of " + blockSize
+                    + " pixels, got " + width);
+        }
+        if (blockSize < symbolMode.minBlockSize()) {
+            throw new IllegalArgumentException(symbolMode + " needs blocks of at least " + symbolMode.minBlockSize()
+                    + " pixels, got " + blockSize);
+        }
+        if (symbolMode == SymbolMode.RGB3 && pixelFormat == PixelFormat.GRAY8) {
+            throw new IllegalArgumentException(symbolMode + " needs colour frames, not " + pixelFormat);
+        }
+        this.width = width;
+        this.height = height;
+        this.blockSize = blockSize;
+        this.blocksPerRow = width / blockSize;
+        this.blockRows = height / blockSize;
+        this.bytesPerFrame = FrameHeader.bytesPerFrame(width, height, blockSize, symbolMode);
+        this.symbolMode = symbolMode;
+        this.pixelFormat = pixelFormat;
+        this.packedFrame = new byte[bytesPerFrame];
+        this.picture = pixelFormat == PixelFormat.RGB_PICTURE ? Picture.create(width, height, ColorSpace.RGB) : null;
+        this.luma = pixelFormat == PixelFormat.GRAY8 ? new byte[width * height] : null;
+        this.bgr = pixelFormat == PixelFormat.BGR24 ? new byte[width * height * 3] : null;
+        this.palette = palette(symbolMode, pixelFormat);
+        this.headerPalette = palette(SymbolMode.BW1, pixelFormat);
+        if (picture != null) {
+            // Rows below the last full row of blocks are never drawn, they stay black
+            Arrays.fill(picture.getPlaneData(0), RGB_BLACK);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getBytesPerFrame() {
+        return bytesPerFrame;
+    }
+
+    public SymbolMode getSymbolMode() {
+        return symbolMode;
+    }
+
+    public PixelFormat getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * Picture produced by the last render call, only for {@link PixelFormat#RGB_PICTURE}.
+     */
+    public Picture getPicture() {
+        return picture;
+    }
+
+    /**
+     * Luma plane produced by the last render call, only for {@link PixelFormat#GRAY8}.
+     */
+    public byte[] getLuma() {
+        return luma;
+    }
+
+    /**
+     * Pixels produced by the last render call, only for {@link PixelFormat#BGR24}.
+     */
+    public byte[] getBgr() {
+        return bgr;
+    }
+
+    /**
+     * Buffer callers fill with payload before calling {@link #render(int)}.
+     */
+    public byte[] getPackedFrame() {
+        return packedFrame;
+    }
+
+    /**
+     * Render the first {@code length} bytes of the packed frame, the rest of the frame is black.
+     */
+    public void render(int length) {
+        Arrays.fill(packedFrame, length, bytesPerFrame, (byte) 0);
+        expand(symbolMode, palette);
+    }
+
+    /**
+     * Copy {@code length} payload bytes starting at {@code offset} and render them.
+     */
+    public void render(byte[] payload, int offset, int length) {
+        System.arraycopy(payload, offset, packedFrame, 0, length);
+        render(length);
+    }
+
+    /**
+     * Render the header frame, see {@link FrameHeader}.
+     */
+    public void renderHeader(FrameHeader header) {
+        Arrays.fill(packedFrame, (byte) 0);
+        packHeader(header, packedFrame, blocksPerRow, blockRows);
+        expand(SymbolMode.BW1, headerPalette);
+    }
+
+    private void expand(SymbolMode mode, byte[] palette) {
+        // The pixel per bit fast paths expand the whole packed frame, which only fits one bit blocks
+        if (blockSize > 1 || symbolMode != SymbolMode.BW1 || pixelFormat == PixelFormat.BGR24) {
+            expandSymbols(mode.bitsPerSymbol(), palette);
+        } else if (pixelFormat == PixelFormat.RGB_PICTURE) {
+            expandToRgb(packedFrame, picture.getPlaneData(0));
+        } else {
+            KERNELS.unpackToLuma(packedFrame, bytesPerFrame, luma);
+        }
+    }
+
+    /**
+     * Fill every symbol's {@code blockSize} pixels in the first pixel row of a row of blocks,
+     * then copy that row down over the rest of the block.
+     */
+    private void expandSymbols(int bits, byte[] palette) {
+        final int bitsPerBlockRow = blocksPerRow * bits;
+        final int channels = pixelFormat == PixelFormat.GRAY8 ? 1 : 3;
+        final byte[] pixels = switch (pixelFormat) {
+            case RGB_PICTURE -> picture.getPlaneData(0);
+            case GRAY8 -> luma;
+            case BGR24 -> bgr;
+        };
+        final int rowLength = width * channels;
+        final int blockLength = blockSize * channels;
+
+        for (int row = 0; row < blockRows; row++) {
+            int bitOffset = row * bitsPerBlockRow;
+            int rowStart = row * blockSize * rowLength;
+            for (int x = 0; x < blocksPerRow; x++, bitOffset += bits) {
+                int colour = symbolAt(packedFrame, bitOffset, bits) * channels;
+                int start = rowStart + x * blockLength;
+                if (channels == 1) {
+                    Arrays.fill(pixels, start, start + blockLength, palette[colour]);
+                    continue;
+                }
+                for (int pixel = start; pixel < start + blockLength; pixel += 3) {
+                    pixels[pixel] = palette[colour];
+                    pixels[pixel + 1] = palette[colour + 1];
+                    pixels[pixel + 2] = palette[colour + 2];
+                }
+            }
+            for (int y = 1; y < blockSize; y++) {
+                System.arraycopy(pixels, rowStart, pixels, rowStart + y * rowLength, rowLength);
+            }
+        }
+    }
+
+    /**
+     * The {@code bits} wide symbol starting {@code bitOffset} bits into {@code packed}.
+     */
+    static int symbolAt(byte[] packed, int bitOffset, int bits) {
+        int index = bitOffset >>> 3;
+        int word = (packed[index] & 0xFF) << 8 | (index + 1 < packed.length ? packed[index + 1] & 0xFF : 0);
+        return (word >>> (16 - (bitOffset & 7) - bits)) & ((1 << bits) - 1);
+    }
+
+    /**
+     * Channel bytes of every symbol of {@code mode}, in the channel order and value range of {@code format}.
+     */
+    private static byte[] palette(SymbolMode mode, PixelFormat format) {
+        final int symbols = 1 << mode.bitsPerSymbol();
+        final int channels = format == PixelFormat.GRAY8 ? 1 : 3;
+        byte[] palette = new byte[symbols * channels];
+        for (int symbol = 0; symbol < symbols; symbol++) {
+            int red, green, blue;
+            switch (mode) {
+                case BW1 -> red = green = blue = symbol == 1 ? 0xFF : 0;
+                case GRAY4 -> red = green = blue = GRAY4_LEVELS[symbol];
+                case RGB3 -> {
+                    red = (symbol & 4) != 0 ? 0xFF : 0;
+                    green = (symbol & 2) != 0 ? 0xFF : 0;
+                    blue = (symbol & 1) != 0 ? 0xFF : 0;
+                }
+                default -> throw new IllegalArgumentException("Unknown symbol mode " + mode);
+            }
+            int base = symbol * channels;
+            switch (format) {
+                case GRAY8 -> palette[base] = (byte) red;
+                case BGR24 -> {
+                    palette[base] = (byte) blue;
+                    palette[base + 1] = (byte) green;
+                    palette[base + 2] = (byte) red;
+                }
+                case RGB_PICTURE -> {
+                    palette[base] = (byte) (red - 128);
+                    palette[base + 1] = (byte) (green - 128);
+                    palette[base + 2] = (byte) (blue - 128);
+                }
+            }
+        }
+        return palette;
+    }
+
+    /**
+     * Draw the header on a grid of {@code columns} x {@code rows} bits, every header bit as a square
+     * cell, {@link FrameHeader#CELLS_PER_ROW} cells across, row by row from the top left. Cell edges
+     * are rounded to whole bits, so the cells stay where a reader of any resolution expects them.
+     */
+    static void packHeader(FrameHeader header, byte[] packed, int columns, int rows) {
+        final double cell = (double) columns / FrameHeader.CELLS_PER_ROW;
+        if (cell < 2 || (int) Math.ceil(FrameHeader.cellRows() * cell) > rows) {
+            throw new IllegalArgumentException("Frame " + columns + "x" + rows + " is too small for the header");
+        }
+        final int bytesPerRow = columns / 8;
+        byte[] bytes = header.toBytes();
+        for (int bit = 0; bit < bytes.length * 8; bit++) {
+            if (((bytes[bit / 8] >> (7 - bit % 8)) & 1) == 0) {
+                continue;
+            }
+            int cellX = bit % FrameHeader.CELLS_PER_ROW;
+            int cellY = bit / FrameHeader.CELLS_PER_ROW;
+            for (int y = (int) (cellY * cell); y < (int) ((cellY + 1) * cell); y++) {
+                for (int x = (int) (cellX * cell); x < (int) ((cellX + 1) * cell); x++) {
+                    packed[y * bytesPerRow + x / 8] |= (byte) (0x80 >>> (x % 8));
+                }
+            }
+        }
+    }
+
+    static void expandToRgb(byte[] packed, byte[] rgb) {
+        int out = 0;
+        for (byte value : packed) {
+            System.arraycopy(RGB_PATTERNS, (value & 0xFF) * RGB_PATTERN_LENGTH, rgb, out, RGB_PATTERN_LENGTH);
+            out += RGB_PATTERN_LENGTH;
+        }
+    }
+
+    private static byte[] buildRgbPatterns() {
+        byte[] patterns = new byte[256 * RGB_PATTERN_LENGTH];
+        for (int value = 0; value < 256; value++) {
+            int base = value * RGB_PATTERN_LENGTH;
+            for (int bit = 0; bit < 8; bit++) {
+                byte channel = ((value >> (7 - bit)) & 1) == 1 ? RGB_WHITE : RGB_BLACK;
+                patterns[base + bit * 3] = channel;
+                patterns[base + bit * 3 + 1] = channel;
+                patterns[base + bit * 3 + 2] = channel;
+            }
+        }
+        return patterns;
+    }
+}
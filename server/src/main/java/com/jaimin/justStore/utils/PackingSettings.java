@@ -0,0 +1,23 @@
+package com.jaimin.justStore.utils;
+
+import java.time.Duration;
+
+/**
+ * How small plain uploads are gathered into one container video instead of a video each.
+ *
+ * @param enabled            Whether small uploads are packed at all.
+ * @param maxFileSizeBytes   Uploads smaller than this wait for a container.
+ * @param window             Longest an upload waits for others to fill its container.
+ * @param containerSizeBytes A container is uploaded as soon as its files add up to this.
+ */
+public record PackingSettings(
+        boolean enabled,
+        long maxFileSizeBytes,
+        Duration window,
+        long containerSizeBytes
+) {
+
+    public boolean shouldPack(long fileSize) {
+        return enabled && fileSize < maxFileSizeBytes;
+    }
+}
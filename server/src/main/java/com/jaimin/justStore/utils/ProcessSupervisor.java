@@ -0,0 +1,409 @@
+package com.jaimin.justStore.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs external processes whose stdout is consumed as a stream, e.g. yt-dlp writing a video.
+ * <p>
+ * At most {@code maxConcurrent} processes run at once, and at most {@code maxPerHost} for
+ * one host; callers beyond that queue for up to {@code queueTimeout}. stderr is drained on its
+ * own thread so the process never blocks on a full pipe, and its last lines are kept for the
+ * error message. A watchdog kills processes running longer than {@code timeout} or whose
+ * stdout was not read for {@code idleTimeout}, which also covers a consumer that stopped
+ * reading without closing. Closing the stream kills the process if it is still running, and
+ * reaching the end of it checks the exit code.
+ * <p>
+ * Streams that are not a process, like a download over HTTP standing in for one, can be
+ * {@link #open opened} under the same slots, limits and stats.
+ */
+public class ProcessSupervisor implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    private static final int STDERR_TAIL_LINES = 20;
+    private static final Duration EXIT_GRACE = Duration.ofSeconds(10);
+
+    /**
+     * Counters since startup, plus what runs and waits right now.
+     */
+    public record Stats(int active, int queued, long started, long succeeded, long failed, long timedOut) {
+    }
+
+    /**
+     * Opens a stream that stands in for a process, once it holds a slot.
+     */
+    @FunctionalInterface
+    public interface Opener {
+        InputStream open() throws IOException;
+    }
+
+    private final String name;
+    private final int maxPerHost;
+    private final Duration queueTimeout;
+    private final Duration timeout;
+    private final Duration idleTimeout;
+
+    private final Semaphore global;
+    private final Map<String, Semaphore> perHost = new ConcurrentHashMap<>();
+    private final Set<Tracked> running = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService watchdog;
+
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * @param name          Used in thread names and messages, e.g. "yt-dlp".
+     * @param maxConcurrent Processes running at once.
+     * @param maxPerHost    Processes running at once for one host.
+     * @param queueTimeout  How long a caller waits for a free slot.
+     * @param timeout       Longest a process may run, zero for no limit.
+     * @param idleTimeout   Longest stdout may go unread, zero for no limit.
+     */
+    public ProcessSupervisor(String name, int maxConcurrent, int maxPerHost, Duration queueTimeout,
+                             Duration timeout, Duration idleTimeout) {
+        this.name = name;
+        this.maxPerHost = maxPerHost;
+        this.queueTimeout = queueTimeout;
+        this.timeout = timeout;
+        this.idleTimeout = idleTimeout;
+        this.global = new Semaphore(maxConcurrent, true);
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name(name + "-watchdog").daemon().factory());
+        this.watchdog.scheduleWithFixedDelay(this::checkTimeouts, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Start {@code command} once a slot for {@code host} is free.
+     *
+     * @return The process' stdout. Closing it kills the process if it has not exited.
+     */
+    public InputStream start(String host, List<String> command) throws IOException {
+        Semaphore hostSlots = acquireSlots(host);
+        Process process;
+        try {
+            process = new ProcessBuilder(command).start();
+        } catch (IOException | RuntimeException e) {
+            releaseSlots(hostSlots);
+            throw e;
+        }
+        Supervised supervised = new Supervised(process, hostSlots, command.getFirst());
+        track(supervised);
+        logger.debug("Started {} (pid {}) for {}", name, process.pid(), host);
+        return supervised;
+    }
+
+    /**
+     * Open a stream standing in for a process, like a download over HTTP, once a slot for
+     * {@code host} is free. It is limited, timed out and counted like the processes: the watchdog
+     * closes it when it runs or idles too long, and reading it then fails.
+     *
+     * @return The stream, closing it frees the slot.
+     */
+    public InputStream open(String host, Opener opener) throws IOException {
+        Semaphore hostSlots = acquireSlots(host);
+        InputStream in;
+        try {
+            in = opener.open();
+        } catch (IOException | RuntimeException e) {
+            releaseSlots(hostSlots);
+            throw e;
+        }
+        Opened opened = new Opened(in, hostSlots, host);
+        track(opened);
+        return opened;
+    }
+
+    private Semaphore acquireSlots(String host) throws IOException {
+        Semaphore hostSlots = perHost.computeIfAbsent(host, ignored -> new Semaphore(maxPerHost, true));
+        acquire(global);
+        try {
+            acquire(hostSlots);
+        } catch (IOException e) {
+            global.release();
+            throw e;
+        }
+        return hostSlots;
+    }
+
+    private void releaseSlots(Semaphore hostSlots) {
+        hostSlots.release();
+        global.release();
+        failed.incrementAndGet();
+    }
+
+    private void track(Tracked tracked) {
+        started.incrementAndGet();
+        running.add(tracked);
+    }
+
+    public Stats getStats() {
+        return new Stats(running.size(), (int) queued.get(), started.get(), succeeded.get(), failed.get(),
+                timedOut.get());
+    }
+
+    private void acquire(Semaphore slots) throws IOException {
+        queued.incrementAndGet();
+        try {
+            if (!slots.tryAcquire(queueTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new IOException("Too many " + name + " processes running, gave up waiting after " + queueTimeout);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to start " + name);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        for (Tracked tracked : running) {
+            if (!timeout.isZero() && now - tracked.startedNanos > timeout.toNanos()) {
+                tracked.kill("ran longer than " + timeout);
+            } else if (!idleTimeout.isZero() && now - tracked.lastReadNanos > idleTimeout.toNanos()) {
+                tracked.kill("its output was not read for " + idleTimeout);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        watchdog.shutdownNow();
+        for (Tracked tracked : running) {
+            tracked.abort();
+        }
+    }
+
+    private static void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+
+    /**
+     * A stream holding a slot, with the bookkeeping around it.
+     */
+    private abstract class Tracked extends FilterInputStream {
+        private final Semaphore hostSlots;
+        private final long startedNanos = System.nanoTime();
+        // Reused by read(), so single bytes do not allocate
+        private final byte[] single = new byte[1];
+
+        private volatile long lastReadNanos = startedNanos;
+        protected volatile String killReason;
+        private boolean finished;
+
+        Tracked(InputStream in, Semaphore hostSlots) {
+            super(in);
+            this.hostSlots = hostSlots;
+        }
+
+        /**
+         * What runs, for messages.
+         */
+        abstract String describe();
+
+        /**
+         * Called at the end of the stream, returns -1 or throws when it did not end well.
+         */
+        abstract int endOfStream() throws IOException;
+
+        /**
+         * Stop what feeds the stream, from any thread.
+         */
+        abstract void abort();
+
+        /**
+         * The error a read fails with, after counting the failure.
+         */
+        IOException failure(IOException cause) {
+            String reason = killReason != null ? describe() + " was stopped because " + killReason
+                    : cause != null ? cause.getMessage() : describe() + " failed";
+            finish(false);
+            return new IOException(reason, cause);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e) {
+                throw failure(e);
+            }
+            if (read < 0) {
+                return endOfStream();
+            }
+            lastReadNanos = System.nanoTime();
+            return read;
+        }
+
+        /**
+         * Stop it and free its slot, the consumer gets an error on its next read.
+         */
+        void kill(String reason) {
+            killReason = reason;
+            timedOut.incrementAndGet();
+            logger.warn("Stopping {} because {}", describe(), reason);
+            abort();
+            finish(false);
+        }
+
+        /**
+         * Stop it if it is still running, a consumer that closes early is not a failure.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                abort();
+                super.close();
+            } finally {
+                finish(killReason == null);
+            }
+        }
+
+        final synchronized void finish(boolean success) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            running.remove(this);
+            hostSlots.release();
+            global.release();
+            (success ? succeeded : failed).incrementAndGet();
+        }
+    }
+
+    /**
+     * stdout of one process.
+     */
+    private final class Supervised extends Tracked {
+        private final Process process;
+        private final String executable;
+        private final ArrayDeque<String> stderrTail = new ArrayDeque<>();
+        private final Thread stderrDrain;
+
+        Supervised(Process process, Semaphore hostSlots, String executable) {
+            super(process.getInputStream(), hostSlots);
+            this.process = process;
+            this.executable = executable;
+            this.stderrDrain = Thread.ofVirtual().name(name + "-stderr-" + process.pid()).start(this::drainStderr);
+        }
+
+        private void drainStderr() {
+            try (BufferedReader stderr = new BufferedReader(
+                    new InputStreamReader(process.getErrorStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = stderr.readLine()) != null) {
+                    logger.debug("{} {}: {}", name, process.pid(), line);
+                    synchronized (stderrTail) {
+                        if (stderrTail.size() == STDERR_TAIL_LINES) {
+                            stderrTail.removeFirst();
+                        }
+                        stderrTail.addLast(line);
+                    }
+                }
+            } catch (IOException e) {
+                // The process was killed, nothing left to drain
+            }
+        }
+
+        @Override
+        String describe() {
+            return name + " (pid " + process.pid() + ")";
+        }
+
+        @Override
+        int endOfStream() throws IOException {
+            if (killReason != null) {
+                throw failure(null);
+            }
+            try {
+                if (!process.waitFor(EXIT_GRACE.toMillis(), TimeUnit.MILLISECONDS)) {
+                    throw failure(new IOException(executable + " closed its output but did not exit"));
+                }
+                stderrDrain.join(EXIT_GRACE);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for " + name + " to exit");
+            }
+            if (process.exitValue() != 0) {
+                throw failure(new IOException(name + " exited with code " + process.exitValue()));
+            }
+            finish(true);
+            return -1;
+        }
+
+        @Override
+        IOException failure(IOException cause) {
+            String reason = killReason != null ? name + " was killed because " + killReason
+                    : cause != null ? cause.getMessage() : name + " failed";
+            String tail;
+            synchronized (stderrTail) {
+                tail = String.join("\n", stderrTail);
+            }
+            finish(false);
+            return new IOException(tail.isEmpty() ? reason : reason + ":\n" + tail, cause);
+        }
+
+        @Override
+        void abort() {
+            if (process.isAlive()) {
+                destroyTree(process);
+            }
+        }
+    }
+
+    /**
+     * A stream standing in for a process.
+     */
+    private final class Opened extends Tracked {
+        private final String host;
+
+        Opened(InputStream in, Semaphore hostSlots, String host) {
+            super(in, hostSlots);
+            this.host = host;
+        }
+
+        @Override
+        String describe() {
+            return name + " download from " + host;
+        }
+
+        @Override
+        int endOfStream() throws IOException {
+            if (killReason != null) {
+                throw failure(null);
+            }
+            finish(true);
+            return -1;
+        }
+
+        @Override
+        void abort() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                logger.debug("Closing {} failed: {}", describe(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.jaimin.justStore.utils;
+
+import com.google.api.client.http.*;
+import com.google.api.client.util.ExponentialBackOff;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Client side of Google's resumable upload protocol.
+ * <p>
+ * A session is opened once with the metadata, then the file is sent in chunks with
+ * {@code Content-Range}. The server answers every chunk with {@code 308 Resume Incomplete} and
+ * the range it has committed, until the last chunk gets the final {@code 200}/{@code 201}.
+ * After any failure the committed offset is asked for again and the upload continues from
+ * there, so a dropped connection costs at most one chunk.
+ * <p>
+ * {@code MediaHttpUploader} implements the same protocol but keeps the session URI to itself,
+ * so an upload cannot survive a restart. Here the session URI and every committed offset are
+ * reported to a {@link Listener}, and {@link #upload} continues any session given its URI.
+ * <p>
+ * A stream of unknown length can be uploaded too: chunks are sent as {@code bytes a-b/*}
+ * and the total is only named in the last one. Only the chunk in flight is buffered, so a
+ * streamed upload survives failed requests but not a restart.
+ */
+public class ResumableUploader {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableUploader.class);
+
+    // Every chunk but the last must be a multiple of this
+    public static final int CHUNK_GRANULARITY = 256 * 1024;
+
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+    private static final long MAX_BACKOFF_MILLIS = 32_000;
+
+    /**
+     * Told about upload progress, e.g. to persist it.
+     */
+    public interface Listener {
+        /**
+         * The server has stored the first {@code committedBytes} of {@code totalBytes}, which
+         * is -1 while a streamed upload has not reached its end.
+         */
+        void committed(long committedBytes, long totalBytes) throws IOException;
+    }
+
+    /**
+     * The session is gone on the server side, the upload has to start over with a new session.
+     */
+    public static class SessionExpiredException extends IOException {
+        public SessionExpiredException(String message) {
+            super(message);
+        }
+    }
+
+    private final HttpRequestFactory requestFactory;
+    private final int chunkSize;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+
+    /**
+     * @param requestFactory       Factory whose initializer adds the credentials.
+     * @param chunkSize            Bytes per request, rounded down to {@link #CHUNK_GRANULARITY}.
+     * @param maxRetries           Consecutive failed requests tolerated before giving up.
+     * @param initialBackoffMillis Wait after the first failure, doubled on every further one.
+     */
+    public ResumableUploader(HttpRequestFactory requestFactory, int chunkSize, int maxRetries, long initialBackoffMillis) {
+        this.requestFactory = requestFactory;
+        this.chunkSize = Math.max(CHUNK_GRANULARITY, chunkSize / CHUNK_GRANULARITY * CHUNK_GRANULARITY);
+        this.maxRetries = maxRetries;
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Open an upload session for {@code contentLength} bytes, or a stream of unknown length
+     * when it is negative.
+     *
+     * @return The session URI every chunk is sent to.
+     */
+    public String startSession(GenericUrl initiationUrl, HttpContent metadata, String contentType, long contentLength)
+            throws IOException {
+        HttpRequest request = requestFactory.buildPostRequest(initiationUrl, metadata);
+        request.getHeaders().set("X-Upload-Content-Type", contentType);
+        if (contentLength >= 0) {
+            request.getHeaders().set("X-Upload-Content-Length", contentLength);
+        }
+        request.setNumberOfRetries(maxRetries);
+        request.setUnsuccessfulResponseHandler(new HttpBackOffUnsuccessfulResponseHandler(new ExponentialBackOff()));
+        request.setIOExceptionHandler(new HttpBackOffIOExceptionHandler(new ExponentialBackOff()));
+
+        HttpResponse response = request.execute();
+        try {
+            String sessionUri = response.getHeaders().getLocation();
+            if (sessionUri == null) {
+                throw new IOException("Upload session response has no Location header");
+            }
+            return sessionUri;
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Send {@code file} to the session, starting from whatever the server has already committed.
+     *
+     * @return The final response holding the created resource; the caller parses and disconnects it.
+     * @throws SessionExpiredException When the server no longer knows the session.
+     */
+    public HttpResponse upload(String sessionUri, Path file, String contentType, Listener listener) throws IOException {
+        final GenericUrl url = new GenericUrl(sessionUri);
+        final long total = Files.size(file);
+        byte[] chunk = new byte[(int) Math.min(chunkSize, Math.max(total, 1))];
+
+        int failures = 0;
+        // Unknown until the server is asked, it may already hold part of the file
+        long committed = -1;
+        long reported = -1;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (true) {
+                try {
+                    HttpResponse response;
+                    boolean statusQuery = committed < 0;
+                    if (statusQuery) {
+                        response = send(url, new EmptyContent(), "bytes */" + total);
+                    } else {
+                        int length = (int) Math.min(chunk.length, total - committed);
+                        readFully(channel, chunk, committed, length);
+                        response = send(url, new ByteArrayContent(contentType, chunk, 0, length),
+                                "bytes " + committed + "-" + (committed + length - 1) + "/" + total);
+                    }
+
+                    if (response.isSuccessStatusCode()) {
+                        listener.committed(total, total);
+                        return response;
+                    }
+                    long acknowledged = committedBytes(response);
+                    response.disconnect();
+                    if (acknowledged > reported) {
+                        failures = 0;
+                        reported = acknowledged;
+                        listener.committed(acknowledged, total);
+                    } else if (!statusQuery && ++failures > maxRetries) {
+                        throw new IOException("Server stopped committing data at byte " + acknowledged);
+                    }
+                    committed = acknowledged;
+                } catch (SessionExpiredException e) {
+                    throw e;
+                } catch (IOException e) {
+                    if (!isRetryable(e) || ++failures > maxRetries) {
+                        throw e;
+                    }
+                    long backoff = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << (failures - 1));
+                    logger.warn("Upload request failed ({}), retry {}/{} in {} ms", e.getMessage(), failures,
+                            maxRetries, backoff);
+                    sleep(backoff);
+                    // Whatever was in flight may or may not have landed
+                    committed = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Send everything {@code source} yields to the session as it arrives.
+     * <p>
+     * The session must have been opened without a content length. The stream is read one
+     * chunk ahead of the server, whatever it has not committed yet is sent again.
+     *
+     * @return The final response holding the created resource; the caller parses and disconnects it.
+     * @throws SessionExpiredException When the server no longer knows the session.
+     */
+    public HttpResponse upload(String sessionUri, InputStream source, String contentType, Listener listener)
+            throws IOException {
+        final GenericUrl url = new GenericUrl(sessionUri);
+        final byte[] chunk = new byte[chunkSize];
+        // Stream offset of chunk[0], everything before it is committed
+        long chunkStart = 0;
+        int buffered = 0;
+        boolean ended = false;
+
+        int failures = 0;
+        boolean statusQuery = false;
+        long reported = 0;
+        while (true) {
+            while (!ended && buffered < chunk.length) {
+                int read = source.read(chunk, buffered, chunk.length - buffered);
+                if (read < 0) {
+                    ended = true;
+                } else {
+                    buffered += read;
+                }
+            }
+            // The total may only be named once the stream has ended
+            final String total = ended ? String.valueOf(chunkStart + buffered) : "*";
+            try {
+                HttpResponse response;
+                if (statusQuery || buffered == 0) {
+                    response = send(url, new EmptyContent(), "bytes */" + total);
+                } else {
+                    response = send(url, new ByteArrayContent(contentType, chunk, 0, buffered),
+                            "bytes " + chunkStart + "-" + (chunkStart + buffered - 1) + "/" + total);
+                }
+
+                if (response.isSuccessStatusCode()) {
+                    listener.committed(chunkStart + buffered, chunkStart + buffered);
+                    return response;
+                }
+                long acknowledged = committedBytes(response);
+                response.disconnect();
+                if (acknowledged < chunkStart || acknowledged > chunkStart + buffered) {
+                    throw new IOException("Server committed " + acknowledged + " bytes, but bytes "
+                            + chunkStart + " to " + (chunkStart + buffered) + " are the only ones left");
+                }
+                if (acknowledged > reported) {
+                    failures = 0;
+                    reported = acknowledged;
+                    listener.committed(acknowledged, -1);
+                } else if (!statusQuery && ++failures > maxRetries) {
+                    throw new IOException("Server stopped committing data at byte " + acknowledged);
+                }
+                int consumed = (int) (acknowledged - chunkStart);
+                System.arraycopy(chunk, consumed, chunk, 0, buffered - consumed);
+                buffered -= consumed;
+                chunkStart = acknowledged;
+                statusQuery = false;
+            } catch (SessionExpiredException e) {
+                throw e;
+            } catch (IOException e) {
+                if (!isRetryable(e) || ++failures > maxRetries) {
+                    throw e;
+                }
+                long backoff = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << (failures - 1));
+                logger.warn("Upload request failed ({}), retry {}/{} in {} ms", e.getMessage(), failures,
+                        maxRetries, backoff);
+                sleep(backoff);
+                statusQuery = true;
+            }
+        }
+    }
+
+    private HttpResponse send(GenericUrl url, HttpContent content, String contentRange) throws IOException {
+        HttpRequest request = requestFactory.buildPutRequest(url, content);
+        request.getHeaders().setContentRange(contentRange);
+        request.setThrowExceptionOnExecuteError(false);
+        request.setFollowRedirects(false);
+        // Retries are ours, they must re-ask for the committed offset first
+        request.setNumberOfRetries(0);
+
+        HttpResponse response = request.execute();
+        int status = response.getStatusCode();
+        if (response.isSuccessStatusCode() || status == STATUS_RESUME_INCOMPLETE) {
+            return response;
+        }
+        try {
+            if (status == 404 || status == 410) {
+                throw new SessionExpiredException("Upload session expired (" + status + ")");
+            }
+            throw new HttpResponseException(response);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    /**
+     * Bytes committed according to a 308's {@code Range: bytes=0-n} header, none without one.
+     */
+    private static long committedBytes(HttpResponse response) throws IOException {
+        String range = response.getHeaders().getRange();
+        if (range == null || range.isBlank()) {
+            return 0;
+        }
+        int dash = range.lastIndexOf('-');
+        if (dash < 0) {
+            throw new IOException("Unexpected Range header: " + range);
+        }
+        return Long.parseLong(range.substring(dash + 1).trim()) + 1;
+    }
+
+    private static boolean isRetryable(IOException e) {
+        if (e instanceof HttpResponseException responseException) {
+            int status = responseException.getStatusCode();
+            return status >= 500 || status == 429 || status == 408;
+        }
+        return !(e instanceof InterruptedIOException);
+    }
+
+    private static void readFully(FileChannel channel, byte[] buffer, long position, int length) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, length);
+        while (target.hasRemaining()) {
+            if (channel.read(target, position + target.position()) < 0) {
+                throw new IOException("File shrank while uploading it");
+            }
+        }
+    }
+
+    private static void sleep(long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Upload interrupted");
+        }
+    }
+}
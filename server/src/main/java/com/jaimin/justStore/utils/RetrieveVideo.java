@@ -1,99 +1,271 @@
 package com.jaimin.justStore.utils;
 
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoDecodeMode;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.*;
-import org.bytedeco.opencv.opencv_core.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class RetrieveVideo {
 
+    private static final Logger logger = LoggerFactory.getLogger(RetrieveVideo.class);
+
+    // MP4 boxes looked at to find the index, one further in is treated as coming after the media
+    private static final int SNIFF_LIMIT = 64 * 1024;
+
     public static byte[] decodeVideo(InputStream inputStream) throws Exception {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        decodeVideo(inputStream, baos, VideoDecoderSettings.bgr());
+        return baos.toByteArray();
+    }
+
+    /**
+     * Decode the video read from {@code inputStream} and write the payload to {@code outputStream}
+     * as frames are decoded.
+     */
+    public static void decodeVideo(InputStream inputStream, OutputStream outputStream,
+                                   VideoDecoderSettings settings) throws IOException {
+        decodeVideo(inputStream, outputStream, settings, 0, -1);
+    }
+
+    /**
+     * Decode {@code length} payload bytes starting at {@code offset} of the video read from
+     * {@code inputStream}, see {@link #decodeVideo(Path, OutputStream, VideoDecoderSettings, long, long)}.
+     * <p>
+     * From offset 0 the stream is decoded as it arrives without buffering it, so heap use stays at
+     * a few frames whatever the video size. A range further in needs a seek, which a pipe cannot
+     * do, and an MP4 with its index after the media cannot be read front to back, so those are
+     * spooled to a temporary file first and decoded from there.
+     *
+     * @param length Bytes to decode, negative means up to the end of the payload.
+     */
+    public static void decodeVideo(InputStream inputStream, OutputStream outputStream,
+                                   VideoDecoderSettings settings, long offset, long length) throws IOException {
+        PushbackInputStream video = new PushbackInputStream(inputStream, SNIFF_LIMIT);
+        if (offset == 0 && isStreamable(video)) {
+            // Maximum size 0: no mark buffer holding everything read, and no seeking
+            decode(new FFmpegFrameGrabber(video, 0), false, outputStream, settings, offset, length);
+            return;
+        }
+        Path spooled = Files.createTempFile("juststore-video-", ".mp4");
+        try {
+            try (OutputStream out = Files.newOutputStream(spooled)) {
+                video.transferTo(out);
+            }
+            decodeVideo(spooled, outputStream, settings, offset, length);
+        } finally {
+            Files.deleteIfExists(spooled);
+        }
+    }
+
+    /**
+     * Decode {@code length} payload bytes starting at {@code offset} of a video file and write
+     * them to {@code outputStream} as frames are decoded.
+     * <p>
+     * The header frame maps the offset to the first data frame covering it. The grabber seeks
+     * straight there, so only the frames covering the range are decoded. The video may be a
+     * smaller rendition than it was encoded at, as long as every block still spans a pixel.
+     * A grabber thread demuxes and decodes frames into a bounded ring of {@link DecodedFrame}s,
+     * a pool of workers extracts bits from them in parallel and the calling thread writes the
+     * extracted chunks in frame order.
+     *
+     * @param length Bytes to decode, negative means up to the end of the payload.
+     */
+    public static void decodeVideo(Path video, OutputStream outputStream, VideoDecoderSettings settings,
+                                   long offset, long length) throws IOException {
+        decode(new FFmpegFrameGrabber(video.toFile()), true, outputStream, settings, offset, length);
+    }
 
-        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(inputStream);
+    private static void decode(FFmpegFrameGrabber grabber, boolean seekable, OutputStream outputStream,
+                               VideoDecoderSettings settings, long offset, long length) throws IOException {
+        if (settings.mode() == VideoDecodeMode.LUMA) {
+            // Only Y carries data, skip the colour conversion entirely
+            grabber.setPixelFormat(avutil.AV_PIX_FMT_GRAY8);
+        }
         grabber.start();
 
-        try (BufferedOutputStream bos = new BufferedOutputStream(baos)) {
+        final int threads = Math.max(1, settings.workerThreads());
+        // Frames decoded, being extracted or being written never exceed the number of slots
+        final int capacity = threads * 2;
+        ExecutorService workers = Executors.newFixedThreadPool(threads,
+                Thread.ofPlatform().name("frame-extract-", 0).daemon().factory());
+
+        // The caller owns outputStream, so it is only flushed here
+        BufferedOutputStream bos = new BufferedOutputStream(outputStream);
+        try {
             Frame frame = grabber.grabImage();
             if (frame == null) {
                 throw new IOException("No frames found in video");
             }
 
-            int totalBytes = getMetadataFromFrame(frame);
+            DecodedFrame headerFrame = new DecodedFrame();
+            headerFrame.copyFrom(frame);
+            final FrameHeader header = new PackedFrameReader().readHeader(headerFrame);
+            logger.debug("Frame header : {}", header);
 
-            while ((frame = grabber.grabImage()) != null) {
-                frameToByteArray(frame, bos, totalBytes);
+            // A rendition below the encoded size still works while every block spans a pixel
+            double scale = Math.min((double) headerFrame.getWidth() / header.width(),
+                    (double) headerFrame.getHeight() / header.height());
+            if (scale * header.blockSize() < 1) {
+                throw new IOException("Video is " + headerFrame.getWidth() + "x" + headerFrame.getHeight()
+                        + ", too small for the " + header.blockSize() + " pixel blocks it was encoded with at "
+                        + header.width() + "x" + header.height());
             }
-            bos.flush();
-        } finally {
-            grabber.stop();
-            grabber.release();
-        }
 
-        return baos.toByteArray();
-    }
+            if (header.symbolMode() == SymbolMode.RGB3 && headerFrame.getChannels() == 1) {
+                throw new IOException("Video carries colour symbols, it cannot be decoded in " + settings.mode() + " mode");
+            }
 
-    static int getMetadataFromFrame(Frame frame) {
-        Mat mat = new OpenCVFrameConverter.ToMat().convert(frame);
+            final long end = length < 0 ? header.payloadLength() : offset + length;
+            if (offset < 0 || offset > end || end > header.payloadLength()) {
+                throw new IOException("Range " + offset + "-" + end + " is outside the payload of "
+                        + header.payloadLength() + " bytes");
+            }
+            if (offset == end) {
+                bos.flush();
+                return;
+            }
 
-        int totalBytes = 0;
-        for (int k = 0; k < 32; k++) {
-            int[] rgb = getPixelRGB(mat, k, 0);
-            int red = rgb[0];
-            int green = rgb[1];
-            int blue = rgb[2];
+            final int bytesPerFrame = header.bytesPerFrame();
+            final long firstFrame = offset / bytesPerFrame;
+            final long lastFrame = (end - 1) / bytesPerFrame;
+            if (firstFrame > 0) {
+                if (!seekable) {
+                    throw new IOException("Data frame " + firstFrame + " needs a seek, the video stream cannot seek");
+                }
+                // Video frame 0 is the header, data frame i is video frame i + 1
+                seekToFrame(grabber, firstFrame + 1);
+            }
 
-            boolean isWhite = (red > 128) && (green > 128) && (blue > 128);
-            if (isWhite) {
-                totalBytes |= (1 << k);
+            BlockingQueue<ExtractSlot> freeSlots = new ArrayBlockingQueue<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                freeSlots.add(new ExtractSlot(bytesPerFrame, settings));
             }
+
+            // Next payload offset to write, only touched by the calling thread
+            long[] position = {offset};
+            long[] frameStart = {firstFrame * bytesPerFrame};
+            OrderedPipeline.<ExtractSlot>run(workers, capacity, "frame-grabber",
+                    submitter -> {
+                        for (long i = firstFrame; i <= lastFrame; i++) {
+                            Frame next = grabber.grabImage();
+                            if (next == null) {
+                                throw new EOFException("Video ended at data frame " + i + " of " + header.dataFrames());
+                            }
+                            ExtractSlot slot = freeSlots.take();
+                            slot.frame.copyFrom(next);
+                            submitter.submit(() -> {
+                                slot.length = slot.reader.readFrame(slot.frame, header, slot.bytes);
+                                return slot;
+                            });
+                        }
+                    },
+                    slot -> {
+                        int from = (int) (position[0] - frameStart[0]);
+                        int to = (int) Math.min(slot.length, end - frameStart[0]);
+                        bos.write(slot.bytes, from, to - from);
+                        position[0] += to - from;
+                        frameStart[0] += bytesPerFrame;
+                        freeSlots.add(slot);
+                    });
+
+            if (position[0] < end) {
+                throw new EOFException("Video ended with " + (end - position[0]) + " bytes still missing");
+            }
+            bos.flush();
+        } finally {
+            workers.shutdownNow();
+            grabber.stop();
+            grabber.release();
         }
-        System.out.println("Total length : " + totalBytes);
-        return totalBytes;
     }
 
-    static void frameToByteArray(Frame frame, BufferedOutputStream bos, int totalBytes) throws IOException {
-        Mat mat = new OpenCVFrameConverter.ToMat().convert(frame);
-
-        final int height = mat.rows();
-        final int width = mat.cols();
-        byte[] bytes = new byte[width / 8];
-
-        for (int i = 0; i < height; i++) {
-            for (int j = 0; j < width; j += 8) {
-                byte myByte = 0;
-                for (int k = 0; k < 8; k++) {
-                    int[] rgb = getPixelRGB(mat, j + k, i);
-                    int red = rgb[0];
-                    int green = rgb[1];
-                    int blue = rgb[2];
-
-                    boolean isWhite = (red > 128) && (green > 128) && (blue > 128);
-                    if (isWhite) {
-                        myByte |= (byte) (1 << (7 - k));
-                    }
+    /**
+     * Whether the video can be demuxed front to back. An MP4 whose index ({@code moov}) comes
+     * after its media data ({@code mdat}) cannot, anything that is not an MP4 is assumed to.
+     * The bytes looked at are pushed back.
+     */
+    private static boolean isStreamable(PushbackInputStream in) throws IOException {
+        byte[] head = new byte[SNIFF_LIMIT];
+        int read = 0;
+        boolean streamable = true;
+        try {
+            int position = 0;
+            while (true) {
+                read += in.readNBytes(head, read, Math.max(0, Math.min(SNIFF_LIMIT, position + 8) - read));
+                if (read < position + 8) {
+                    break;
                 }
-
-                bytes[j / 8] = myByte;
-                totalBytes--;
-                if (totalBytes == 0) {
-                    bos.write(Arrays.copyOfRange(bytes, 0, j / 8 + 1));
-                    return;
+                long size = ((head[position] & 0xFFL) << 24) | ((head[position + 1] & 0xFF) << 16)
+                        | ((head[position + 2] & 0xFF) << 8) | (head[position + 3] & 0xFF);
+                String type = new String(head, position + 4, 4, StandardCharsets.US_ASCII);
+                if ((position == 0 && !type.equals("ftyp")) || type.equals("moov") || type.equals("moof")) {
+                    break;
                 }
+                // Media first, or boxes too large to look past
+                if (type.equals("mdat") || size < 8 || position + size + 8 > SNIFF_LIMIT) {
+                    streamable = false;
+                    break;
+                }
+                position += (int) size;
             }
-            bos.write(bytes);
+        } finally {
+            in.unread(head, 0, read);
         }
+        return streamable;
     }
 
-    private static int[] getPixelRGB(Mat mat, int x, int y) {
-        byte[] data = new byte[3];
-        mat.ptr(y, x).get(data);
+    /**
+     * Position the grabber so the next grab returns video frame {@code frameNumber}.
+     * <p>
+     * Seeking lands on the keyframe before the target and decodes forward from there. When the
+     * seek fails or lands anywhere else, the video is decoded again from its start and frames
+     * are dropped up to the one before the target, since a wrong frame means wrong bytes.
+     */
+    private static void seekToFrame(FFmpegFrameGrabber grabber, long frameNumber) throws IOException {
+        int target = Math.toIntExact(frameNumber);
+        try {
+            grabber.setVideoFrameNumber(target);
+            if (grabber.getFrameNumber() == target) {
+                return;
+            }
+            logger.warn("Seek to frame {} landed on frame {}, decoding forward from the start instead", target,
+                    grabber.getFrameNumber());
+        } catch (FrameGrabber.Exception e) {
+            logger.warn("Seek to frame {} failed, decoding forward from the start instead: {}", target,
+                    e.getMessage());
+        }
+        grabber.restart();
+        // After a grab the frame number is that of the frame just returned, frame 0 is the header
+        do {
+            if (grabber.grabImage() == null) {
+                throw new EOFException("Video ended before frame " + target);
+            }
+        } while (grabber.getFrameNumber() < target - 1);
+    }
 
-        int blue = data[0] & 0xFF;
-        int green = data[1] & 0xFF;
-        int red = data[2] & 0xFF;
+    /**
+     * One entry of the decode ring: a frame snapshot, its extracted bytes and the reader doing it.
+     */
+    private static final class ExtractSlot {
+        private final DecodedFrame frame = new DecodedFrame();
+        private final PackedFrameReader reader;
+        private final byte[] bytes;
+        private int length;
 
-        return new int[]{red, green, blue};
+        private ExtractSlot(int bytesPerFrame, VideoDecoderSettings settings) {
+            this.reader = new PackedFrameReader(settings.adaptiveThreshold(), settings.blockSampling());
+            this.bytes = new byte[bytesPerFrame];
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,57 @@
+package com.jaimin.justStore.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Plain Java kernels, used when the Vector API is not available.
+ */
+public class ScalarBitKernels implements BitKernels {
+
+    // 8 luma pixels for every possible packed byte, written as one little-endian long
+    private static final long[] GRAY_PATTERNS = buildGrayPatterns();
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    @Override
+    public void unpackToLuma(byte[] packed, int packedLength, byte[] luma) {
+        unpackToLuma(packed, 0, packedLength, luma);
+    }
+
+    static void unpackToLuma(byte[] packed, int from, int to, byte[] luma) {
+        for (int i = from; i < to; i++) {
+            LONG_VIEW.set(luma, i * 8, GRAY_PATTERNS[packed[i] & 0xFF]);
+        }
+    }
+
+    @Override
+    public int packLuma(byte[] luma, int lumaOffset, int byteCount, int threshold, byte[] out, int outIndex) {
+        return packLumaRange(luma, lumaOffset, byteCount, threshold, out, outIndex);
+    }
+
+    static int packLumaRange(byte[] luma, int lumaOffset, int byteCount, int threshold, byte[] out, int outIndex) {
+        int pixel = lumaOffset;
+        for (int x = 0; x < byteCount; x++) {
+            int value = 0;
+            for (int k = 0; k < 8; k++) {
+                value = (value << 1) | ((luma[pixel++] & 0xFF) > threshold ? 1 : 0);
+            }
+            out[outIndex++] = (byte) value;
+        }
+        return outIndex;
+    }
+
+    private static long[] buildGrayPatterns() {
+        long[] patterns = new long[256];
+        for (int value = 0; value < 256; value++) {
+            long pattern = 0;
+            for (int bit = 0; bit < 8; bit++) {
+                if (((value >> (7 - bit)) & 1) == 1) {
+                    pattern |= 0xFFL << (bit * 8);
+                }
+            }
+            patterns[value] = pattern;
+        }
+        return patterns;
+    }
+}
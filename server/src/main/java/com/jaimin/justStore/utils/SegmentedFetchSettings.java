@@ -0,0 +1,19 @@
+package com.jaimin.justStore.utils;
+
+/**
+ * Fetching videos as parallel byte ranges, see {@link SegmentedFetcher}.
+ *
+ * @param enabled          Resolve the media URL with yt-dlp and fetch it in segments, otherwise
+ *                         yt-dlp downloads the video itself as one stream.
+ * @param segmentSizeBytes Bytes per range request.
+ * @param parallelism      Range requests in flight per download, each holds a segment in memory,
+ *                         as does the segment being read.
+ * @param maxRetries       Retries of a failed segment.
+ */
+public record SegmentedFetchSettings(
+        boolean enabled,
+        int segmentSizeBytes,
+        int parallelism,
+        int maxRetries
+) {
+}
@@ -0,0 +1,220 @@
+package com.jaimin.justStore.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Downloads a file over HTTP as parallel byte-range requests and reads it back in order.
+ * <p>
+ * A single connection to a video CDN is usually throttled well below what the link can do.
+ * Here the file is split into segments of {@code segmentSize} bytes, up to
+ * {@code parallelism} of them are fetched at once, and the returned stream hands them out in
+ * file order, fetching the next one as each is consumed. So at most the segment being read plus
+ * {@code parallelism} fetched or fetching ones are held in memory, and a consumer that reads
+ * slowly slows the fetch down instead of growing the buffer. A failed segment is retried with
+ * exponential backoff. A server that ignores {@code Range} is read as one plain stream.
+ */
+public class SegmentedFetcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentedFetcher.class);
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+)");
+    private static final Duration SEGMENT_TIMEOUT = Duration.ofMinutes(2);
+
+    private final HttpClient httpClient;
+    private final int segmentSize;
+    private final int parallelism;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+
+    public SegmentedFetcher(HttpClient httpClient, int segmentSize, int parallelism, int maxRetries,
+                            long initialBackoffMillis) {
+        this.httpClient = httpClient;
+        this.segmentSize = Math.max(1, segmentSize);
+        this.parallelism = Math.max(1, parallelism);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * Start fetching {@code uri}. The first segment is fetched before this returns, which also
+     * tells the size of the file.
+     *
+     * @return The file, closing it early stops the fetch.
+     */
+    public InputStream open(URI uri) throws IOException {
+        HttpResponse<InputStream> first = send(uri, 0, segmentSize - 1L, HttpResponse.BodyHandlers.ofInputStream());
+        if (first.statusCode() == 200) {
+            logger.info("{} ignores range requests, reading it in one piece", uri.getHost());
+            return first.body();
+        }
+        if (first.statusCode() == 416) {
+            first.body().close();
+            return InputStream.nullInputStream();
+        }
+        byte[] firstSegment;
+        try (InputStream body = first.body()) {
+            if (first.statusCode() != 206) {
+                throw new IOException("Fetching " + uri.getHost() + " failed with HTTP " + first.statusCode());
+            }
+            firstSegment = body.readAllBytes();
+        }
+        long total = totalSize(first, 0);
+        if (firstSegment.length != Math.min(segmentSize, total)) {
+            throw new IOException("First segment has " + firstSegment.length + " bytes");
+        }
+        return new SegmentStream(uri, total, firstSegment);
+    }
+
+    private byte[] fetch(URI uri, long start, long end) throws IOException, InterruptedException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                HttpResponse<byte[]> response = send(uri, start, end, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() != 206) {
+                    throw new IOException("HTTP " + response.statusCode());
+                }
+                totalSize(response, start);
+                if (response.body().length != end - start + 1) {
+                    throw new IOException("Got " + response.body().length + " of " + (end - start + 1) + " bytes");
+                }
+                return response.body();
+            } catch (IOException e) {
+                if (attempt >= maxRetries) {
+                    throw new IOException("Fetching bytes " + start + "-" + end + " failed: " + e.getMessage(), e);
+                }
+                logger.debug("Fetching bytes {}-{} failed, retrying: {}", start, end, e.getMessage());
+                Thread.sleep(initialBackoffMillis << Math.min(attempt, 16));
+            }
+        }
+    }
+
+    private <T> HttpResponse<T> send(URI uri, long start, long end, HttpResponse.BodyHandler<T> bodyHandler)
+            throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .header("Range", "bytes=" + start + "-" + end)
+                .timeout(SEGMENT_TIMEOUT)
+                .GET()
+                .build();
+        try {
+            return httpClient.send(request, bodyHandler);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while fetching " + uri.getHost());
+        }
+    }
+
+    /**
+     * Check the {@code Content-Range} of a 206 response starts where asked.
+     *
+     * @return The size of the whole file.
+     */
+    private static long totalSize(HttpResponse<?> response, long expectedStart) throws IOException {
+        String header = response.headers().firstValue("Content-Range").orElse("");
+        Matcher matcher = CONTENT_RANGE.matcher(header);
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) != expectedStart) {
+            throw new IOException("Unexpected Content-Range '" + header + "' for a range from " + expectedStart);
+        }
+        return Long.parseLong(matcher.group(3));
+    }
+
+    /**
+     * Hands out segments in order while the ones after it are fetched.
+     */
+    private final class SegmentStream extends InputStream {
+        private final URI uri;
+        private final long total;
+        private final ExecutorService fetchers =
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("segment-fetch-", 0).factory());
+        private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        // Reused by read(), so single bytes do not allocate
+        private final byte[] single = new byte[1];
+
+        private long nextStart;
+        private InputStream current;
+        private volatile boolean closed;
+
+        SegmentStream(URI uri, long total, byte[] firstSegment) {
+            this.uri = uri;
+            this.total = total;
+            this.nextStart = firstSegment.length;
+            this.current = new ByteArrayInputStream(firstSegment);
+            fillPending();
+        }
+
+        private void fillPending() {
+            while (pending.size() < parallelism && nextStart < total) {
+                long start = nextStart;
+                long end = Math.min(total, start + segmentSize) - 1;
+                pending.add(fetchers.submit(() -> fetch(uri, start, end)));
+                nextStart = end + 1;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                int read = current.read(b, off, len);
+                if (read > 0) {
+                    return read;
+                }
+                if (closed) {
+                    throw new IOException("Fetch of " + uri.getHost() + " was closed");
+                }
+                Future<byte[]> next = pending.poll();
+                if (next == null) {
+                    return -1;
+                }
+                current = new ByteArrayInputStream(await(next));
+                fillPending();
+            }
+        }
+
+        private byte[] await(Future<byte[]> segment) throws IOException {
+            try {
+                return segment.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while fetching " + uri.getHost());
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException ioException
+                        ? ioException
+                        : new IOException("Fetching " + uri.getHost() + " failed", e.getCause());
+            }
+        }
+
+        /**
+         * Stop the fetch, also from another thread than the reader: a read waiting for a segment
+         * fails once its fetch is interrupted.
+         */
+        @Override
+        public void close() {
+            closed = true;
+            fetchers.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.jaimin.justStore.utils;
+
+/**
+ * How large files are split across several videos.
+ *
+ * @param shardSizeBytes      Payload bytes per shard video, 0 turns sharding off.
+ * @param uploadParallelism   Shards encoded and uploaded at the same time.
+ * @param downloadParallelism Shards downloaded and decoded at the same time.
+ */
+public record ShardSettings(
+        long shardSizeBytes,
+        int uploadParallelism,
+        int downloadParallelism
+) {
+
+    public boolean shouldShard(long fileSize) {
+        return shardSizeBytes > 0 && fileSize > shardSizeBytes;
+    }
+
+    public int shardCount(long fileSize) {
+        return Math.toIntExact((fileSize + shardSizeBytes - 1) / shardSizeBytes);
+    }
+}
@@ -0,0 +1,283 @@
+package com.jaimin.justStore.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte pipe from one writer thread to one reader thread that spills to disk when the reader
+ * falls behind.
+ * <p>
+ * Up to {@code memoryLimit} bytes wait on the heap. Beyond that, bytes go to a temporary file
+ * of at most {@code spillLimit} bytes, and only when both are full does the writer block. The
+ * file is created on the first spill and reused from its start once the reader has caught up.
+ * Either side can {@link #fail} the pipe, which wakes the other with an {@link IOException}.
+ */
+public class SpillingPipe implements Closeable {
+
+    private final long memoryLimit;
+    private final long spillLimit;
+    private final Path spillDir;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readable = lock.newCondition();
+    private final Condition writable = lock.newCondition();
+
+    private final ArrayDeque<byte[]> blocks = new ArrayDeque<>();
+    private int headPosition;
+    private long memoryBytes;
+
+    private FileChannel spill;
+    private long spillRead;
+    private long spillWrite;
+    private long spilledTotal;
+
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private Throwable failure;
+
+    /**
+     * @param memoryLimit Bytes held on the heap before spilling.
+     * @param spillLimit  Bytes the spill file may hold, 0 to never spill and block instead.
+     * @param spillDir    Directory of the spill file.
+     */
+    public SpillingPipe(long memoryLimit, long spillLimit, Path spillDir) {
+        this.memoryLimit = Math.max(1, memoryLimit);
+        this.spillLimit = Math.max(0, spillLimit);
+        this.spillDir = spillDir;
+    }
+
+    public OutputStream sink() {
+        return new OutputStream() {
+            // Reused by write(int), so single bytes do not allocate
+            private final byte[] single = new byte[1];
+
+            @Override
+            public void write(int b) throws IOException {
+                single[0] = (byte) b;
+                SpillingPipe.this.write(single, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                SpillingPipe.this.write(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closeWriter();
+            }
+        };
+    }
+
+    public InputStream source() {
+        return new InputStream() {
+            // Reused by read(), so single bytes do not allocate
+            private final byte[] single = new byte[1];
+
+            @Override
+            public int read() throws IOException {
+                return SpillingPipe.this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return SpillingPipe.this.read(b, off, len);
+            }
+
+            @Override
+            public void close() {
+                closeReader();
+            }
+        };
+    }
+
+    /**
+     * Abort the pipe, the other side gets an {@link IOException} with {@code cause}.
+     */
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            readable.signalAll();
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Bytes that went through the spill file so far.
+     */
+    public long spilledBytes() {
+        lock.lock();
+        try {
+            return spilledTotal;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            while (len > 0) {
+                checkFailure();
+                if (readerClosed) {
+                    throw new IOException("Pipe closed by its reader");
+                }
+                int written;
+                // Once bytes are spilled, later bytes must follow them there to keep the order
+                if (spillWrite == spillRead && memoryBytes < memoryLimit) {
+                    written = (int) Math.min(len, memoryLimit - memoryBytes);
+                    blocks.add(Arrays.copyOfRange(b, off, off + written));
+                    memoryBytes += written;
+                } else if (spillWrite < spillLimit) {
+                    written = (int) Math.min(len, spillLimit - spillWrite);
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, written);
+                    while (buffer.hasRemaining()) {
+                        spillChannel().write(buffer, spillWrite + buffer.position() - off);
+                    }
+                    spillWrite += written;
+                    spilledTotal += written;
+                } else {
+                    await(writable);
+                    continue;
+                }
+                off += written;
+                len -= written;
+                readable.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            while (true) {
+                checkFailure();
+                if (!blocks.isEmpty()) {
+                    byte[] head = blocks.peek();
+                    int read = Math.min(len, head.length - headPosition);
+                    System.arraycopy(head, headPosition, b, off, read);
+                    headPosition += read;
+                    if (headPosition == head.length) {
+                        blocks.poll();
+                        headPosition = 0;
+                    }
+                    memoryBytes -= read;
+                    writable.signalAll();
+                    return read;
+                }
+                if (spillRead < spillWrite) {
+                    int read = (int) Math.min(len, spillWrite - spillRead);
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, read);
+                    while (buffer.hasRemaining()) {
+                        if (spill.read(buffer, spillRead + buffer.position() - off) < 0) {
+                            throw new IOException("Spill file is shorter than what was written to it");
+                        }
+                    }
+                    spillRead += read;
+                    if (spillRead == spillWrite) {
+                        // Caught up, the file is reused from its start
+                        spillRead = 0;
+                        spillWrite = 0;
+                    }
+                    writable.signalAll();
+                    return read;
+                }
+                if (writerClosed) {
+                    return -1;
+                }
+                await(readable);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeWriter() {
+        lock.lock();
+        try {
+            writerClosed = true;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void closeReader() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            blocks.clear();
+            memoryBytes = 0;
+            writable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private FileChannel spillChannel() throws IOException {
+        if (spill == null) {
+            Files.createDirectories(spillDir);
+            spill = FileChannel.open(Files.createTempFile(spillDir, "spill_", ".bin"),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        return spill;
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure instanceof IOException ioException
+                    ? new IOException(ioException.getMessage(), ioException)
+                    : new IOException("Pipe failed: " + failure.getMessage(), failure);
+        }
+    }
+
+    private void await(Condition condition) throws InterruptedIOException {
+        try {
+            condition.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on the pipe");
+        }
+    }
+
+    /**
+     * Release the spill file. Both sides must be done with the pipe.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            writerClosed = true;
+            readerClosed = true;
+            blocks.clear();
+            if (spill != null) {
+                spill.close();
+                spill = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+}
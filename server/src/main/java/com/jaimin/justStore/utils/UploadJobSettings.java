@@ -0,0 +1,52 @@
+package com.jaimin.justStore.utils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * How accepted uploads are processed in the background.
+ *
+ * @param stagingDir               Where uploads are kept until their videos are on YouTube.
+ * @param encodeConcurrency        Videos rendered at the same time, each with its own render threads.
+ * @param renderThreads            Render threads shared by the videos rendered at the same time.
+ * @param uploadConcurrency        Videos sent to YouTube at the same time.
+ * @param processingPollInterval   How often YouTube is asked whether processing finished.
+ * @param processingTimeout        Give up waiting for processing after this long and mark the file uploaded.
+ * @param uploadChunkSizeBytes     Bytes sent per resumable upload request, at most this much is resent after a failure.
+ * @param uploadMaxRetries         Consecutive failed upload requests tolerated before the job fails.
+ * @param streamUploads            Upload videos while they are encoded instead of writing them to disk first.
+ * @param streamBufferBytes        Encoded bytes held in memory while the upload falls behind the encoder.
+ * @param streamSpillBytes         Encoded bytes spilled to disk once the memory buffer is full, 0 to never spill.
+ */
+public record UploadJobSettings(
+        Path stagingDir,
+        int encodeConcurrency,
+        int renderThreads,
+        int uploadConcurrency,
+        Duration processingPollInterval,
+        Duration processingTimeout,
+        int uploadChunkSizeBytes,
+        int uploadMaxRetries,
+        boolean streamUploads,
+        long streamBufferBytes,
+        long streamSpillBytes
+) {
+
+    /**
+     * Render threads of one video, its share of {@link #renderThreads}.
+     */
+    public int renderThreadsPerEncode() {
+        return Math.max(1, renderThreads / encodeConcurrency);
+    }
+
+    public Path stagedFile(Long fileId) {
+        return stagingDir.resolve("upload_" + fileId + ".bin");
+    }
+
+    /**
+     * Encoded video of one part of a file, kept until its resumable upload finishes.
+     */
+    public Path stagedVideo(Long fileId, int partIndex) {
+        return stagingDir.resolve("video_" + fileId + "_" + partIndex + ".mp4");
+    }
+}
@@ -0,0 +1,63 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.BlockSampling;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoDecodeMode;
+
+/**
+ * How decoded frames are turned back into bits.
+ *
+ * @param mode              Pixel format requested from FFmpeg.
+ * @param adaptiveThreshold Pick the black/white threshold per frame from its histogram instead of the fixed 128.
+ * @param workerThreads     Threads extracting bits from decoded frames in parallel.
+ * @param blockSampling     How bits drawn as blocks, or frames at another size, are read.
+ * @param minBlockPixels    Decoded pixels a block must still span for a lower resolution rendition
+ *                          to be downloaded, 0 to always download the best one.
+ */
+public record VideoDecoderSettings(
+        VideoDecodeMode mode,
+        boolean adaptiveThreshold,
+        int workerThreads,
+        BlockSampling blockSampling,
+        double minBlockPixels
+) {
+
+    /**
+     * BGR frames with the fixed threshold, the original behaviour.
+     */
+    public static VideoDecoderSettings bgr() {
+        return new VideoDecoderSettings(VideoDecodeMode.BGR, false, Runtime.getRuntime().availableProcessors(),
+                BlockSampling.CENTER, 0);
+    }
+
+    /**
+     * Same settings with another number of worker threads.
+     */
+    public VideoDecoderSettings withWorkerThreads(int workerThreads) {
+        return new VideoDecoderSettings(mode, adaptiveThreshold, workerThreads, blockSampling, minBlockPixels);
+    }
+
+    /**
+     * Settings able to read {@code symbolMode} symbols: colour symbols need BGR frames.
+     */
+    public VideoDecoderSettings forSymbolMode(SymbolMode symbolMode) {
+        if (symbolMode != SymbolMode.RGB3 || mode == VideoDecodeMode.BGR) {
+            return this;
+        }
+        return new VideoDecoderSettings(VideoDecodeMode.BGR, adaptiveThreshold, workerThreads, blockSampling,
+                minBlockPixels);
+    }
+
+    /**
+     * Smallest rendition height that still resolves blocks of {@code blockSize} pixels in a video
+     * encoded {@code encodedHeight} pixels high.
+     *
+     * @return 0 when only the full resolution will do.
+     */
+    public int minVideoHeight(int encodedHeight, int blockSize) {
+        if (minBlockPixels <= 0 || blockSize <= minBlockPixels) {
+            return 0;
+        }
+        return (int) Math.ceil(encodedHeight * minBlockPixels / blockSize);
+    }
+}
@@ -0,0 +1,35 @@
+package com.jaimin.justStore.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Turns rendered frames into a video file.
+ * <p>
+ * {@link CreateVideoUtil} renders every frame into a {@link PackedFrameWriter} using the
+ * pixel format the backend asks for, then hands frames to {@link #encode} in order from a
+ * single thread. {@link #close()} must release native resources even if {@link #finish()}
+ * was never reached.
+ * <p>
+ * Backends that can write a container without seeking back into it also accept an
+ * {@link OutputStream}, so the video can be uploaded while it is still being encoded, see
+ * {@link VideoEncoderSettings#supportsStreaming()}.
+ */
+public interface VideoEncoderBackend extends Closeable {
+
+    PackedFrameWriter.PixelFormat getPixelFormat();
+
+    void start(String outputPath, int width, int height, int frameRate) throws IOException;
+
+    /**
+     * Start writing the video to a stream that cannot seek. The stream is not closed.
+     */
+    default void start(OutputStream output, int width, int height, int frameRate) throws IOException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " can only write to a file");
+    }
+
+    void encode(PackedFrameWriter frame) throws IOException;
+
+    void finish() throws IOException;
+}
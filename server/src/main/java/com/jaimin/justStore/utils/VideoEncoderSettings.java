@@ -0,0 +1,77 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+
+/**
+ * Encoder backend and codec settings.
+ *
+ * @param type        Which backend produces the video.
+ * @param codec       FFmpeg encoder name, e.g. libx264. Ignored by jcodec.
+ * @param preset      Encoder preset, e.g. veryfast. Ignored by jcodec.
+ * @param crf         Constant rate factor, negative to use the bitrate instead. Ignored by jcodec.
+ * @param bitrateKbps Target bitrate when crf is not used. Ignored by jcodec.
+ * @param gopSize     Frames between key frames. Ignored by jcodec.
+ * @param blockSize   Side of the square pixel block every payload symbol is drawn as.
+ * @param symbolMode  How many bits a block carries, see {@link SymbolMode}.
+ * @param compression How the payload was compressed, recorded in the frame header.
+ */
+public record VideoEncoderSettings(
+        VideoEncoderType type,
+        String codec,
+        String preset,
+        int crf,
+        int bitrateKbps,
+        int gopSize,
+        int blockSize,
+        SymbolMode symbolMode,
+        Compression compression
+) {
+
+    /**
+     * Pure Java jcodec encoder, the original behaviour.
+     */
+    public static VideoEncoderSettings jcodec() {
+        return new VideoEncoderSettings(VideoEncoderType.JCODEC, null, null, -1, 0, 0, 1, SymbolMode.BW1,
+                Compression.NONE);
+    }
+
+    /**
+     * Same settings drawing bits as {@code blockSize} pixel blocks.
+     */
+    public VideoEncoderSettings withBlockSize(int blockSize) {
+        return new VideoEncoderSettings(type, codec, preset, crf, bitrateKbps, gopSize, blockSize, symbolMode,
+                compression);
+    }
+
+    /**
+     * Same settings drawing {@code symbolMode} symbols.
+     */
+    public VideoEncoderSettings withSymbolMode(SymbolMode symbolMode) {
+        return new VideoEncoderSettings(type, codec, preset, crf, bitrateKbps, gopSize, blockSize, symbolMode,
+                compression);
+    }
+
+    /**
+     * Same settings for a payload compressed with {@code compression}.
+     */
+    public VideoEncoderSettings withCompression(Compression compression) {
+        return new VideoEncoderSettings(type, codec, preset, crf, bitrateKbps, gopSize, blockSize, symbolMode,
+                compression);
+    }
+
+    /**
+     * Whether the backend can write to a stream instead of a file.
+     */
+    public boolean supportsStreaming() {
+        return type == VideoEncoderType.FFMPEG;
+    }
+
+    public VideoEncoderBackend createBackend() {
+        return switch (type) {
+            case JCODEC -> new JcodecEncoderBackend();
+            case FFMPEG -> new FFmpegEncoderBackend(this);
+        };
+    }
+}
@@ -1,21 +1,24 @@
 package com.jaimin.justStore.utils;
 
 import com.google.api.client.googleapis.auth.oauth2.GoogleCredential;
-import com.google.api.client.http.InputStreamContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpResponse;
 import com.google.api.client.http.javanet.NetHttpTransport;
+import com.google.api.client.http.json.JsonHttpContent;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.gson.GsonFactory;
 import com.google.api.services.youtube.YouTube;
 import com.google.api.services.youtube.model.Video;
+import com.google.api.services.youtube.model.VideoListResponse;
 import com.google.api.services.youtube.model.VideoSnippet;
 import com.google.api.services.youtube.model.VideoStatus;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Set;
 
@@ -31,6 +34,14 @@ public class YouTubeApi {
     private static final String APPLICATION_NAME = "JustStore - File Storage";
     private static final JsonFactory JSON_FACTORY = GsonFactory.getDefaultInstance();
 
+    // Same endpoint videos.insert uploads to, with the protocol driven by ResumableUploader
+    private static final String RESUMABLE_UPLOAD_URL =
+            "https://www.googleapis.com/upload/youtube/v3/videos?uploadType=resumable&part=snippet,status&notifySubscribers=false";
+    private static final String VIDEO_CONTENT_TYPE = "video/*";
+    private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+    private final NetHttpTransport httpTransport;
+    private final GoogleCredential credential;
     private final YouTube youtubeService;
 
     /**
@@ -40,27 +51,110 @@ public class YouTubeApi {
      * @param accessToken   The OAuth access token.
      */
     public YouTubeApi(NetHttpTransport httpTransport, String accessToken) {
-        GoogleCredential credential = new GoogleCredential().setAccessToken(accessToken);
+        this.httpTransport = httpTransport;
+        this.credential = new GoogleCredential().setAccessToken(accessToken);
         this.youtubeService = new YouTube.Builder(httpTransport, JSON_FACTORY, credential)
                 .setApplicationName(APPLICATION_NAME)
                 .build();
     }
 
     /**
-     * Upload a video to YouTube.
+     * Upload a video to YouTube through a resumable session.
+     * <p>
+     * A new session is opened when {@code sessionUri} is {@code null}. Otherwise the upload
+     * continues that session from the last byte YouTube acknowledged; if YouTube has dropped it
+     * in the meantime, the video is sent again in a fresh session.
      *
-     * @param videoFilePath Path to the video file to upload.
-     * @param title         Title for the YouTube video.
-     * @param description   Description for the YouTube video.
-     * @param tags          Tags for the YouTube video.
+     * @param videoFile   The video file to upload.
+     * @param title       Title for the YouTube video.
+     * @param tags        Tags for the YouTube video.
+     * @param sessionUri  Session of an earlier attempt at this same file, or {@code null}.
+     * @param chunkSize   Bytes sent per request.
+     * @param maxRetries  Consecutive failed requests tolerated before giving up.
+     * @param listener    Told about the session and every acknowledged offset, to persist them.
      * @return YouTubeUploadResult containing video ID and URL.
      * @throws IOException If there is an I/O error during upload.
      */
-    public YouTubeUploadResult uploadVideo(String videoFilePath, String title, String description, Set<String> tags)
+    public YouTubeUploadResult uploadVideo(Path videoFile, String title, Set<String> tags, String sessionUri,
+                                           int chunkSize, int maxRetries, UploadSessionListener listener)
             throws IOException {
+        if (!Files.exists(videoFile)) {
+            throw new IOException("Video file not found: " + videoFile);
+        }
+        final long size = Files.size(videoFile);
+        ResumableUploader uploader = new ResumableUploader(
+                httpTransport.createRequestFactory(credential), chunkSize, maxRetries, INITIAL_BACKOFF_MILLIS);
+
+        HttpResponse response;
+        if (sessionUri != null) {
+            logger.info("Resuming YouTube upload of {} ({} bytes)", videoFile, size);
+            try {
+                response = uploader.upload(sessionUri, videoFile, VIDEO_CONTENT_TYPE, listener);
+            } catch (ResumableUploader.SessionExpiredException e) {
+                logger.warn("Upload session of {} expired, starting over", videoFile);
+                response = upload(uploader, videoFile, size, title, tags, listener);
+            }
+        } else {
+            logger.info("Uploading video to YouTube... File size: {} bytes", size);
+            response = upload(uploader, videoFile, size, title, tags, listener);
+        }
+        return result(response);
+    }
+
+    /**
+     * Upload a video to YouTube while it is still being written.
+     * <p>
+     * The video is read from {@code video} chunk by chunk as it arrives. Failed requests are
+     * retried from the last acknowledged byte, but the session cannot be continued later since
+     * the bytes before the current chunk are gone.
+     *
+     * @param video      The video, read until it ends.
+     * @param title      Title for the YouTube video.
+     * @param tags       Tags for the YouTube video.
+     * @param chunkSize  Bytes sent per request, also what is buffered.
+     * @param maxRetries Consecutive failed requests tolerated before giving up.
+     * @param listener   Told about every acknowledged offset.
+     * @return YouTubeUploadResult containing video ID and URL.
+     * @throws IOException If there is an I/O error during upload.
+     */
+    public YouTubeUploadResult uploadVideo(InputStream video, String title, Set<String> tags, int chunkSize,
+                                           int maxRetries, ResumableUploader.Listener listener) throws IOException {
+        ResumableUploader uploader = new ResumableUploader(
+                httpTransport.createRequestFactory(credential), chunkSize, maxRetries, INITIAL_BACKOFF_MILLIS);
+        Video metadata = videoMetadata(title, "Uploaded by JustStore - Secure file storage on YouTube", tags);
+        String sessionUri = uploader.startSession(new GenericUrl(RESUMABLE_UPLOAD_URL),
+                new JsonHttpContent(JSON_FACTORY, metadata), VIDEO_CONTENT_TYPE, -1);
+
+        logger.info("Streaming video to YouTube while it is encoded");
+        return result(uploader.upload(sessionUri, video, VIDEO_CONTENT_TYPE, listener));
+    }
+
+    private static YouTubeUploadResult result(HttpResponse response) throws IOException {
+        Video uploaded;
+        try {
+            uploaded = JSON_FACTORY.fromInputStream(response.getContent(), response.getContentCharset(), Video.class);
+        } finally {
+            response.disconnect();
+        }
+
+        String videoId = uploaded.getId();
+        String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
+
+        logger.info("Video uploaded successfully! Video ID: {}, URL: {}", videoId, videoUrl);
+
+        return new YouTubeUploadResult(videoId, videoUrl);
+    }
 
-        logger.info("Starting YouTube upload for file: {}", videoFilePath);
+    private HttpResponse upload(ResumableUploader uploader, Path videoFile, long size, String title,
+                                Set<String> tags, UploadSessionListener listener) throws IOException {
+        Video video = videoMetadata(title, "Uploaded by JustStore - Secure file storage on YouTube", tags);
+        String sessionUri = uploader.startSession(new GenericUrl(RESUMABLE_UPLOAD_URL),
+                new JsonHttpContent(JSON_FACTORY, video), VIDEO_CONTENT_TYPE, size);
+        listener.sessionStarted(sessionUri);
+        return uploader.upload(sessionUri, videoFile, VIDEO_CONTENT_TYPE, listener);
+    }
 
+    private static Video videoMetadata(String title, String description, Set<String> tags) {
         // Define the Video object
         Video video = new Video();
 
@@ -78,48 +172,35 @@ public class YouTubeApi {
         VideoStatus status = new VideoStatus();
         status.setPrivacyStatus("unlisted");
         video.setStatus(status);
+        return video;
+    }
 
-        // Prepare the video file for upload
-        File mediaFile = new File(videoFilePath);
-        if (!mediaFile.exists()) {
-            throw new IOException("Video file not found: " + videoFilePath);
-        }
-
-        InputStreamContent mediaContent = new InputStreamContent(
-                "video/*",
-                new BufferedInputStream(new FileInputStream(mediaFile))
-        );
-        mediaContent.setLength(mediaFile.length());
-
-        // Execute the upload
-        logger.info("Uploading video to YouTube... File size: {} bytes", mediaFile.length());
-        YouTube.Videos.Insert request = youtubeService.videos()
-                .insert(List.of("snippet", "status"), video, mediaContent);
-
-        Video response = request
-                .setNotifySubscribers(false)
+    /**
+     * Upload status of a video: uploaded, processed, failed, rejected or deleted.
+     *
+     * @param videoId The YouTube video ID.
+     * @return The status, or {@code null} if YouTube does not know the video.
+     * @throws IOException If the API call fails.
+     */
+    public String getUploadStatus(String videoId) throws IOException {
+        VideoListResponse response = youtubeService.videos()
+                .list(List.of("status"))
+                .setId(List.of(videoId))
                 .execute();
-
-        String videoId = response.getId();
-        String videoUrl = "https://www.youtube.com/watch?v=" + videoId;
-
-        logger.info("Video uploaded successfully! Video ID: {}, URL: {}", videoId, videoUrl);
-
-        return new YouTubeUploadResult(videoId, videoUrl);
+        if (response.getItems() == null || response.getItems().isEmpty()) {
+            return null;
+        }
+        return response.getItems().getFirst().getStatus().getUploadStatus();
     }
 
     /**
-     * Upload a video to YouTube with default description.
-     *
-     * @param videoFilePath Path to the video file to upload.
-     * @param title         Title for the YouTube video.
-     * @param tags          Tags for the YouTube video.
-     * @return YouTubeUploadResult containing video ID and URL.
-     * @throws IOException If there is an I/O error during upload.
+     * Told about a resumable upload so it can be continued after a restart.
      */
-    public YouTubeUploadResult uploadVideo(String videoFilePath, String title, Set<String> tags)
-            throws IOException {
-        return uploadVideo(videoFilePath, title, "Uploaded by JustStore - Secure file storage on YouTube", tags);
+    public interface UploadSessionListener extends ResumableUploader.Listener {
+        /**
+         * YouTube opened a new session, any session reported before is void.
+         */
+        void sessionStarted(String sessionUri) throws IOException;
     }
 
     /**
@@ -1,43 +1,114 @@
 package com.jaimin.justStore.utils;
 
 
-import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.exec.CommandLine;
-import org.springframework.beans.factory.annotation.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 import java.io.InputStream;
-
-
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+
+/**
+ * Downloads videos with yt-dlp, run under a {@link ProcessSupervisor} so downloads are limited,
+ * time out and never leave a yt-dlp process behind.
+ * <p>
+ * With segmented fetching on, yt-dlp only resolves the direct media URL and the video is
+ * pulled by a {@link SegmentedFetcher} in parallel ranges, holding a slot of the supervisor
+ * like a yt-dlp download would. If that fails before any byte is returned, yt-dlp downloads the
+ * video itself.
+ */
 @Component
 public class YouTubeVideoDownload {
 
-    private static String YT_DLP_PATH;
+    private static final Logger logger = LoggerFactory.getLogger(YouTubeVideoDownload.class);
+
+    private static final long SEGMENT_RETRY_BACKOFF_MILLIS = 500;
+
+    private final YtDlpSettings settings;
+    private final SegmentedFetchSettings segmentedFetchSettings;
+    private final ProcessSupervisor supervisor;
+    private final SegmentedFetcher segmentedFetcher;
+
+    public YouTubeVideoDownload(YtDlpSettings settings, SegmentedFetchSettings segmentedFetchSettings) {
+        this.settings = settings;
+        this.segmentedFetchSettings = segmentedFetchSettings;
+        this.supervisor = new ProcessSupervisor("yt-dlp", settings.maxConcurrent(), settings.maxPerHost(),
+                settings.queueTimeout(), settings.timeout(), settings.idleTimeout());
+        HttpClient httpClient = HttpClient.newBuilder()
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(Duration.ofSeconds(30))
+                .build();
+        this.segmentedFetcher = new SegmentedFetcher(httpClient, segmentedFetchSettings.segmentSizeBytes(),
+                segmentedFetchSettings.parallelism(), segmentedFetchSettings.maxRetries(), SEGMENT_RETRY_BACKOFF_MILLIS);
+    }
 
-    @Value("${yt_dlp.path:/home/linuxbrew/.linuxbrew/bin/yt-dlp}")
-    private String ytDlpPathTemp;
+    /**
+     * Start downloading a video at its best resolution, waiting for a free slot first.
+     *
+     * @return The video. Reading it to the end fails if the download failed, closing it early stops it.
+     */
+    public InputStream downloadVideo(String videoUrl) throws IOException {
+        return downloadVideo(videoUrl, 0);
+    }
 
-    @PostConstruct
-    public void init() {
-        YT_DLP_PATH = ytDlpPathTemp;
+    /**
+     * Start downloading the smallest rendition of a video at least {@code minHeight} pixels high,
+     * or the best one when there is none, waiting for a free slot first.
+     *
+     * @param minHeight 0 for the best rendition.
+     * @return The video. Reading it to the end fails if the download failed, closing it early stops it.
+     */
+    public InputStream downloadVideo(String videoUrl, int minHeight) throws IOException {
+        String format = format(minHeight);
+        if (segmentedFetchSettings.enabled()) {
+            try {
+                URI mediaUrl = URI.create(resolveMediaUrl(videoUrl, format));
+                return supervisor.open(host(videoUrl), () -> segmentedFetcher.open(mediaUrl));
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("Segmented fetch of {} failed, letting yt-dlp download it: {}", videoUrl, e.getMessage());
+            }
+        }
+        return streamWithYtDlp(videoUrl, format);
     }
 
-    public String getYtDlpPathTemp() {
-        return ytDlpPathTemp;
+    private static String format(int minHeight) {
+        // Video only, no audio
+        return minHeight > 0 ? "worstvideo[height>=" + minHeight + "]/bestvideo" : "bestvideo";
     }
 
-    public void setYtDlpPathTemp(String ytDlpPathTemp) {
-        this.ytDlpPathTemp = ytDlpPathTemp;
+    /**
+     * Ask yt-dlp for the direct URL of the format {@link #streamWithYtDlp} would download.
+     */
+    private String resolveMediaUrl(String videoUrl, String format) throws IOException {
+        CommandLine cmdLine = new CommandLine(settings.path());
+        cmdLine.addArgument("-f");
+        cmdLine.addArgument(format, false);
+        cmdLine.addArgument("-g");
+        cmdLine.addArgument(videoUrl);
+
+        String output;
+        try (InputStream stdout = supervisor.start(host(videoUrl), List.of(cmdLine.toStrings()))) {
+            output = new String(stdout.readAllBytes(), StandardCharsets.UTF_8).strip();
+        }
+        if (output.isEmpty() || output.contains("\n")) {
+            throw new IOException("yt-dlp resolved " + (output.isEmpty() ? "no" : "several") + " media URLs");
+        }
+        return output;
     }
 
-    public static InputStream downloadVideo(String videoUrl) throws IOException {
-        System.out.println("In downlod" + YT_DLP_PATH);
-        CommandLine cmdLine = new CommandLine(YT_DLP_PATH);
+    private InputStream streamWithYtDlp(String videoUrl, String format) throws IOException {
+        CommandLine cmdLine = new CommandLine(settings.path());
 
-        // Best video only, no audio
         cmdLine.addArgument("-f");
-        cmdLine.addArgument("bestvideo");
+        cmdLine.addArgument(format, false);
 
         // Output to stdout
         cmdLine.addArgument("-o");
@@ -45,9 +116,24 @@ public class YouTubeVideoDownload {
 
         cmdLine.addArgument(videoUrl);
 
-        ProcessBuilder processBuilder = new ProcessBuilder(cmdLine.toStrings());
-        Process process = processBuilder.start();
+        return supervisor.start(host(videoUrl), List.of(cmdLine.toStrings()));
+    }
+
+    public ProcessSupervisor.Stats getStats() {
+        return supervisor.getStats();
+    }
+
+    private static String host(String videoUrl) {
+        try {
+            String host = URI.create(videoUrl).getHost();
+            return host != null ? host : "";
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
 
-        return process.getInputStream();
+    @PreDestroy
+    public void shutdown() {
+        supervisor.close();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,23 @@
+package com.jaimin.justStore.utils;
+
+import java.time.Duration;
+
+/**
+ * How yt-dlp downloads are run.
+ *
+ * @param path          yt-dlp executable.
+ * @param maxConcurrent Downloads running at once.
+ * @param maxPerHost    Downloads running at once from one host.
+ * @param queueTimeout  How long a download waits for a free slot before failing.
+ * @param timeout       Longest a download may run, zero for no limit.
+ * @param idleTimeout   Longest a download's output may go unread, zero for no limit.
+ */
+public record YtDlpSettings(
+        String path,
+        int maxConcurrent,
+        int maxPerHost,
+        Duration queueTimeout,
+        Duration timeout,
+        Duration idleTimeout
+) {
+}
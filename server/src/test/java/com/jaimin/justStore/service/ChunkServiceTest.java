@@ -0,0 +1,135 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.model.Chunk;
+import com.jaimin.justStore.model.File;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Chunked files read back byte for byte from their packs, whatever the range, and every pack is
+ * fetched once per download however many of its runs the range covers.
+ */
+class ChunkServiceTest {
+
+    private static final int BLOCK = InMemoryChunkStore.BLOCK;
+
+    @TempDir
+    Path stagingDir;
+
+    private final InMemoryChunkStore store = new InMemoryChunkStore();
+    private ChunkService chunkService;
+    private long nextId = 1;
+
+    @BeforeEach
+    void setUp() {
+        chunkService = store.chunkService(stagingDir);
+    }
+
+    @Test
+    void readsAnyRangeOfAFileFromItsOwnPack() throws IOException {
+        // Alternating random and text blocks, so chunks are stored both deflated and as they are
+        byte[] data = InMemoryChunkStore.mixed(40, 1);
+        File file = upload(data);
+
+        assertThat(store.chunks.values()).extracting(Chunk::getCompression)
+                .contains(Compression.NONE, Compression.DEFLATE);
+        // The pack is over the longest run, so the file reads back as several runs of one pack
+        assertThat(store.packs.get(file.getId()).length).isGreaterThan(4 * 1024 * 1024);
+
+        assertReadsBack(file, data, 0, data.length);
+        assertReadsBack(file, data, 0, 1);
+        assertReadsBack(file, data, data.length - 1, 1);
+        assertReadsBack(file, data, 5 * BLOCK + 17, 3 * BLOCK + 1001);
+        assertReadsBack(file, data, 4 * 1024 * 1024 - 3, 7);
+        Random random = new Random(7);
+        for (int i = 0; i < 20; i++) {
+            int offset = random.nextInt(data.length);
+            assertReadsBack(file, data, offset, random.nextInt(data.length - offset) + 1);
+        }
+    }
+
+    @Test
+    void readsAFileWhoseChunksAreSpreadOverSeveralPacks() throws IOException {
+        byte[] original = InMemoryChunkStore.mixed(24, 2);
+        File first = upload(original);
+        // An edited copy: new bytes around two stretches of the original, in reverse order
+        byte[] edited = concat(InMemoryChunkStore.mixed(2, 3), Arrays.copyOfRange(original, 12 * BLOCK, 20 * BLOCK),
+                InMemoryChunkStore.mixed(1, 4), Arrays.copyOfRange(original, 0, 6 * BLOCK), InMemoryChunkStore.mixed(1, 5));
+        File second = upload(edited);
+
+        assertThat(store.packs.get(second.getId()).length).isLessThan(edited.length / 2);
+        assertThat(store.manifests.get(second.getId())).extracting(entry -> entry.getChunk().getPackFile().getId())
+                .contains(first.getId(), second.getId());
+        // Hashes are looked up a batch at a time, never chunk by chunk
+        verify(store.chunkRepository, never()).findByHash(anyString());
+
+        assertReadsBack(second, edited, 0, edited.length);
+        assertReadsBack(second, edited, 2 * BLOCK - 5, 8 * BLOCK + 10);
+        Random random = new Random(8);
+        for (int i = 0; i < 20; i++) {
+            int offset = random.nextInt(edited.length);
+            assertReadsBack(second, edited, offset, random.nextInt(edited.length - offset) + 1);
+        }
+    }
+
+    @Test
+    void writesNothingForAnEmptyRange() throws IOException {
+        File file = upload(InMemoryChunkStore.mixed(4, 6));
+
+        assertThat(read(file, 100, 0)).isEmpty();
+        assertThat(store.opens).isEmpty();
+    }
+
+    private void assertReadsBack(File file, byte[] data, long offset, long length) throws IOException {
+        store.opens.clear();
+
+        byte[] read = read(file, offset, length);
+
+        assertThat(read).isEqualTo(Arrays.copyOfRange(data, (int) offset, (int) (offset + length)));
+        assertThat(store.opens.values()).isNotEmpty().allSatisfy(count -> assertThat(count.get()).isEqualTo(1));
+    }
+
+    private byte[] read(File file, long offset, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        chunkService.streamChunks(file, out, offset, length, store::open);
+        return out.toByteArray();
+    }
+
+    /**
+     * Stage, cut and record an upload, keeping its pack as if it was uploaded.
+     */
+    private File upload(byte[] data) throws IOException {
+        Path staged = Files.write(Files.createTempFile(stagingDir, "staged_", ".bin"), data);
+        File file = new File("file", (long) data.length, "application/octet-stream", Set.of());
+        ReflectionTestUtils.setField(file, "id", nextId++);
+
+        ChunkService.Plan plan = chunkService.pack(staged, file.getOriginalFileType());
+        chunkService.record(file, plan);
+        store.packs.put(file.getId(), Files.readAllBytes(plan.pack()));
+        return file;
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,132 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.model.Chunk;
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.model.FileChunk;
+import com.jaimin.justStore.repository.ChunkRepository;
+import com.jaimin.justStore.repository.FileChunkRepository;
+import com.jaimin.justStore.utils.ChunkingSettings;
+import com.jaimin.justStore.utils.CompressionSettings;
+import com.jaimin.justStore.utils.UploadJobSettings;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Chunk and manifest repositories backed by maps, for testing what stores chunks.
+ */
+final class InMemoryChunkStore {
+
+    static final int BLOCK = 256 * 1024;
+
+    final Map<String, Chunk> chunks = new ConcurrentHashMap<>();
+    final Map<Long, List<FileChunk>> manifests = new ConcurrentHashMap<>();
+    final ChunkRepository chunkRepository = mock(ChunkRepository.class);
+    final FileChunkRepository fileChunkRepository = mock(FileChunkRepository.class);
+    // Payloads of the uploaded packs, and how often each was opened
+    final Map<Long, byte[]> packs = new ConcurrentHashMap<>();
+    final Map<Long, AtomicInteger> opens = new ConcurrentHashMap<>();
+
+    InMemoryChunkStore() {
+        when(chunkRepository.findByHash(anyString()))
+                .thenAnswer(call -> Optional.ofNullable(chunks.get(call.<String>getArgument(0))));
+        when(chunkRepository.findByHashIn(anyCollection())).thenAnswer(call -> call.<Collection<String>>getArgument(0)
+                .stream().map(chunks::get).filter(Objects::nonNull).toList());
+        when(chunkRepository.save(any(Chunk.class))).thenAnswer(call -> {
+            Chunk chunk = call.getArgument(0);
+            chunks.put(chunk.getHash(), chunk);
+            return chunk;
+        });
+        when(fileChunkRepository.saveAll(anyList())).thenAnswer(call -> {
+            List<FileChunk> manifest = call.getArgument(0);
+            for (FileChunk entry : manifest) {
+                File file = (File) ReflectionTestUtils.getField(entry, "file");
+                manifests.computeIfAbsent(file.getId(), id -> new ArrayList<>()).add(entry);
+            }
+            return manifest;
+        });
+        when(fileChunkRepository.findByFileIdOrderByChunkIndexAsc(anyLong()))
+                .thenAnswer(call -> manifests.getOrDefault(call.<Long>getArgument(0), List.of()));
+    }
+
+    /**
+     * A chunk service storing here, cutting chunks of about 16 KB and staging packs in {@code stagingDir}.
+     */
+    ChunkService chunkService(Path stagingDir) {
+        return new ChunkService(chunkRepository, fileChunkRepository,
+                new ChunkingSettings(true, 0, 16 * 1024, 3),
+                new CompressionSettings(true, 6, 64 * 1024, 0.9, List.of()),
+                uploadJobSettings(stagingDir));
+    }
+
+    static UploadJobSettings uploadJobSettings(Path stagingDir) {
+        return new UploadJobSettings(stagingDir, 1, 1, 1, Duration.ZERO, Duration.ZERO, 0, 0, false, 0, 0);
+    }
+
+    /**
+     * Opens a pack from {@link #packs}, counting how often.
+     */
+    ChunkService.PackSource open(File pack) {
+        opens.computeIfAbsent(pack.getId(), id -> new AtomicInteger()).incrementAndGet();
+        byte[] payload = packs.get(pack.getId());
+        return new ChunkService.PackSource() {
+            @Override
+            public void decode(OutputStream outputStream, long offset, long length) throws IOException {
+                // Odd sized writes, so pieces and deflated chunks end part way into one
+                for (long position = offset; position < offset + length; position += 1000) {
+                    outputStream.write(payload, (int) position, (int) Math.min(1000, offset + length - position));
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * {@code blocks} blocks of {@link #BLOCK} bytes alternating between random bytes and text, so
+     * some chunks deflate and others do not.
+     */
+    static byte[] mixed(int blocks, long seed) {
+        Random random = new Random(seed);
+        String[] words = {"chunk", "pack", "video", "frame", "store", "upload", "range", "byte"};
+        byte[] data = new byte[blocks * BLOCK];
+        for (int block = 0; block < blocks; block++) {
+            int start = block * BLOCK;
+            if (block % 2 == 0) {
+                byte[] noise = new byte[BLOCK];
+                random.nextBytes(noise);
+                System.arraycopy(noise, 0, data, start, BLOCK);
+            } else {
+                for (int i = start; i < start + BLOCK; ) {
+                    byte[] word = (words[random.nextInt(words.length)] + " ").getBytes();
+                    int count = Math.min(word.length, start + BLOCK - i);
+                    System.arraycopy(word, 0, data, i, count);
+                    i += count;
+                }
+            }
+        }
+        return data;
+    }
+}
@@ -0,0 +1,152 @@
+package com.jaimin.justStore.service;
+
+import com.jaimin.justStore.model.File;
+import com.jaimin.justStore.repository.FileRepository;
+import com.jaimin.justStore.utils.PackingSettings;
+import com.jaimin.justStore.utils.UploadJobSettings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Small uploads are packed into the container of the first of them, each reading back through its
+ * own manifest, and are uploaded on their own when there is nothing to pack them with or packing
+ * fails.
+ */
+class PackingServiceTest {
+
+    private static final int BLOCK = InMemoryChunkStore.BLOCK;
+
+    @TempDir
+    Path stagingDir;
+
+    private final InMemoryChunkStore store = new InMemoryChunkStore();
+    private final Map<Long, File> files = new ConcurrentHashMap<>();
+    private final FileRepository fileRepository = mock(FileRepository.class);
+    private final UploadJobService uploadJobService = mock(UploadJobService.class);
+    private final List<PackingService> services = new ArrayList<>();
+    private long nextId = 1;
+
+    PackingServiceTest() {
+        when(fileRepository.findById(anyLong()))
+                .thenAnswer(call -> Optional.ofNullable(files.get(call.<Long>getArgument(0))));
+        when(fileRepository.save(any(File.class))).thenAnswer(call -> call.getArgument(0));
+    }
+
+    @AfterEach
+    void tearDown() {
+        services.forEach(PackingService::shutdown);
+    }
+
+    @Test
+    void packsFilesFillingAContainerIntoTheUploadOfTheFirst() throws IOException {
+        ChunkService chunkService = store.chunkService(stagingDir);
+        PackingService packing = packing(chunkService, Duration.ofMinutes(1), 4 * BLOCK);
+        byte[][] data = {InMemoryChunkStore.mixed(1, 11), InMemoryChunkStore.mixed(2, 12),
+                InMemoryChunkStore.mixed(1, 13)};
+        List<File> added = new ArrayList<>();
+        for (int i = 0; i < data.length; i++) {
+            added.add(add(packing, data[i], Set.of("tag" + i)));
+        }
+
+        File carrier = added.get(0);
+        ArgumentCaptor<Path> pack = ArgumentCaptor.forClass(Path.class);
+        verify(uploadJobService, timeout(10_000)).submit(eq(carrier), pack.capture(), eq(Set.of("tag0")));
+
+        store.packs.put(carrier.getId(), Files.readAllBytes(pack.getValue()));
+        assertThat(carrier.isChunked()).isTrue();
+        assertThat(carrier.getCarrier()).isSameAs(carrier);
+        assertThat(carrier.getPayloadSizeInByte()).isEqualTo(store.packs.get(carrier.getId()).length);
+        for (int i = 0; i < added.size(); i++) {
+            File file = added.get(i);
+            assertThat(file.getCarrier()).isSameAs(carrier);
+            assertThat(store.manifests.get(file.getId())).isNotEmpty()
+                    .allSatisfy(entry -> assertThat(entry.getChunk().getPackFile()).isSameAs(carrier));
+
+            store.opens.clear();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            chunkService.streamChunks(file, out, 0, data[i].length, store::open);
+            assertThat(out.toByteArray()).isEqualTo(data[i]);
+            assertThat(store.opens).containsOnlyKeys(carrier.getId());
+            assertThat(store.opens.get(carrier.getId()).get()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    void uploadsAFileAloneWhenTheWindowClosesOnNothingElse() throws IOException {
+        PackingService packing = packing(store.chunkService(stagingDir), Duration.ofMillis(50), 100 * BLOCK);
+
+        File file = add(packing, InMemoryChunkStore.mixed(1, 21), Set.of("alone"));
+
+        Path staged = uploadJobSettings().stagedFile(file.getId());
+        verify(uploadJobService, timeout(10_000)).submit(file, staged, Set.of("alone"));
+        assertThat(staged).exists();
+        assertThat(file.isChunked()).isFalse();
+        assertThat(file.getCarrier()).isSameAs(file);
+        assertThat(store.manifests).isEmpty();
+    }
+
+    @Test
+    void uploadsEachFileAloneWhenPackingThemFails() throws IOException {
+        ChunkService chunkService = mock(ChunkService.class);
+        when(chunkService.packAll(anyList(), anyList())).thenThrow(new IOException("disk full"));
+        PackingService packing = packing(chunkService, Duration.ofMinutes(1), 2 * BLOCK);
+
+        File first = add(packing, InMemoryChunkStore.mixed(1, 31), Set.of("first"));
+        File second = add(packing, InMemoryChunkStore.mixed(1, 32), Set.of("second"));
+
+        verify(uploadJobService, timeout(10_000))
+                .submit(first, uploadJobSettings().stagedFile(first.getId()), Set.of("first"));
+        verify(uploadJobService, timeout(10_000))
+                .submit(second, uploadJobSettings().stagedFile(second.getId()), Set.of("second"));
+        assertThat(first.isChunked()).isFalse();
+        assertThat(second.getCarrier()).isSameAs(second);
+    }
+
+    private PackingService packing(ChunkService chunkService, Duration window, long containerSize) {
+        PackingService packing = new PackingService(fileRepository, chunkService, uploadJobService,
+                uploadJobSettings(), new PackingSettings(true, 10 * 1024 * 1024, window, containerSize));
+        services.add(packing);
+        return packing;
+    }
+
+    private UploadJobSettings uploadJobSettings() {
+        return InMemoryChunkStore.uploadJobSettings(stagingDir);
+    }
+
+    /**
+     * Stage and save a small upload and hand it to {@code packing}, as the upload request does.
+     */
+    private File add(PackingService packing, byte[] data, Set<String> tags) throws IOException {
+        Path staged = Files.write(Files.createTempFile(stagingDir, "upload_", ".bin"), data);
+        File file = new File("small", (long) data.length, "application/octet-stream", tags);
+        ReflectionTestUtils.setField(file, "id", nextId++);
+        files.put(file.getId(), file);
+        packing.add(file, staged, tags);
+        return file;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jaimin.justStore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BitKernelsTest {
+
+    private final BitKernels selected = BitKernels.get();
+    private final BitKernels scalar = new ScalarBitKernels();
+    private final Random random = new Random(42);
+
+    @Test
+    void unpackToLumaMatchesScalar() {
+        // Odd length so the vector loop leaves a scalar tail
+        byte[] packed = new byte[1920 * 1072 / 8 + 13];
+        random.nextBytes(packed);
+
+        byte[] expected = new byte[packed.length * 8];
+        byte[] actual = new byte[packed.length * 8];
+        scalar.unpackToLuma(packed, packed.length, expected);
+        selected.unpackToLuma(packed, packed.length, actual);
+
+        assertThat(actual).isEqualTo(expected);
+        assertThat(expected[0]).isEqualTo((byte) (((packed[0] >> 7) & 1) == 1 ? 0xFF : 0));
+    }
+
+    @Test
+    void packLumaMatchesScalarForEveryThreshold() {
+        byte[] luma = new byte[1920 * 3 + 24];
+        random.nextBytes(luma);
+        int byteCount = 1920 * 3 / 8 + 2;
+
+        for (int threshold : new int[]{0, 1, 64, 127, 128, 129, 200, 254, 255}) {
+            byte[] expected = new byte[byteCount + 5];
+            byte[] actual = new byte[byteCount + 5];
+            int expectedEnd = scalar.packLuma(luma, 3, byteCount, threshold, expected, 5);
+            int actualEnd = selected.packLuma(luma, 3, byteCount, threshold, actual, 5);
+
+            assertThat(actualEnd).isEqualTo(expectedEnd).isEqualTo(byteCount + 5);
+            assertThat(actual).as("threshold %d", threshold).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    void packLumaInvertsUnpackToLuma() {
+        byte[] packed = new byte[4096];
+        random.nextBytes(packed);
+        byte[] luma = new byte[packed.length * 8];
+        byte[] repacked = new byte[packed.length];
+
+        selected.unpackToLuma(packed, packed.length, luma);
+        selected.packLuma(luma, 0, packed.length, PackedFrameReader.DEFAULT_THRESHOLD, repacked, 0);
+
+        assertThat(repacked).isEqualTo(packed);
+    }
+}
@@ -0,0 +1,122 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.BlockSampling;
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoDecodeMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BlockEncodingTest {
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @EnumSource(BlockSampling.class)
+    void decodesFourPixelBlocksFromA720pTranscode(BlockSampling sampling) throws Exception {
+        byte[] payload = randomBytes(150_000);
+        Path video = encode(payload, 4);
+        Path transcoded = tempDir.resolve("720p.mp4");
+        transcode(video, transcoded, 1282, 716);
+
+        assertThat(decode(transcoded, sampling)).isEqualTo(payload);
+    }
+
+    @Test
+    void rejectsAVideoTooSmallForItsBlocks() throws Exception {
+        Path video = encode(randomBytes(10_000), 1);
+        Path transcoded = tempDir.resolve("480p.mp4");
+        transcode(video, transcoded, 856, 478);
+
+        assertThatThrownBy(() -> decode(transcoded, BlockSampling.CENTER))
+                .hasMessageContaining("too small for the 1 pixel blocks");
+    }
+
+    @Test
+    void readsVersion2HeadersAsOnePixelBlocks() throws IOException {
+        ByteBuffer v2 = ByteBuffer.allocate(FrameHeader.V2_ENCODED_LENGTH)
+                .putInt(FrameHeader.MAGIC)
+                .put((byte) 2)
+                .put((byte) 0)
+                .putShort((short) FrameHeader.V2_ENCODED_LENGTH)
+                .putLong(1234)
+                .putInt(1920)
+                .putInt(1072)
+                .putInt(1920 / 8 * 1072);
+        CRC32 crc = new CRC32();
+        crc.update(v2.array(), 0, v2.position());
+        v2.putInt((int) crc.getValue());
+
+        assertThat(FrameHeader.fromBytes(v2.array()))
+                .isEqualTo(new FrameHeader(2, 1234, 1920, 1072, 1920 / 8 * 1072, 1, SymbolMode.BW1,
+                        Compression.NONE));
+    }
+
+    private Path encode(byte[] payload, int blockSize) throws IOException {
+        Path video = tempDir.resolve("blocks-" + blockSize + ".mp4");
+        VideoEncoderSettings settings =
+                new VideoEncoderSettings(VideoEncoderType.FFMPEG, "libx264", "veryfast", 18, 0, 48, blockSize,
+                        SymbolMode.BW1, Compression.NONE);
+        try (InputStream in = new ByteArrayInputStream(payload)) {
+            CreateVideoUtil.createVideo(in, payload.length, CreateVideoUtil.DEFAULT_WIDTH,
+                    CreateVideoUtil.DEFAULT_HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE, video.toString(), 2, settings);
+        }
+        return video;
+    }
+
+    private static byte[] decode(Path video, BlockSampling sampling) throws Exception {
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(video)) {
+            RetrieveVideo.decodeVideo(in, decoded, new VideoDecoderSettings(VideoDecodeMode.BGR, false, 2, sampling, 2));
+        }
+        return decoded.toByteArray();
+    }
+
+    /**
+     * Scale and re-encode the way a video site's lower renditions are made.
+     */
+    private static void transcode(Path source, Path target, int width, int height) throws IOException {
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(source.toFile())) {
+            grabber.setImageWidth(width);
+            grabber.setImageHeight(height);
+            grabber.start();
+            try (FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(target.toFile(), width, height)) {
+                recorder.setFormat("mp4");
+                recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+                recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                recorder.setFrameRate(CreateVideoUtil.DEFAULT_FRAME_RATE);
+                recorder.setVideoOption("crf", "23");
+                recorder.setVideoOption("preset", "veryfast");
+                recorder.start();
+                Frame frame;
+                while ((frame = grabber.grabImage()) != null) {
+                    recorder.record(frame);
+                }
+                recorder.stop();
+            }
+            grabber.stop();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Chunked AES-GCM round trips, ranges, tampering, and its throughput next to rendering the video.
+ */
+class ChunkCipherTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(ChunkCipherTest.class);
+
+    private static final int CHUNK = 4096;
+    private static final byte[] SALT = new byte[ChunkCipher.SALT_LENGTH];
+    private static final ChunkCipher CIPHER = ChunkCipher.derive("secret", SALT, 1000, CHUNK, 4);
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 10 * CHUNK + 17})
+    void roundTripsAnySize(int size) throws IOException {
+        byte[] plain = randomBytes(size);
+        byte[] sealed = encrypt(CIPHER, plain);
+
+        assertThat(sealed).hasSize((int) ChunkCipher.encryptedLength(size, CHUNK));
+        assertThat(decrypt(CIPHER, sealed, size, 0, size)).isEqualTo(plain);
+    }
+
+    @Test
+    void decryptsARangeFromOnlyTheChunksItTouches() throws IOException {
+        byte[] plain = randomBytes(20 * CHUNK + 100);
+        byte[] sealed = encrypt(CIPHER, plain);
+        Random random = new Random(7);
+        for (int i = 0; i < 50; i++) {
+            int offset = random.nextInt(plain.length);
+            int length = 1 + random.nextInt(plain.length - offset);
+            ChunkCipher.Range range = CIPHER.encryptedRange(plain.length, offset, length);
+            assertThat(range.length()).isLessThanOrEqualTo((length / CHUNK + 2L) * (CHUNK + ChunkCipher.TAG_LENGTH));
+
+            byte[] slice = Arrays.copyOfRange(sealed, (int) range.offset(), (int) (range.offset() + range.length()));
+            assertThat(decryptSlice(CIPHER, slice, plain.length, offset, length))
+                    .isEqualTo(Arrays.copyOfRange(plain, offset, offset + length));
+        }
+    }
+
+    @Test
+    void encryptsFromAnyOffsetAsTheWholeFileHasItThere() throws IOException {
+        byte[] plain = randomBytes(6 * CHUNK + 100);
+        byte[] sealed = encrypt(CIPHER, plain);
+        for (int offset : new int[]{0, 1, CHUNK, CHUNK + ChunkCipher.TAG_LENGTH, 3 * (CHUNK + 16) + 5,
+                sealed.length - 1, sealed.length}) {
+            try (InputStream part = CIPHER.encrypt(new ByteArrayInputStream(plain), plain.length, offset)) {
+                assertThat(part.readAllBytes()).isEqualTo(Arrays.copyOfRange(sealed, offset, sealed.length));
+            }
+        }
+    }
+
+    @Test
+    void rejectsTamperedReorderedAndTruncatedFiles() throws IOException {
+        byte[] plain = randomBytes(3 * CHUNK + 5);
+        byte[] sealed = encrypt(CIPHER, plain);
+        int sealedChunk = CHUNK + ChunkCipher.TAG_LENGTH;
+
+        byte[] flipped = sealed.clone();
+        flipped[sealedChunk + 10] ^= 1;
+        assertThatThrownBy(() -> decrypt(CIPHER, flipped, plain.length, 0, plain.length))
+                .hasMessageContaining("Chunk 1 failed authentication");
+
+        byte[] swapped = sealed.clone();
+        System.arraycopy(sealed, 0, swapped, sealedChunk, sealedChunk);
+        System.arraycopy(sealed, sealedChunk, swapped, 0, sealedChunk);
+        assertThatThrownBy(() -> decrypt(CIPHER, swapped, plain.length, 0, plain.length))
+                .hasMessageContaining("failed authentication");
+
+        // Cut to whole chunks, but the length they were sealed with says there is one more
+        byte[] truncated = Arrays.copyOf(sealed, 3 * sealedChunk);
+        assertThatThrownBy(() -> decrypt(CIPHER, truncated, plain.length, 0, plain.length))
+                .isInstanceOf(EOFException.class);
+        assertThatThrownBy(() -> decrypt(CIPHER, truncated, 3L * CHUNK, 0, 3L * CHUNK))
+                .hasMessageContaining("failed authentication");
+
+        ChunkCipher wrongKey = ChunkCipher.derive("Secret", SALT, 1000, CHUNK, 4);
+        assertThatThrownBy(() -> decrypt(wrongKey, sealed, plain.length, 0, plain.length))
+                .hasMessageContaining("Chunk 0 failed authentication");
+    }
+
+    @Test
+    void encryptsFasterThanVideosAreRendered() throws IOException {
+        ChunkCipher cipher = ChunkCipher.derive("secret", SALT, 1000, 256 * 1024,
+                Runtime.getRuntime().availableProcessors());
+        byte[] plain = randomBytes(16 * 1024 * 1024);
+
+        // Warm up the AES and GHASH intrinsics
+        decrypt(cipher, encrypt(cipher, plain), plain.length, 0, plain.length);
+        long start = System.nanoTime();
+        byte[] sealed = encrypt(cipher, plain);
+        double encryptMbps = megabytesPerSecond(plain.length, start);
+        start = System.nanoTime();
+        decrypt(cipher, sealed, plain.length, 0, plain.length);
+        double decryptMbps = megabytesPerSecond(plain.length, start);
+
+        byte[] payload = Arrays.copyOf(plain, 4 * 1024 * 1024);
+        VideoEncoderSettings settings =
+                new VideoEncoderSettings(VideoEncoderType.FFMPEG, "libx264", "veryfast", 18, 0, 48, 1, SymbolMode.BW1,
+                        Compression.NONE);
+        start = System.nanoTime();
+        render(new ByteArrayInputStream(payload), payload.length, settings, "raw.mp4");
+        double renderMbps = megabytesPerSecond(payload.length, start);
+        start = System.nanoTime();
+        try (InputStream encrypted = cipher.encrypt(new ByteArrayInputStream(payload), payload.length)) {
+            render(encrypted, ChunkCipher.encryptedLength(payload.length, 256 * 1024), settings, "encrypted.mp4");
+        }
+        double encryptAndRenderMbps = megabytesPerSecond(payload.length, start);
+
+        logger.info("Encrypt {} MB/s, decrypt {} MB/s, render {} MB/s, encrypt and render {} MB/s",
+                Math.round(encryptMbps), Math.round(decryptMbps), Math.round(renderMbps),
+                Math.round(encryptAndRenderMbps));
+        assertThat(encryptMbps).isGreaterThan(renderMbps);
+        assertThat(decryptMbps).isGreaterThan(renderMbps);
+    }
+
+    private void render(InputStream payload, long length, VideoEncoderSettings settings, String name)
+            throws IOException {
+        CreateVideoUtil.createVideo(payload, length, CreateVideoUtil.DEFAULT_WIDTH, CreateVideoUtil.DEFAULT_HEIGHT,
+                CreateVideoUtil.DEFAULT_FRAME_RATE, tempDir.resolve(name).toString(), 2, settings);
+    }
+
+    private static byte[] encrypt(ChunkCipher cipher, byte[] plain) throws IOException {
+        try (InputStream sealed = cipher.encrypt(new ByteArrayInputStream(plain), plain.length)) {
+            return sealed.readAllBytes();
+        }
+    }
+
+    private static byte[] decrypt(ChunkCipher cipher, byte[] sealed, long plainLength, long offset, long length)
+            throws IOException {
+        ChunkCipher.Range range = cipher.encryptedRange(plainLength, offset, length);
+        byte[] slice = Arrays.copyOfRange(sealed, (int) range.offset(),
+                (int) Math.min(sealed.length, range.offset() + range.length()));
+        return decryptSlice(cipher, slice, plainLength, offset, length);
+    }
+
+    private static byte[] decryptSlice(ChunkCipher cipher, byte[] slice, long plainLength, long offset, long length)
+            throws IOException {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        try (OutputStream opening = cipher.decrypt(plain, plainLength, offset, length)) {
+            // Odd writes so chunks are put together across calls
+            for (int i = 0; i < slice.length; i += 1000) {
+                opening.write(slice, i, Math.min(1000, slice.length - i));
+            }
+        }
+        return plain.toByteArray();
+    }
+
+    private static double megabytesPerSecond(long bytes, long startNanos) {
+        return bytes / 1e6 / ((System.nanoTime() - startNanos) / 1e9);
+    }
+}
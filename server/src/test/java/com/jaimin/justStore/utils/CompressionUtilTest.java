@@ -0,0 +1,113 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CompressionUtilTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompressionUtilTest.class);
+
+    private static final CompressionSettings SETTINGS =
+            new CompressionSettings(true, 6, 64 * 1024, 0.9, List.of("video/", "application/zip"));
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void compressesLogsButNotRandomBytesOrKnownArchives() throws IOException {
+        Path log = write("app.log", logLines(500_000));
+        Path random = write("random.bin", randomBytes(500_000));
+        // A readable header in front of incompressible data must not decide alone
+        byte[] mixed = randomBytes(500_000);
+        System.arraycopy(logLines(20_000), 0, mixed, 0, 20_000);
+        Path archive = write("mixed.bin", mixed);
+
+        assertThat(CompressionUtil.choose(SETTINGS, "text/plain", log)).isEqualTo(Compression.DEFLATE);
+        assertThat(CompressionUtil.choose(SETTINGS, null, random)).isEqualTo(Compression.NONE);
+        assertThat(CompressionUtil.choose(SETTINGS, "application/octet-stream", archive)).isEqualTo(Compression.NONE);
+        assertThat(CompressionUtil.choose(SETTINGS, "application/zip", log)).isEqualTo(Compression.NONE);
+        assertThat(CompressionUtil.choose(SETTINGS, "Video/MP4", tempDir.resolve("not-read.mp4")))
+                .isEqualTo(Compression.NONE);
+    }
+
+    @Test
+    void inflatesAnyRangeOfTheOriginal() throws IOException {
+        byte[] original = logLines(300_000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        long compressedSize = CompressionUtil.compress(new ByteArrayInputStream(original), compressed, 6);
+        assertThat(compressedSize).isEqualTo(compressed.size());
+
+        int frames = FrameHeader.bytesPerFrame(CreateVideoUtil.DEFAULT_WIDTH, CreateVideoUtil.DEFAULT_HEIGHT, 1);
+        logger.info("{} bytes of log compressed to {}, {} frames instead of {}", original.length, compressedSize,
+                (compressedSize + frames - 1) / frames, (original.length + frames - 1) / frames);
+        assertThat(compressedSize).isLessThan(original.length / 4);
+
+        assertThat(inflate(compressed.toByteArray(), original.length, 0, original.length)).isEqualTo(original);
+        assertThat(inflate(compressed.toByteArray(), original.length, 123_456, 1000))
+                .isEqualTo(Arrays.copyOfRange(original, 123_456, 124_456));
+    }
+
+    @Test
+    void rejectsAStreamThatInflatesShort() {
+        byte[] original = logLines(100_000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        assertThatThrownBy(() -> {
+            CompressionUtil.compress(new ByteArrayInputStream(original), compressed, 6);
+            byte[] truncated = Arrays.copyOf(compressed.toByteArray(), compressed.size() / 2);
+            inflate(truncated, original.length, 0, original.length);
+        }).hasMessageContaining("inflated to");
+    }
+
+    @Test
+    void recordsTheCompressionInTheFrameHeader() throws IOException {
+        FrameHeader header = FrameHeader.of(1234, 1920, 1072, 2, SymbolMode.GRAY4, Compression.DEFLATE);
+
+        FrameHeader read = FrameHeader.fromBytes(header.toBytes());
+
+        assertThat(read).isEqualTo(header);
+        assertThat(read.compression()).isEqualTo(Compression.DEFLATE);
+    }
+
+    private static byte[] inflate(byte[] compressed, long originalLength, long offset, long length)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream inflating = CompressionUtil.decompress(Compression.DEFLATE, out, originalLength, offset,
+                length)) {
+            inflating.write(compressed);
+        }
+        return out.toByteArray();
+    }
+
+    private Path write(String name, byte[] bytes) throws IOException {
+        return Files.write(tempDir.resolve(name), bytes);
+    }
+
+    private static byte[] logLines(int length) {
+        Random random = new Random(length);
+        StringBuilder log = new StringBuilder();
+        while (log.length() < length) {
+            log.append("2024-05-0").append(random.nextInt(10)).append(" INFO  [upload-job-").append(random.nextInt(8))
+                    .append("] File ").append(random.nextInt(100_000)).append(" received, upload job queued\n");
+        }
+        return Arrays.copyOf(log.toString().getBytes(StandardCharsets.US_ASCII), length);
+    }
+}
@@ -0,0 +1,93 @@
+package com.jaimin.justStore.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContentChunkerTest {
+
+    private static final ContentChunker CHUNKER = ContentChunker.ofAverage(8 * 1024);
+
+    @Test
+    void cutsChunksWithinTheBoundsAndBackIntoTheFile() throws IOException {
+        byte[] data = randomBytes(2_000_000, 1);
+
+        List<byte[]> chunks = split(data);
+
+        assertThat(chunks.subList(0, chunks.size() - 1))
+                .allSatisfy(chunk -> assertThat(chunk.length).isBetween(2 * 1024, 64 * 1024));
+        double average = (double) data.length / chunks.size();
+        assertThat(average).isBetween(4.0 * 1024, 16.0 * 1024);
+        assertThat(concat(chunks)).isEqualTo(data);
+        assertThat(split(data)).hasSameSizeAs(chunks);
+    }
+
+    @Test
+    void anInsertionOnlyChangesTheChunksAroundIt() throws IOException {
+        byte[] original = randomBytes(2_000_000, 2);
+        byte[] edited = new byte[original.length + 100];
+        System.arraycopy(original, 0, edited, 0, 50_000);
+        System.arraycopy(randomBytes(100, 3), 0, edited, 50_000, 100);
+        System.arraycopy(original, 50_000, edited, 50_100, original.length - 50_000);
+
+        Set<String> before = new HashSet<>();
+        for (byte[] chunk : split(original)) {
+            before.add(ChecksumUtil.calculateChecksum(chunk));
+        }
+        List<byte[]> after = split(edited);
+        long changedBytes = after.stream()
+                .filter(chunk -> !before.contains(ChecksumUtil.calculateChecksum(chunk)))
+                .mapToLong(chunk -> chunk.length)
+                .sum();
+
+        // Fixed size blocks would all shift, here only the chunk holding the edit and maybe its neighbour change
+        assertThat(changedBytes).isLessThanOrEqualTo(2L * CHUNKER.getMaxSize());
+        assertThat(changedBytes).isLessThan(edited.length / 20);
+    }
+
+    @Test
+    void keepsRunsOfIdenticalBytesToTheMaximumSize() throws IOException {
+        byte[] zeros = new byte[300_000];
+
+        List<byte[]> chunks = split(zeros);
+
+        assertThat(chunks.get(0)).hasSize(CHUNKER.getMaxSize());
+        assertThat(concat(chunks)).isEqualTo(zeros);
+        assertThat(split(new byte[0])).isEmpty();
+    }
+
+    @Test
+    void rejectsSizesThatDoNotGrow() {
+        assertThatThrownBy(() -> new ContentChunker(4096, 4096, 8192))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new ContentChunker(8, 32, 128))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static List<byte[]> split(byte[] data) throws IOException {
+        List<byte[]> chunks = new ArrayList<>();
+        CHUNKER.split(new ByteArrayInputStream(data),
+                (buffer, offset, length) -> chunks.add(Arrays.copyOfRange(buffer, offset, offset + length)));
+        return chunks;
+    }
+
+    private static byte[] concat(List<byte[]> chunks) {
+        byte[] all = new byte[chunks.stream().mapToInt(chunk -> chunk.length).sum()];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            System.arraycopy(chunk, 0, all, position, chunk.length);
+            position += chunk.length;
+        }
+        return all;
+    }
+}
@@ -0,0 +1,131 @@
+package com.jaimin.justStore.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProcessSupervisorTest {
+
+    private ProcessSupervisor supervisor;
+
+    @AfterEach
+    void closeSupervisor() {
+        if (supervisor != null) {
+            supervisor.close();
+        }
+    }
+
+    @Test
+    void streamsStdoutAndCountsSuccess() throws IOException {
+        supervisor = new ProcessSupervisor("test", 2, 2, Duration.ofSeconds(5), Duration.ZERO, Duration.ZERO);
+
+        try (InputStream out = supervisor.start("host", sh("printf video; echo progress >&2"))) {
+            assertThat(new String(out.readAllBytes())).isEqualTo("video");
+        }
+
+        assertThat(supervisor.getStats()).isEqualTo(new ProcessSupervisor.Stats(0, 0, 1, 1, 0, 0));
+    }
+
+    @Test
+    void failsOnANonZeroExitWithTheStderrTail() throws IOException {
+        supervisor = new ProcessSupervisor("test", 2, 2, Duration.ofSeconds(5), Duration.ZERO, Duration.ZERO);
+
+        try (InputStream out = supervisor.start("host", sh("printf partial; echo 'ERROR: video unavailable' >&2; exit 3"))) {
+            assertThatThrownBy(out::readAllBytes)
+                    .isInstanceOf(IOException.class)
+                    .hasMessageContaining("exited with code 3")
+                    .hasMessageContaining("ERROR: video unavailable");
+        }
+
+        assertThat(supervisor.getStats().failed()).isEqualTo(1);
+    }
+
+    @Test
+    void drainsStderrSoAChattyProcessDoesNotBlock() throws IOException {
+        supervisor = new ProcessSupervisor("test", 1, 1, Duration.ofSeconds(5), Duration.ofSeconds(30), Duration.ZERO);
+
+        // Far more stderr than a pipe buffer holds, before anything on stdout
+        try (InputStream out = supervisor.start("host", sh("head -c 2000000 /dev/zero | tr '\\0' x >&2; printf done"))) {
+            assertThat(new String(out.readAllBytes())).isEqualTo("done");
+        }
+    }
+
+    @Test
+    void queuesBeyondThePerHostLimit() throws Exception {
+        supervisor = new ProcessSupervisor("test", 4, 1, Duration.ofMillis(300), Duration.ZERO, Duration.ZERO);
+
+        InputStream first = supervisor.start("youtube", sh("sleep 30"));
+        // Another host still has a slot
+        supervisor.start("elsewhere", sh("true")).close();
+        assertThatThrownBy(() -> supervisor.start("youtube", sh("true")))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("gave up waiting");
+
+        // Closing early kills the process and frees its slot
+        first.close();
+        supervisor.start("youtube", sh("true")).close();
+        assertThat(supervisor.getStats().active()).isZero();
+    }
+
+    @Test
+    void killsAProcessWhoseOutputIsNotRead() throws Exception {
+        supervisor = new ProcessSupervisor("test", 1, 1, Duration.ofSeconds(5), Duration.ZERO, Duration.ofMillis(200));
+
+        InputStream out = supervisor.start("host", sh("sleep 30"));
+        Thread.sleep(2500);
+
+        assertThat(supervisor.getStats().timedOut()).isEqualTo(1);
+        assertThat(supervisor.getStats().active()).isZero();
+        assertThatThrownBy(out::read).hasMessageContaining("was not read for");
+        out.close();
+    }
+
+    @Test
+    void opensStreamsUnderTheSameSlotsAndStats() throws Exception {
+        supervisor = new ProcessSupervisor("test", 4, 1, Duration.ofMillis(300), Duration.ZERO, Duration.ZERO);
+
+        InputStream download = supervisor.open("youtube", () -> new ByteArrayInputStream("video".getBytes()));
+        // A process for the same host waits for the stream's slot
+        assertThatThrownBy(() -> supervisor.start("youtube", sh("true")))
+                .hasMessageContaining("gave up waiting");
+        assertThat(new String(download.readAllBytes())).isEqualTo("video");
+        download.close();
+        assertThatThrownBy(() -> supervisor.open("youtube", () -> {
+            throw new IOException("HTTP 403");
+        })).hasMessage("HTTP 403");
+
+        assertThat(supervisor.getStats()).isEqualTo(new ProcessSupervisor.Stats(0, 0, 1, 1, 1, 0));
+    }
+
+    @Test
+    void closesAStreamWhoseOutputIsNotRead() throws Exception {
+        supervisor = new ProcessSupervisor("test", 1, 1, Duration.ofSeconds(5), Duration.ZERO, Duration.ofMillis(200));
+        AtomicBoolean closed = new AtomicBoolean();
+
+        InputStream download = supervisor.open("host", () -> new ByteArrayInputStream(new byte[100]) {
+            @Override
+            public void close() {
+                closed.set(true);
+            }
+        });
+        Thread.sleep(2500);
+
+        assertThat(closed).isTrue();
+        assertThat(supervisor.getStats().timedOut()).isEqualTo(1);
+        assertThat(supervisor.getStats().active()).isZero();
+        download.close();
+    }
+
+    private static List<String> sh(String script) {
+        return List.of("sh", "-c", script);
+    }
+}
@@ -0,0 +1,267 @@
+package com.jaimin.justStore.utils;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpRequestFactory;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.javanet.NetHttpTransport;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResumableUploaderTest {
+
+    private static final int CHUNK = ResumableUploader.CHUNK_GRANULARITY;
+
+    @TempDir
+    Path tempDir;
+
+    private StubUploadServer server;
+    private HttpRequestFactory requestFactory;
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StubUploadServer();
+        requestFactory = new NetHttpTransport().createRequestFactory();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void uploadsInChunksAndReportsProgress() throws IOException {
+        byte[] payload = randomBytes(CHUNK * 3 + 1234);
+        Path file = write(payload);
+        ResumableUploader uploader = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+
+        String session = uploader.startSession(server.initiationUrl(), metadata(), "video/*", payload.length);
+        List<Long> progress = new ArrayList<>();
+        HttpResponse response = uploader.upload(session, file, "video/*", (committed, total) -> progress.add(committed));
+
+        assertThat(response.parseAsString()).contains("stub-video-id");
+        assertThat(server.received()).isEqualTo(payload);
+        assertThat(progress).isSorted().endsWith((long) payload.length);
+        assertThat(server.chunkStarts).containsExactly(0L, (long) CHUNK, 2L * CHUNK, 3L * CHUNK);
+    }
+
+    @Test
+    void retriesFromTheCommittedOffsetAfterFailures() throws IOException {
+        byte[] payload = randomBytes(CHUNK * 4);
+        Path file = write(payload);
+        // Second chunk is only half committed, third fails with a 503, fourth drops the connection
+        server.partialCommitOnChunk = 2;
+        server.failWith503OnChunk = 3;
+        server.dropConnectionOnChunk = 4;
+        ResumableUploader uploader = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+
+        String session = uploader.startSession(server.initiationUrl(), metadata(), "video/*", payload.length);
+        uploader.upload(session, file, "video/*", (committed, total) -> { }).disconnect();
+
+        assertThat(server.received()).isEqualTo(payload);
+        // The half committed chunk continues where the server stopped, not at the chunk boundary
+        assertThat(server.chunkStarts).contains((long) CHUNK + CHUNK / 2);
+    }
+
+    @Test
+    void continuesAPersistedSessionWithANewUploader() throws IOException {
+        byte[] payload = randomBytes(CHUNK * 4 + 17);
+        Path file = write(payload);
+
+        ResumableUploader first = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+        String session = first.startSession(server.initiationUrl(), metadata(), "video/*", payload.length);
+        long[] persisted = {0};
+        // Simulate the server process dying after two chunks were acknowledged
+        assertThatThrownBy(() -> first.upload(session, file, "video/*", (committed, total) -> {
+            persisted[0] = committed;
+            if (committed >= 2L * CHUNK) {
+                throw new IllegalStateException("crash");
+            }
+        })).hasMessage("crash");
+        assertThat(persisted[0]).isEqualTo(2L * CHUNK);
+
+        server.chunkStarts.clear();
+        ResumableUploader second = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+        second.upload(session, file, "video/*", (committed, total) -> { }).disconnect();
+
+        assertThat(server.received()).isEqualTo(payload);
+        assertThat(server.chunkStarts).first().isEqualTo(2L * CHUNK);
+    }
+
+    @Test
+    void streamsAnUploadOfUnknownLength() throws Exception {
+        byte[] payload = randomBytes(CHUNK * 5 + 999);
+        server.partialCommitOnChunk = 2;
+        server.failWith503OnChunk = 4;
+        ResumableUploader uploader = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+        String session = uploader.startSession(server.initiationUrl(), metadata(), "video/*", -1);
+
+        // Small memory buffer so the producer also goes through the spill file
+        try (SpillingPipe pipe = new SpillingPipe(CHUNK / 4, CHUNK * 2L, tempDir)) {
+            Thread producer = Thread.ofVirtual().start(() -> {
+                try (var sink = pipe.sink()) {
+                    for (int i = 0; i < payload.length; i += 10_000) {
+                        sink.write(payload, i, Math.min(10_000, payload.length - i));
+                    }
+                } catch (IOException e) {
+                    pipe.fail(e);
+                }
+            });
+            List<Long> totals = new ArrayList<>();
+            uploader.upload(session, pipe.source(), "video/*", (committed, total) -> totals.add(total)).disconnect();
+            producer.join();
+
+            assertThat(pipe.spilledBytes()).isPositive();
+            // The total is unknown until the stream ends
+            assertThat(totals).contains(-1L).endsWith((long) payload.length);
+        }
+        assertThat(server.received()).isEqualTo(payload);
+    }
+
+    @Test
+    void reportsAnExpiredSession() throws IOException {
+        Path file = write(randomBytes(CHUNK));
+        ResumableUploader uploader = new ResumableUploader(requestFactory, CHUNK, 3, 1);
+
+        assertThatThrownBy(() -> uploader.upload(server.sessionUrl("gone"), file, "video/*", (committed, total) -> { }))
+                .isInstanceOf(ResumableUploader.SessionExpiredException.class);
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws IOException {
+        Path file = write(randomBytes(CHUNK * 2));
+        server.failWith503Always = true;
+        ResumableUploader uploader = new ResumableUploader(requestFactory, CHUNK, 2, 1);
+        String session = uploader.startSession(server.initiationUrl(), metadata(), "video/*", CHUNK * 2);
+
+        assertThatThrownBy(() -> uploader.upload(session, file, "video/*", (committed, total) -> { }))
+                .isInstanceOf(IOException.class);
+    }
+
+    private Path write(byte[] payload) throws IOException {
+        Path file = tempDir.resolve("video.mp4");
+        Files.write(file, payload);
+        return file;
+    }
+
+    private static ByteArrayContent metadata() {
+        return new ByteArrayContent("application/json", "{\"snippet\":{}}".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Minimal resumable upload endpoint with one session and injectable failures.
+     */
+    private static final class StubUploadServer {
+        private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+        private final HttpServer httpServer;
+        private final ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        private final AtomicInteger chunks = new AtomicInteger();
+        final List<Long> chunkStarts = new ArrayList<>();
+
+        int partialCommitOnChunk = -1;
+        int failWith503OnChunk = -1;
+        int dropConnectionOnChunk = -1;
+        boolean failWith503Always;
+
+        StubUploadServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/upload", this::initiate);
+            httpServer.createContext("/session/", this::chunk);
+            httpServer.start();
+        }
+
+        GenericUrl initiationUrl() {
+            return new GenericUrl("http://127.0.0.1:" + httpServer.getAddress().getPort() + "/upload?uploadType=resumable");
+        }
+
+        String sessionUrl(String id) {
+            return "http://127.0.0.1:" + httpServer.getAddress().getPort() + "/session/" + id;
+        }
+
+        synchronized byte[] received() {
+            return stored.toByteArray();
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        private void initiate(HttpExchange exchange) throws IOException {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().set("Location", sessionUrl("1"));
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        }
+
+        private synchronized void chunk(HttpExchange exchange) throws IOException {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            if (!exchange.getRequestURI().getPath().endsWith("/1")) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+                return;
+            }
+            String contentRange = exchange.getRequestHeaders().getFirst("Content-Range");
+            // Streamed uploads name the total only in their last request
+            String totalField = contentRange.substring(contentRange.lastIndexOf('/') + 1);
+            long total = totalField.equals("*") ? -1 : Long.parseLong(totalField);
+
+            Matcher matcher = CONTENT_RANGE.matcher(contentRange);
+            if (matcher.matches()) {
+                int chunkNumber = chunks.incrementAndGet();
+                long start = Long.parseLong(matcher.group(1));
+                chunkStarts.add(start);
+                if (failWith503Always || chunkNumber == failWith503OnChunk) {
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                if (chunkNumber == dropConnectionOnChunk) {
+                    // Nothing stored and no response, the client sees a broken connection
+                    exchange.close();
+                    return;
+                }
+                if (start != stored.size()) {
+                    exchange.sendResponseHeaders(400, -1);
+                    exchange.close();
+                    return;
+                }
+                int accepted = chunkNumber == partialCommitOnChunk ? body.length / 2 : body.length;
+                stored.write(body, 0, accepted);
+            }
+
+            if (stored.size() == total) {
+                byte[] video = "{\"id\":\"stub-video-id\"}".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, video.length);
+                exchange.getResponseBody().write(video);
+            } else {
+                if (stored.size() > 0) {
+                    exchange.getResponseHeaders().set("Range", "bytes=0-" + (stored.size() - 1));
+                }
+                exchange.sendResponseHeaders(308, -1);
+            }
+            exchange.close();
+        }
+    }
+}
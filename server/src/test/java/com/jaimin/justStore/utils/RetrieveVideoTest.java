@@ -0,0 +1,123 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Ranged decodes land on the right frame, whether the video is a file or a stream that cannot seek,
+ * and whether its index comes before or after the media.
+ */
+class RetrieveVideoTest {
+
+    private static final int BLOCK_SIZE = 8;
+    private static final int FRAME = FrameHeader.bytesPerFrame(CreateVideoUtil.DEFAULT_WIDTH,
+            CreateVideoUtil.DEFAULT_HEIGHT, BLOCK_SIZE);
+    private static final int DATA_FRAMES = 60;
+
+    @TempDir
+    static Path tempDir;
+
+    private static byte[] payload;
+    private static Path video;
+    private static Path fragmented;
+
+    @BeforeAll
+    static void encode() throws IOException {
+        // Ends part way into the last frame
+        payload = randomBytes(DATA_FRAMES * FRAME - FRAME / 3, 9);
+        video = tempDir.resolve("ranges.mp4");
+        // Key frames every 10 frames, so seeks land before most targets
+        VideoEncoderSettings settings = new VideoEncoderSettings(VideoEncoderType.FFMPEG, "libx264", "veryfast", 18,
+                0, 10, BLOCK_SIZE, SymbolMode.BW1, Compression.NONE);
+        try (InputStream in = new ByteArrayInputStream(payload)) {
+            CreateVideoUtil.createVideo(in, payload.length, CreateVideoUtil.DEFAULT_WIDTH,
+                    CreateVideoUtil.DEFAULT_HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE, video.toString(), 2, settings);
+        }
+        // Index up front, the way videos are streamed while encoding
+        fragmented = tempDir.resolve("fragmented.mp4");
+        try (InputStream in = new ByteArrayInputStream(payload);
+             OutputStream out = Files.newOutputStream(fragmented)) {
+            CreateVideoUtil.streamVideo(in, payload.length, CreateVideoUtil.DEFAULT_WIDTH,
+                    CreateVideoUtil.DEFAULT_HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE, out, 2, settings);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 9, 10, 11, 29, 30, 31, DATA_FRAMES - 1})
+    void decodesARangeStartingInAnyFrame(int frame) throws IOException {
+        long offset = (long) frame * FRAME + 17;
+        long length = Math.min(FRAME + 100, payload.length - offset);
+
+        assertThat(decodeFile(video, offset, length)).isEqualTo(slice(offset, length));
+        assertThat(decodeStream(video, offset, length)).isEqualTo(slice(offset, length));
+        assertThat(decodeStream(fragmented, offset, length)).isEqualTo(slice(offset, length));
+    }
+
+    @Test
+    void decodesRangesOnFrameBoundaries() throws IOException {
+        for (int frame : new int[]{1, 20, 41}) {
+            long offset = (long) frame * FRAME;
+            assertThat(decodeFile(video, offset, FRAME)).isEqualTo(slice(offset, FRAME));
+            assertThat(decodeFile(fragmented, offset - 1, 2)).isEqualTo(slice(offset - 1, 2));
+        }
+        long tail = payload.length - 5;
+        assertThat(decodeStream(fragmented, tail, 5)).isEqualTo(slice(tail, 5));
+    }
+
+    @Test
+    void decodesWholeVideosFromStreamsWithTheIndexAnywhere() throws IOException {
+        assertThat(decodeStream(fragmented, 0, payload.length)).isEqualTo(payload);
+        assertThat(decodeStream(video, 0, -1)).isEqualTo(payload);
+        assertThat(decodeStream(fragmented, 0, 100)).isEqualTo(slice(0, 100));
+    }
+
+    @Test
+    void rejectsARangeBeyondThePayload() {
+        assertThatThrownBy(() -> decodeFile(video, payload.length - 10, 11))
+                .hasMessageContaining("outside the payload");
+    }
+
+    private static byte[] decodeFile(Path video, long offset, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RetrieveVideo.decodeVideo(video, out, VideoDecoderSettings.bgr(), offset, length);
+        return out.toByteArray();
+    }
+
+    private static byte[] decodeStream(Path video, long offset, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // Like a yt-dlp pipe: no mark, no reset
+        try (InputStream in = new FilterInputStream(Files.newInputStream(video)) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }) {
+            RetrieveVideo.decodeVideo(in, out, VideoDecoderSettings.bgr(), offset, length);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] slice(long offset, long length) {
+        return Arrays.copyOfRange(payload, (int) offset, (int) (offset + length));
+    }
+}
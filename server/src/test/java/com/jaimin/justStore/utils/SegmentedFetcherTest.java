@@ -0,0 +1,161 @@
+package com.jaimin.justStore.utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentedFetcherTest {
+
+    private static final int SEGMENT = 64 * 1024;
+
+    @TempDir
+    Path tempDir;
+
+    private StaticFileServer server;
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new StaticFileServer();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop();
+    }
+
+    @Test
+    void decodesAVideoFetchedInSegments() throws IOException {
+        byte[] payload = randomBytes(200_000);
+        Path video = tempDir.resolve("video.mp4");
+        CreateVideoUtil.createVideo(payload, CreateVideoUtil.DEFAULT_WIDTH, CreateVideoUtil.DEFAULT_HEIGHT,
+                CreateVideoUtil.DEFAULT_FRAME_RATE, video.toString());
+        server.content = Files.readAllBytes(video);
+        SegmentedFetcher fetcher = new SegmentedFetcher(httpClient, SEGMENT, 3, 2, 1);
+
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (InputStream in = fetcher.open(server.uri())) {
+            RetrieveVideo.decodeVideo(in, decoded, VideoDecoderSettings.bgr());
+        }
+
+        assertThat(decoded.toByteArray()).isEqualTo(payload);
+        assertThat(server.requestedStarts).hasSize((server.content.length + SEGMENT - 1) / SEGMENT);
+    }
+
+    @Test
+    void retriesAFailedSegment() throws IOException {
+        server.content = randomBytes(SEGMENT * 5 + 321);
+        server.failRequest = 3;
+        SegmentedFetcher fetcher = new SegmentedFetcher(httpClient, SEGMENT, 2, 2, 1);
+
+        try (InputStream in = fetcher.open(server.uri())) {
+            assertThat(in.readAllBytes()).isEqualTo(server.content);
+        }
+    }
+
+    @Test
+    void givesUpAfterMaxRetries() throws IOException {
+        server.content = randomBytes(SEGMENT * 3);
+        SegmentedFetcher fetcher = new SegmentedFetcher(httpClient, SEGMENT, 2, 1, 1);
+
+        try (InputStream in = fetcher.open(server.uri())) {
+            server.failAlways = true;
+            assertThatThrownBy(in::readAllBytes).isInstanceOf(IOException.class).hasMessageContaining("HTTP 503");
+        }
+    }
+
+    @Test
+    void readsAServerWithoutRangeSupportInOnePiece() throws IOException {
+        server.content = randomBytes(SEGMENT * 2 + 5);
+        server.rangeSupport = false;
+        SegmentedFetcher fetcher = new SegmentedFetcher(httpClient, SEGMENT, 4, 2, 1);
+
+        try (InputStream in = fetcher.open(server.uri())) {
+            assertThat(in.readAllBytes()).isEqualTo(server.content);
+        }
+        assertThat(server.requestedStarts).hasSize(1);
+    }
+
+    /**
+     * Serves one file, honouring single byte ranges, with injectable failures.
+     */
+    private static final class StaticFileServer {
+        private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+        private final HttpServer httpServer;
+        private final AtomicInteger requests = new AtomicInteger();
+        final List<Long> requestedStarts = new ArrayList<>();
+
+        volatile byte[] content;
+        volatile boolean rangeSupport = true;
+        volatile int failRequest = -1;
+        volatile boolean failAlways;
+
+        StaticFileServer() throws IOException {
+            httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            httpServer.createContext("/video.mp4", this::serve);
+            httpServer.setExecutor(Executors.newCachedThreadPool());
+            httpServer.start();
+        }
+
+        URI uri() {
+            return URI.create("http://127.0.0.1:" + httpServer.getAddress().getPort() + "/video.mp4");
+        }
+
+        void stop() {
+            httpServer.stop(0);
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            int request = requests.incrementAndGet();
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            Matcher matcher = range == null ? null : RANGE.matcher(range);
+            if (failAlways || request == failRequest) {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+                return;
+            }
+            if (!rangeSupport || matcher == null || !matcher.matches()) {
+                synchronized (requestedStarts) {
+                    requestedStarts.add(0L);
+                }
+                exchange.sendResponseHeaders(200, content.length);
+                exchange.getResponseBody().write(content);
+                exchange.close();
+                return;
+            }
+
+            int start = Integer.parseInt(matcher.group(1));
+            int end = Math.min(content.length - 1, Integer.parseInt(matcher.group(2)));
+            synchronized (requestedStarts) {
+                requestedStarts.add((long) start);
+            }
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            exchange.getResponseBody().write(content, start, end - start + 1);
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.jaimin.justStore.utils;
+
+import com.jaimin.justStore.enums.BlockSampling;
+import com.jaimin.justStore.enums.Compression;
+import com.jaimin.justStore.enums.SymbolMode;
+import com.jaimin.justStore.enums.VideoDecodeMode;
+import com.jaimin.justStore.enums.VideoEncoderType;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.jaimin.justStore.utils.TestData.randomBytes;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Density and error rate of every {@link SymbolMode}: frames rendered with noise added to every
+ * channel, and whole videos through libx264.
+ */
+class SymbolModeRoundTripTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(SymbolModeRoundTripTest.class);
+
+    private static final int WIDTH = CreateVideoUtil.DEFAULT_WIDTH;
+    private static final int HEIGHT = CreateVideoUtil.DEFAULT_HEIGHT;
+
+    @TempDir
+    Path tempDir;
+
+    @ParameterizedTest
+    @EnumSource(SymbolMode.class)
+    void carriesBitsPerSymbolTimesTheBytesOfBlackAndWhite(SymbolMode mode) {
+        assertThat(FrameHeader.bytesPerFrame(WIDTH, HEIGHT, 2, mode))
+                .isEqualTo(mode.bitsPerSymbol() * FrameHeader.bytesPerFrame(WIDTH, HEIGHT, 2));
+    }
+
+    @Test
+    void tradesNoiseMarginForDensity() {
+        Map<SymbolMode, Double> quiet = new EnumMap<>(SymbolMode.class);
+        Map<SymbolMode, Double> noisy = new EnumMap<>(SymbolMode.class);
+        for (SymbolMode mode : SymbolMode.values()) {
+            quiet.put(mode, bitErrorRate(mode, 0));
+            noisy.put(mode, bitErrorRate(mode, 24));
+            logger.info("{}: {} bytes per frame, bit error rate {} without noise, {} with sigma 24", mode,
+                    FrameHeader.bytesPerFrame(WIDTH, HEIGHT, 2, mode), quiet.get(mode), noisy.get(mode));
+        }
+
+        assertThat(quiet).allSatisfy((mode, rate) -> assertThat(rate).isZero());
+        // Black and white and each colour channel keep a margin of 128, four grey levels only 42
+        assertThat(noisy.get(SymbolMode.BW1)).isZero();
+        assertThat(noisy.get(SymbolMode.RGB3)).isZero();
+        assertThat(noisy.get(SymbolMode.GRAY4)).isBetween(1e-4, 1e-1);
+    }
+
+    @ParameterizedTest
+    @CsvSource({"BW1, 1", "GRAY4, 4", "RGB3, 2"})
+    void survivesLibx264AtItsBlockSize(SymbolMode mode, int blockSize) throws Exception {
+        byte[] payload = randomBytes(300_000);
+        Path video = tempDir.resolve(mode + ".mp4");
+        VideoEncoderSettings settings =
+                new VideoEncoderSettings(VideoEncoderType.FFMPEG, "libx264", "veryfast", 18, 0, 48, blockSize, mode,
+                        Compression.NONE);
+        try (InputStream in = new ByteArrayInputStream(payload)) {
+            CreateVideoUtil.createVideo(in, payload.length, WIDTH, HEIGHT, CreateVideoUtil.DEFAULT_FRAME_RATE,
+                    video.toString(), 2, settings);
+        }
+
+        VideoDecoderSettings decoderSettings =
+                new VideoDecoderSettings(VideoDecodeMode.LUMA, false, 2, BlockSampling.MAJORITY, 2).forSymbolMode(mode);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(video)) {
+            RetrieveVideo.decodeVideo(in, decoded, decoderSettings);
+        }
+
+        assertThat(decoded.toByteArray()).isEqualTo(payload);
+    }
+
+    @Test
+    void rejectsColourSymbolsItCannotDraw() {
+        assertThatThrownBy(() -> new PackedFrameWriter(WIDTH, HEIGHT, 1, SymbolMode.RGB3,
+                PackedFrameWriter.PixelFormat.BGR24))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new PackedFrameWriter(WIDTH, HEIGHT, 2, SymbolMode.RGB3,
+                PackedFrameWriter.PixelFormat.GRAY8))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Render one frame of 2 pixel blocks, add Gaussian noise of {@code sigma} to every channel
+     * and read it back.
+     */
+    private static double bitErrorRate(SymbolMode mode, double sigma) {
+        PackedFrameWriter writer = new PackedFrameWriter(WIDTH, HEIGHT, 2, mode, PackedFrameWriter.PixelFormat.BGR24);
+        byte[] payload = randomBytes(writer.getBytesPerFrame());
+        writer.render(payload, 0, payload.length);
+
+        Frame frame = new Frame(WIDTH, HEIGHT, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer image = (ByteBuffer) frame.image[0];
+        Random noise = new Random(42);
+        byte[] bgr = writer.getBgr();
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH * 3; x++) {
+                int value = (bgr[y * WIDTH * 3 + x] & 0xFF) + (int) Math.round(noise.nextGaussian() * sigma);
+                image.put(y * frame.imageStride + x, (byte) Math.clamp(value, 0, 255));
+            }
+        }
+        DecodedFrame decoded = new DecodedFrame();
+        decoded.copyFrom(frame);
+
+        FrameHeader header = FrameHeader.of(payload.length, WIDTH, HEIGHT, 2, mode);
+        byte[] read = new byte[header.bytesPerFrame()];
+        int length = new PackedFrameReader(false, BlockSampling.CENTER).readFrame(decoded, header, read);
+        assertThat(length).isEqualTo(payload.length);
+
+        long errors = 0;
+        for (int i = 0; i < payload.length; i++) {
+            errors += Integer.bitCount((payload[i] ^ read[i]) & 0xFF);
+        }
+        return (double) errors / (payload.length * 8L);
+    }
+}
@@ -0,0 +1,25 @@
+package com.jaimin.justStore.utils;
+
+import java.util.Random;
+
+/**
+ * Reproducible test payloads.
+ */
+public final class TestData {
+
+    private TestData() {
+    }
+
+    /**
+     * {@code length} random bytes, the same for the same length.
+     */
+    public static byte[] randomBytes(int length) {
+        return randomBytes(length, length);
+    }
+
+    public static byte[] randomBytes(int length, long seed) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+}